@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.function.LongPredicate;
 
 /** A buffer to be used to store re-useable stuff */
 public final class ByteBuffers {
@@ -67,6 +68,43 @@ public final class ByteBuffers {
     return this.__load(is).toByteArray();
   }
 
+  /**
+   * Load a given stream into memory, but give up as soon as the
+   * number of bytes loaded so far is no longer accepted. This
+   * allows us to abandon the output of a process early, e.g., if
+   * it already became too large to be useful. This method will
+   * invalidate the contents of {@link #getBufferedOutputStream()}
+   * .
+   *
+   * @param is
+   *          the stream to load
+   * @param accept
+   *          the predicate which is checked with the number of
+   *          bytes loaded so far after each read operation
+   * @return the bytes read, or {@code null} if loading was
+   *         aborted because {@code accept} returned
+   *         {@code false}
+   * @throws IOException
+   *           if i/o fails
+   */
+  public final byte[] load(final InputStream is,
+      final LongPredicate accept) throws IOException {
+    final byte[] buffer;
+    final __BOS os;
+    int read;
+
+    buffer = this.m_byteBuffer;
+    os = this.m_outputBuffer;
+    os.reset();
+    while ((read = is.read(buffer)) > 0) {
+      os.write(buffer, 0, read);
+      if (!(accept.test(os.size()))) {
+        return null;
+      }
+    }
+    return os.toByteArray();
+  }
+
   /**
    * load the given stream
    *
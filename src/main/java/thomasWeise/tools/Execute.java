@@ -71,6 +71,16 @@ public final class Execute {
         ": 1.., number of cores to use, default: autodetect");//$NON-NLS-1$
   }
 
+  /**
+   * Get the number of worker threads, i.e., the number of tasks
+   * which can run in parallel
+   *
+   * @return the number of worker threads
+   */
+  public static final int getCores() {
+    return __Holder.CORES;
+  }
+
   /**
    * Add a task to the queue. Actually: Put it at the front of
    * the queue, as our queue is more something like a stack
@@ -741,6 +751,9 @@ public final class Execute {
     /** the synchronizer object */
     static final Object SYNCH = new Object();
 
+    /** the number of worker threads */
+    static final int CORES;
+
     static {
       final int[] np = new int[] {
           Runtime.getRuntime().availableProcessors() };
@@ -757,6 +770,7 @@ public final class Execute {
       });
 
       final int numProc = np[0];
+      CORES = numProc;
       for (int index = 1; index <= numProc; index++) {
         new __Worker(index).start();
       }
@@ -37,7 +37,7 @@ final class _ProducerConsumerInputStream extends InputStream {
     b = new byte[1];
     r = this.m_buffer.readFromBuffer(b, 0, 1);
     if (r == 1) {
-      return b[0];
+      return (b[0] & 0xff);
     }
     if (r == (-1)) {
       return (-1);
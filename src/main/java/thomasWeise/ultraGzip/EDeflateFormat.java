@@ -0,0 +1,31 @@
+package thomasWeise.ultraGzip;
+
+/** The formats in which compressed data can be returned. */
+public enum EDeflateFormat {
+
+  /** a gzip archive (RFC 1952), with a CRC-32 checksum */
+  GZIP,
+
+  /** a zlib stream (RFC 1950), with an Adler-32 checksum */
+  ZLIB,
+
+  /** a raw DEFLATE stream (RFC 1951), without any checksum */
+  RAW;
+
+  /**
+   * Find the format with the given name, ignoring the case.
+   *
+   * @param name
+   *          the name
+   * @return the format
+   */
+  static final EDeflateFormat _parse(final String name) {
+    for (final EDeflateFormat format : EDeflateFormat.values()) {
+      if (format.name().equalsIgnoreCase(name.trim())) {
+        return format;
+      }
+    }
+    throw new IllegalArgumentException(
+        "Unknown DEFLATE format: " + name); //$NON-NLS-1$
+  }
+}
@@ -1,6 +1,7 @@
 package thomasWeise.ultraGzip;
 
 import java.io.PrintStream;
+import java.nio.file.Path;
 import java.util.function.Supplier;
 
 import thomasWeise.tools.Configuration;
@@ -13,6 +14,62 @@ public final class UltraGzip
   /** the intensity parameter */
   private static final String PARAM_INTENSITY = "gzipIntensity"; //$NON-NLS-1$
 
+  /** the abort margin parameter */
+  private static final String PARAM_ABORT_MARGIN =
+      "gzipAbortMargin"; //$NON-NLS-1$
+
+  /** the deferred verification parameter */
+  private static final String PARAM_DEFER_VERIFICATION =
+      "gzipDeferVerification"; //$NON-NLS-1$
+
+  /** the candidate store budget parameter */
+  private static final String PARAM_STORE_BUDGET =
+      "gzipStoreBudget"; //$NON-NLS-1$
+
+  /** the chunk size parameter */
+  private static final String PARAM_CHUNK_SIZE =
+      "gzipChunkSize"; //$NON-NLS-1$
+
+  /** the member size parameter */
+  private static final String PARAM_MEMBER_SIZE =
+      "gzipMemberSize"; //$NON-NLS-1$
+
+  /** the recompression parameter */
+  private static final String PARAM_RECOMPRESS =
+      "gzipRecompress"; //$NON-NLS-1$
+
+  /** the size cache parameter */
+  private static final String PARAM_SIZE_CACHE =
+      "gzipSizeCache"; //$NON-NLS-1$
+
+  /** the output format parameter */
+  private static final String PARAM_FORMAT =
+      "gzipFormat"; //$NON-NLS-1$
+
+  /** the header name parameter */
+  private static final String PARAM_HEADER_NAME =
+      "gzipHeaderName"; //$NON-NLS-1$
+
+  /** the header time parameter */
+  private static final String PARAM_HEADER_TIME =
+      "gzipHeaderTime"; //$NON-NLS-1$
+
+  /** the decode margin parameter */
+  private static final String PARAM_DECODE_MARGIN =
+      "gzipDecodeMargin"; //$NON-NLS-1$
+
+  /** the deterministic mode parameter */
+  private static final String PARAM_DETERMINISTIC =
+      "gzipDeterministic"; //$NON-NLS-1$
+
+  /** the parameter disabling the incompressible fast path */
+  private static final String PARAM_NO_FAST_PATH =
+      "gzipNoFastPath"; //$NON-NLS-1$
+
+  /** the tiny data size parameter */
+  private static final String PARAM_TINY_SIZE =
+      "gzipTinySize"; //$NON-NLS-1$
+
   /** the UtralGzip Version */
   static final String VERSION = "0.9.3"; //$NON-NLS-1$
 
@@ -21,6 +78,152 @@ public final class UltraGzip
     return __IntensityHolder.INTENSITY;
   }
 
+  /**
+   * Get the abort margin: an in-JVM compression is abandoned if
+   * its projected final size exceeds the best result so far by
+   * more than this many percent.
+   *
+   * @return the abort margin, in percent
+   */
+  static final int _getAbortMargin() {
+    return __AbortMarginHolder.ABORT_MARGIN;
+  }
+
+  /**
+   * Should the verification of compressed data be deferred until
+   * the end of a job by default?
+   *
+   * @return {@code true} if verification should be deferred,
+   *         {@code false} otherwise
+   */
+  static final boolean _isDeferringVerification() {
+    return __DeferVerificationHolder.DEFER_VERIFICATION;
+  }
+
+  /**
+   * Get the number of bytes which candidates may occupy on the
+   * heap. Beyond that, candidates are spilled to disk.
+   *
+   * @return the budget for candidates on the heap, in bytes
+   */
+  static final long _getStoreBudget() {
+    return __StoreBudgetHolder.STORE_BUDGET;
+  }
+
+  /**
+   * Get the default size of the chunks into which large data is
+   * split to be compressed in parallel.
+   *
+   * @return the chunk size in bytes, or {@code 0} if data should
+   *         be compressed as a whole
+   */
+  static final int _getChunkSize() {
+    return __ChunkSizeHolder.CHUNK_SIZE;
+  }
+
+  /**
+   * Get the default size of the data to put into each gzip member.
+   *
+   * @return the member size in bytes, or {@code 0} if a single
+   *         member should be produced
+   */
+  static final int _getMemberSize() {
+    return __MemberSizeHolder.MEMBER_SIZE;
+  }
+
+  /**
+   * Should gzip archives given as input be re-optimized member by
+   * member instead of being compressed again?
+   *
+   * @return {@code true} if they should, {@code false} otherwise
+   */
+  static final boolean _isRecompressing() {
+    return __RecompressHolder.RECOMPRESS;
+  }
+
+  /**
+   * Get the file in which the smallest known member sizes for the
+   * data of re-optimized gzip members are persisted.
+   *
+   * @return the file, or {@code null} if none is used
+   */
+  static final Path _getSizeCachePath() {
+    return __SizeCachePathHolder.PATH;
+  }
+
+  /**
+   * Get the default format of the results.
+   *
+   * @return the format
+   */
+  static final EDeflateFormat _getFormat() {
+    return __FormatHolder.FORMAT;
+  }
+
+  /**
+   * Should the name of the input file be stored in the gzip header
+   * of the result?
+   *
+   * @return {@code true} if it should, {@code false} otherwise
+   */
+  static final boolean _isStoringName() {
+    return __HeaderHolder.NAME;
+  }
+
+  /**
+   * Should the modification time of the input file be stored in
+   * the gzip header of the result?
+   *
+   * @return {@code true} if it should, {@code false} otherwise
+   */
+  static final boolean _isStoringTime() {
+    return __HeaderHolder.TIME;
+  }
+
+  /**
+   * Get the default decode margin: among the candidates at most
+   * this many bytes larger than the smallest one, the one which
+   * is cheapest to decode is returned.
+   *
+   * @return the decode margin in bytes, or {@code -1} if the
+   *         smallest candidate is always returned
+   */
+  static final int _getDecodeMargin() {
+    return __DecodeMarginHolder.DECODE_MARGIN;
+  }
+
+  /**
+   * Should the results be deterministic, i.e., independent of the
+   * timing of the compressors?
+   *
+   * @return {@code true} if they should, {@code false} otherwise
+   */
+  static final boolean _isDeterministic() {
+    return __DeterministicHolder.DETERMINISTIC;
+  }
+
+  /**
+   * Should data which is clearly incompressible be encoded
+   * directly instead of running all compressors?
+   *
+   * @return {@code true} if it should, {@code false} otherwise
+   */
+  static final boolean _isUsingFastPath() {
+    return __FastPathHolder.FAST_PATH;
+  }
+
+  /**
+   * Get the size up to which data is encoded by the in-JVM encoder
+   * for tiny data and the in-JVM compressors only, instead of by
+   * all compressors.
+   *
+   * @return the size in bytes, or {@code 0} if the compressors are
+   *         always used
+   */
+  static final int _getTinySize() {
+    return __TinySizeHolder.TINY_SIZE;
+  }
+
   /**
    * Create a quality range starting between min and max and
    * always ending at max. The default value is used as starting
@@ -83,6 +286,35 @@ public final class UltraGzip
   public static final void printArgs(final PrintStream out) {
     out.println(' ' + UltraGzip.PARAM_INTENSITY
         + "=0(min)..10(max), default 5: intensity - the higher the slower");//$NON-NLS-1$
+    out.println(' ' + UltraGzip.PARAM_ABORT_MARGIN
+        + "=0..., default 5: abandon in-JVM compression if projected size exceeds the best by this many percent");//$NON-NLS-1$
+    out.println(' ' + UltraGzip.PARAM_DEFER_VERIFICATION
+        + " ... only fully verify the final result instead of every promising one");//$NON-NLS-1$
+    out.println(' ' + UltraGzip.PARAM_STORE_BUDGET
+        + "=0..., default: a quarter of the heap: MiB of candidates kept on the heap before spilling to disk");//$NON-NLS-1$
+    out.println(' ' + UltraGzip.PARAM_CHUNK_SIZE
+        + "=0..., default 0: KiB per chunk when compressing large data as chunks in parallel, 0 to disable");//$NON-NLS-1$
+    out.println(' ' + UltraGzip.PARAM_MEMBER_SIZE
+        + "=0..64, default 0: KiB of data per gzip member for indexed BGZF output (64 means 65280 bytes, as in bgzip), 0 for a single member");//$NON-NLS-1$
+    out.println(' ' + UltraGzip.PARAM_RECOMPRESS
+        + " ... re-optimize gzip input member by member instead of compressing it again");//$NON-NLS-1$
+    out.println(' ' + UltraGzip.PARAM_SIZE_CACHE
+        + "=/path/to/file, default: none.. file remembering the best member sizes, so that re-optimizing already optimal gzip input is skipped");//$NON-NLS-1$
+    out.println(' ' + UltraGzip.PARAM_FORMAT
+        + "=gzip|zlib|raw, default gzip: the format of the output");//$NON-NLS-1$
+    out.println(' ' + UltraGzip.PARAM_DECODE_MARGIN
+        + "=0..., default: none: return the candidate cheapest to decode among those at most this many bytes larger than the smallest");//$NON-NLS-1$
+    out.println(' ' + UltraGzip.PARAM_DETERMINISTIC
+        + " ... always produce the same output for the same input, regardless of timing and number of cores");//$NON-NLS-1$
+    out.println(' ' + UltraGzip.PARAM_NO_FAST_PATH
+        + " ... run all compressors even for data which looks incompressible");//$NON-NLS-1$
+    out.println(' ' + UltraGzip.PARAM_TINY_SIZE
+        + "=0..." + _TinyDeflate.MAX_SIZE //$NON-NLS-1$
+        + ", default 256: encode data up to this many bytes in the JVM instead of running the external compressors");//$NON-NLS-1$
+    out.println(' ' + UltraGzip.PARAM_HEADER_NAME
+        + " ... store the name of the input file in the gzip header");//$NON-NLS-1$
+    out.println(' ' + UltraGzip.PARAM_HEADER_TIME
+        + " ... store the modification time of the input file in the gzip header");//$NON-NLS-1$
     out.println(' ' + _GZIP.ARG
         + "=/path/to/gzip, default: autodetect.. path to gzip binary");//$NON-NLS-1$
     out.println(' ' + _7ZIP.ARG
@@ -164,4 +396,188 @@ public final class UltraGzip
               + __IntensityHolder.INTENSITY);
     }
   }
+
+  /** the abort margin holder */
+  private static final class __AbortMarginHolder {
+
+    /** the abort margin */
+    static final int ABORT_MARGIN;
+
+    static {
+      final int[] d = new int[] { 5 };
+      Configuration.synchronizedConfig(() -> {
+        final Integer margin =
+            Configuration.getInteger(UltraGzip.PARAM_ABORT_MARGIN);
+        if (margin != null) {
+          d[0] = Math.max(0, margin.intValue());
+        }
+        Configuration.putInteger(UltraGzip.PARAM_ABORT_MARGIN,
+            d[0]);
+      });
+      ABORT_MARGIN = d[0];
+    }
+  }
+
+  /** the deferred verification holder */
+  private static final class __DeferVerificationHolder {
+
+    /** should verification be deferred? */
+    static final boolean DEFER_VERIFICATION = Configuration
+        .getBoolean(UltraGzip.PARAM_DEFER_VERIFICATION);
+  }
+
+  /** the candidate store budget holder */
+  private static final class __StoreBudgetHolder {
+
+    /** the budget, in bytes */
+    static final long STORE_BUDGET;
+
+    static {
+      final int[] d = new int[] { (int) (Math.min(Integer.MAX_VALUE,
+          Runtime.getRuntime().maxMemory() >>> 22)) };
+      Configuration.synchronizedConfig(() -> {
+        final Integer budget =
+            Configuration.getInteger(UltraGzip.PARAM_STORE_BUDGET);
+        if (budget != null) {
+          d[0] = Math.max(0, budget.intValue());
+        }
+        Configuration.putInteger(UltraGzip.PARAM_STORE_BUDGET,
+            d[0]);
+      });
+      STORE_BUDGET = (((long) (d[0])) << 20);
+    }
+  }
+
+  /** the chunk size holder */
+  private static final class __ChunkSizeHolder {
+
+    /** the chunk size, in bytes */
+    static final int CHUNK_SIZE;
+
+    static {
+      final int[] d = new int[] { 0 };
+      Configuration.synchronizedConfig(() -> {
+        final Integer size =
+            Configuration.getInteger(UltraGzip.PARAM_CHUNK_SIZE);
+        if (size != null) {
+          d[0] = Math.max(0, Math.min(1 << 20, size.intValue()));
+        }
+        Configuration.putInteger(UltraGzip.PARAM_CHUNK_SIZE, d[0]);
+      });
+      CHUNK_SIZE = (d[0] << 10);
+    }
+  }
+
+  /** the member size holder */
+  private static final class __MemberSizeHolder {
+
+    /** the member size, in bytes */
+    static final int MEMBER_SIZE;
+
+    static {
+      final int[] d = new int[] { 0 };
+      Configuration.synchronizedConfig(() -> {
+        final Integer size =
+            Configuration.getInteger(UltraGzip.PARAM_MEMBER_SIZE);
+        if (size != null) {
+          d[0] = Math.max(0, Math.min(64, size.intValue()));
+        }
+        Configuration.putInteger(UltraGzip.PARAM_MEMBER_SIZE, d[0]);
+      });
+      MEMBER_SIZE = Math.min(d[0] << 10, _Members.MAX_MEMBER_SIZE);
+    }
+  }
+
+  /** the recompression holder */
+  private static final class __RecompressHolder {
+
+    /** should gzip input be re-optimized? */
+    static final boolean RECOMPRESS =
+        Configuration.getBoolean(UltraGzip.PARAM_RECOMPRESS);
+  }
+
+  /** the size cache path holder */
+  private static final class __SizeCachePathHolder {
+
+    /** the size cache file, or {@code null} */
+    static final Path PATH =
+        Configuration.getPath(UltraGzip.PARAM_SIZE_CACHE);
+  }
+
+  /** the output format holder */
+  private static final class __FormatHolder {
+
+    /** the output format */
+    static final EDeflateFormat FORMAT;
+
+    static {
+      final String format =
+          Configuration.getString(UltraGzip.PARAM_FORMAT);
+      FORMAT = ((format != null) ? EDeflateFormat._parse(format)
+          : EDeflateFormat.GZIP);
+    }
+  }
+
+  /** the decode margin holder */
+  private static final class __DecodeMarginHolder {
+
+    /** the decode margin, in bytes, or {@code -1} */
+    static final int DECODE_MARGIN;
+
+    static {
+      final Integer margin =
+          Configuration.getInteger(UltraGzip.PARAM_DECODE_MARGIN);
+      DECODE_MARGIN =
+          ((margin != null) ? Math.max(0, margin.intValue()) : -1);
+    }
+  }
+
+  /** the deterministic mode holder */
+  private static final class __DeterministicHolder {
+
+    /** should the results be deterministic? */
+    static final boolean DETERMINISTIC =
+        Configuration.getBoolean(UltraGzip.PARAM_DETERMINISTIC);
+  }
+
+  /** the fast path holder */
+  private static final class __FastPathHolder {
+
+    /** should incompressible data be encoded directly? */
+    static final boolean FAST_PATH =
+        (!(Configuration.getBoolean(UltraGzip.PARAM_NO_FAST_PATH)));
+  }
+
+  /** the tiny data size holder */
+  private static final class __TinySizeHolder {
+
+    /** the tiny data size, in bytes */
+    static final int TINY_SIZE;
+
+    static {
+      final int[] d = new int[] { 256 };
+      Configuration.synchronizedConfig(() -> {
+        final Integer size =
+            Configuration.getInteger(UltraGzip.PARAM_TINY_SIZE);
+        if (size != null) {
+          d[0] = Math.max(0,
+              Math.min(_TinyDeflate.MAX_SIZE, size.intValue()));
+        }
+        Configuration.putInteger(UltraGzip.PARAM_TINY_SIZE, d[0]);
+      });
+      TINY_SIZE = d[0];
+    }
+  }
+
+  /** the gzip header holder */
+  private static final class __HeaderHolder {
+
+    /** should the file name be stored? */
+    static final boolean NAME =
+        Configuration.getBoolean(UltraGzip.PARAM_HEADER_NAME);
+
+    /** should the modification time be stored? */
+    static final boolean TIME =
+        Configuration.getBoolean(UltraGzip.PARAM_HEADER_TIME);
+  }
 }
@@ -1,8 +1,12 @@
 package thomasWeise.ultraGzip;
 
+import java.io.BufferedInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 
 import thomasWeise.tools.ByteBuffers;
 import thomasWeise.tools.ConsoleIO;
@@ -11,6 +15,15 @@ import thomasWeise.tools.IOJob;
 /** The job for the ultra gzip I/O tool. */
 public final class UltraGzipIOJob extends IOJob {
 
+  /** should gzip input be re-optimized member by member? */
+  private final boolean m_recompress;
+
+  /** should the input file name be stored in the gzip header? */
+  private final boolean m_storeName;
+
+  /** should the input file time be stored in the gzip header? */
+  private final boolean m_storeTime;
+
   /**
    * create
    *
@@ -19,13 +32,133 @@ public final class UltraGzipIOJob extends IOJob {
    */
   UltraGzipIOJob(final UltraGzipIOJobBuilder ugo) {
     super(ugo);
+    this.m_recompress = ugo.m_recompress;
+    this.m_storeName = ugo.m_storeName;
+    this.m_storeTime = ugo.m_storeTime;
+  }
+
+  /**
+   * Read the first bytes of a file, which identify its format.
+   *
+   * @param path
+   *          the file
+   * @return the first (up to) eight bytes
+   * @throws IOException
+   *           if i/o fails
+   */
+  private static final byte[] __magic(final Path path)
+      throws IOException {
+    try (final InputStream is = Files.newInputStream(path)) {
+      return UltraGzipIOJob.__magic(is);
+    }
+  }
+
+  /**
+   * Read the first bytes of a stream, which identify its format.
+   *
+   * @param is
+   *          the stream
+   * @return the first (up to) eight bytes
+   * @throws IOException
+   *           if i/o fails
+   */
+  private static final byte[] __magic(final InputStream is)
+      throws IOException {
+    final byte[] magic;
+    int length, read;
+
+    magic = new byte[8];
+    length = 0;
+    while ((length < magic.length) && ((read = is.read(magic,
+        length, magic.length - length)) > 0)) {
+      length += read;
+    }
+    return Arrays.copyOf(magic, length);
+  }
+
+  /**
+   * Check whether the given bytes start a ZIP archive or a PNG
+   * file, whose compressed contents can be re-optimized in place.
+   *
+   * @param data
+   *          the bytes
+   * @return {@code true} if they do, {@code false} otherwise
+   */
+  private static final boolean __isContainer(final byte[] data) {
+    return (_ZipRecompression._isZip(data, data.length)
+        || _PngRecompression._isPng(data, data.length));
+  }
+
+  /**
+   * Re-optimize the compressed contents of a ZIP archive or a PNG
+   * file and write the result to the output.
+   *
+   * @param input
+   *          the ZIP archive or PNG file
+   * @param name
+   *          the name of the job
+   * @throws IOException
+   *           if i/o fails
+   */
+  private final void __recompressContainer(final byte[] input,
+      final String name) throws IOException {
+    final byte[] result;
+    final String kind;
+
+    if (_ZipRecompression._isZip(input, input.length)) {
+      kind = "ZIP archive"; //$NON-NLS-1$
+    } else {
+      kind = "PNG file"; //$NON-NLS-1$
+    }
+    ConsoleIO.stdout(name + " has detected a " + kind //$NON-NLS-1$
+        + " and now re-optimizes its contents."); //$NON-NLS-1$
+    result = ((_ZipRecompression._isZip(input, input.length))
+        ? _ZipRecompression._recompress(input, name)
+        : _PngRecompression._recompress(input, name));
+    try (final OutputStream os =
+        (this.isUsingStdOut() ? System.out : //
+            Files.newOutputStream(this.getOutputPath()))) {//
+      os.write(result);
+    }
+    ConsoleIO.stdout(name + " has re-optimized the " + input.length //$NON-NLS-1$
+        + "B " + kind + " down to " + result.length //$NON-NLS-1$//$NON-NLS-2$
+        + "B and, hence, completed its task."); //$NON-NLS-1$
+  }
+
+  /**
+   * Re-optimize a gzip archive member by member and write the
+   * result to the output.
+   *
+   * @param is
+   *          the stream to read the archive from
+   * @param name
+   *          the name of the job
+   * @throws IOException
+   *           if i/o fails
+   */
+  private final void __recompress(final InputStream is,
+      final String name) throws IOException {
+    final long count;
+
+    ConsoleIO.stdout(name
+        + " has detected gzip input and now re-optimizes its members."); //$NON-NLS-1$
+    try (final OutputStream os =
+        (this.isUsingStdOut() ? System.out : //
+            Files.newOutputStream(this.getOutputPath()))) {//
+      count = _Recompression._recompress(is, os, name);
+    }
+    ConsoleIO.stdout(name + " has re-optimized all " + count //$NON-NLS-1$
+        + " members and, hence, completed its task."); //$NON-NLS-1$
   }
 
   /** run! */
   @Override
   public final void run() {
+    final UltraGzipJobBuilder builder;
+    final UltraGzipJob job;
+    final byte[] index;
     byte[] data;
-    int size;
+    long size;
     String name;
 
     if (this.isUsingStdIn()) {
@@ -43,18 +176,83 @@ public final class UltraGzipIOJob extends IOJob {
     ConsoleIO.stdout(name + " is now loading input data."); //$NON-NLS-1$
     try {
 
-      try (
-          final InputStream is = (this.isUsingStdIn() ? System.in//
-              : Files.newInputStream(this.getInputPath()))) {
-        data = ByteBuffers.get().load(is);
+      builder = UltraGzip.getInstance().get().setName(name);
+      if (!(this.isUsingStdIn())) {
+        if (this.m_storeName && (UltraGzip._getMemberSize() <= 0)) {
+          // BGZF members cannot hold a file name
+          builder.setHeaderName(
+              this.getInputPath().getFileName().toString()
+                  + (Files.isDirectory(this.getInputPath()) ? ".tar" //$NON-NLS-1$
+                      : "")); //$NON-NLS-1$
+        }
+        if (this.m_storeTime) {
+          builder.setHeaderTime(Math.max(0L, Math.min(0xffffffffL,
+              Files.getLastModifiedTime(this.getInputPath())
+                  .toMillis() / 1000L)));
+        }
+      }
+
+      if (this.isUsingStdIn()) {
+        try (final InputStream is =
+            new BufferedInputStream(System.in)) {
+          if (this.m_recompress) {
+            // peek at the magic number, so that gzip input can be
+            // streamed through the recompression
+            is.mark(8);
+            data = UltraGzipIOJob.__magic(is);
+            is.reset();
+            if (_MemberReader._isGZip(data, data.length)) {
+              this.__recompress(is, name);
+              return;
+            }
+          }
+          data = ByteBuffers.get().load(is);
+        }
+        if (this.m_recompress
+            && UltraGzipIOJob.__isContainer(data)) {
+          this.__recompressContainer(data, name);
+          return;
+        }
+        size = data.length;
+        builder.setData(data);
+        data = null;
+      } else if (Files.isDirectory(this.getInputPath())) {
+        // pack the directory into a tar archive with similar files
+        // next to each other
+        ConsoleIO.stdout(name
+            + " has detected a directory and now packs it into a tar archive."); //$NON-NLS-1$
+        data = _Tar._tar(this.getInputPath());
+        size = data.length;
+        builder.setData(data);
+        data = null;
+      } else {
+        if (this.m_recompress) {
+          data = UltraGzipIOJob.__magic(this.getInputPath());
+          if (_MemberReader._isGZip(data, data.length)) {
+            try (final InputStream is = new BufferedInputStream(
+                Files.newInputStream(this.getInputPath()))) {
+              this.__recompress(is, name);
+            }
+            return;
+          }
+          if (UltraGzipIOJob.__isContainer(data)) {
+            this.__recompressContainer(
+                Files.readAllBytes(this.getInputPath()), name);
+            return;
+          }
+        }
+        // read or map the file without going through a growing
+        // buffer, which also allows for inputs beyond 2 GiB
+        builder.setPath(this.getInputPath());
+        size = Files.size(this.getInputPath());
       }
 
-      size = data.length;
       ConsoleIO.stdout(name + " has loaded " + size//$NON-NLS-1$
           + "B of input data - now compressing."); //$NON-NLS-1$
 
-      data = UltraGzip.getInstance().get().setData(data)//
-          .setName(name).get().call();
+      job = builder.get();
+      data = job.call();
+      index = job.getIndex();
 
       ConsoleIO.stdout(name + " has compressed the " + size //$NON-NLS-1$
           + "B of input data down to " + data.length + //$NON-NLS-1$
@@ -68,6 +266,13 @@ public final class UltraGzipIOJob extends IOJob {
         data = null;
       }
 
+      if ((index != null) && (!(this.isUsingStdOut()))) {
+        // store the member index next to the archive, like bgzip
+        Files.write(this.getOutputPath().resolveSibling(
+            this.getOutputPath().getFileName().toString() + ".gzi"), //$NON-NLS-1$
+            index);
+      }
+
       ConsoleIO.stdout(name + " has written all " + size //$NON-NLS-1$
           + "B to the output and, hence, completed its task."); //$NON-NLS-1$
     } catch (final Throwable error) {
@@ -5,9 +5,73 @@ import thomasWeise.tools.IOJobBuilder;
 /** Build a job for the ultrag gzip I/O tool. */
 public final class UltraGzipIOJobBuilder extends IOJobBuilder {
 
+  /** should gzip input be re-optimized member by member? */
+  boolean m_recompress;
+
+  /** should the input file name be stored in the gzip header? */
+  boolean m_storeName;
+
+  /** should the input file time be stored in the gzip header? */
+  boolean m_storeTime;
+
   /** create */
   public UltraGzipIOJobBuilder() {
     super();
+    this.m_recompress = UltraGzip._isRecompressing();
+    this.m_storeName = UltraGzip._isStoringName();
+    this.m_storeTime = UltraGzip._isStoringTime();
+  }
+
+  /**
+   * Set whether input which already is a gzip archive should be
+   * re-optimized instead of being compressed again. If so, every
+   * member of the archive is decompressed and recompressed by a
+   * job of its own, all in parallel, and the results are written
+   * in the original order, preserving the member boundaries.
+   * Members which cannot be improved are copied unchanged. Input
+   * which is not a gzip archive is compressed as usual.
+   *
+   * @param recompress
+   *          {@code true} to re-optimize gzip input,
+   *          {@code false} to treat it as any other data
+   * @return this builder
+   */
+  public final UltraGzipIOJobBuilder
+      setRecompress(final boolean recompress) {
+    this.m_recompress = recompress;
+    return this;
+  }
+
+  /**
+   * Set whether the name of the input file should be stored in the
+   * gzip header of the result, like {@code gzip} does. By default,
+   * the minimal header without a name is written.
+   *
+   * @param storeName
+   *          {@code true} to store the name, {@code false} to omit
+   *          it
+   * @return this builder
+   */
+  public final UltraGzipIOJobBuilder
+      setStoreName(final boolean storeName) {
+    this.m_storeName = storeName;
+    return this;
+  }
+
+  /**
+   * Set whether the modification time of the input file should be
+   * stored in the gzip header of the result. By default, no time
+   * is stored, so the output only depends on the data.
+   *
+   * @param storeTime
+   *          {@code true} to store the time, {@code false} to omit
+   *          it
+   * @return this builder
+   */
+  public final UltraGzipIOJobBuilder
+      setStoreTime(final boolean storeTime) {
+    this.m_storeTime = storeTime;
+    return this;
   }
 
   /** {@inheritDoc} */
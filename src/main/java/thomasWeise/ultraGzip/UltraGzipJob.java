@@ -1,120 +1,299 @@
 package thomasWeise.ultraGzip;
 
-import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
 
-import thomasWeise.tools.ByteBuffers;
 import thomasWeise.tools.ConsoleIO;
 import thomasWeise.tools.Execute;
+import thomasWeise.tools.TempDir;
 
 /** The ultra gzip job. */
 public final class UltraGzipJob implements Callable<byte[]> {
 
+  /** the chunk size in which data is fed to in-JVM encoders */
+  static final int CHUNK_SIZE = 65536;
+
+  /** the number of candidates kept in the leaderboard */
+  private static final int LEADERBOARD_SIZE = 16;
+
   /** the data */
-  final byte[] m_data;
+  final _Input m_input;
 
   /** the job's name */
   final String m_name;
 
-  /** the best compression */
-  private volatile byte[] m_best;
+  /** the CRC-32 of the data */
+  final int m_crc;
+
+  /** the smallest distinct candidates */
+  final _Leaderboard m_leaderboard;
+
+  /**
+   * are candidates entering the leaderboard unverified, to be
+   * verified only at the end of the job?
+   */
+  final boolean m_deferVerification;
+
+  /**
+   * the preset dictionary, i.e., the data preceding the data of
+   * this job, or {@code null} if there is none
+   */
+  final byte[] m_dictionary;
+
+  /**
+   * the data as array, preceded by the dictionary, or
+   * {@code null} if the data is mapped
+   */
+  private final byte[] m_window;
+
+  /** the index in {@link #m_window} where the data begins */
+  private final int m_windowStart;
+
+  /**
+   * the size of the chunks which are compressed separately and
+   * then stitched together, or {@code 0} if the data is
+   * compressed as a whole
+   */
+  final int m_chunkSize;
+
+  /**
+   * the size of the data compressed into each gzip member, or
+   * {@code 0} if a single member is produced
+   */
+  final int m_memberSize;
+
+  /** the format of the result */
+  final EDeflateFormat m_format;
+
+  /** the canonical header given to every candidate archive */
+  final byte[] m_header;
+
+  /**
+   * the margin in bytes within which the candidate cheapest to
+   * decode is preferred over the smallest one, or {@code -1}
+   */
+  final int m_decodeMargin;
+
+  /**
+   * is the result independent of the timing of the compressors?
+   */
+  final boolean m_deterministic;
+
+  /**
+   * should incompressible data be encoded directly instead of
+   * running the compressors?
+   */
+  final boolean m_fastPath;
+
+  /**
+   * the size up to which data is only encoded in the JVM, or
+   * {@code 0} to always run all compressors
+   */
+  final int m_tinySize;
+
+  /** the index of the members, or {@code null} */
+  private volatile byte[] m_index;
 
   /** the jobs */
   private ArrayList<Future<?>> m_jobs;
 
+  /** the candidates waiting for post-processing */
+  private ArrayList<_Candidate> m_pending;
+
+  /** the digests of all payloads queued for post-processing */
+  private final HashSet<ByteBuffer> m_queued;
+
+  /** the directory for spilled candidates, created on demand */
+  private TempDir m_scratch;
+
   /**
    * create the ultra gzip job
    *
-   * @param data
+   * @param input
    *          the data to compress
    * @param name
    *          the name of the data
+   * @param dictionary
+   *          the preset dictionary, or {@code null}
+   * @param deferVerification
+   *          should the verification of candidates be deferred
+   *          until the end of the job?
+   * @param chunkSize
+   *          the size of the chunks which are compressed
+   *          separately, or {@code 0} to compress the data as a
+   *          whole
+   * @param memberSize
+   *          the size of the data to put into each gzip member, or
+   *          {@code 0} to produce a single member
+   * @param format
+   *          the format of the result
+   * @param header
+   *          the canonical gzip header, or {@code null} for the
+   *          minimal one
+   * @param decodeMargin
+   *          the margin in bytes within which the candidate
+   *          cheapest to decode is returned instead of the smallest
+   *          one, or {@code -1} to return the smallest one
+   * @param deterministic
+   *          should the result be independent of the timing of the
+   *          compressors?
+   * @param fastPath
+   *          should incompressible data be encoded directly
+   *          instead of running the compressors?
+   * @param tinySize
+   *          the size up to which data is only encoded in the JVM,
+   *          or {@code 0} to always run all compressors
    */
-  UltraGzipJob(final byte[] data, final String name) {
+  UltraGzipJob(final _Input input, final String name,
+      final byte[] dictionary, final boolean deferVerification,
+      final int chunkSize, final int memberSize,
+      final EDeflateFormat format, final byte[] header,
+      final int decodeMargin, final boolean deterministic,
+      final boolean fastPath, final int tinySize) {
     super();
+    final byte[] array;
 
-    UltraGzipJobBuilder._checkData(data);
+    if (input == null) {
+      throw new IllegalArgumentException(
+          "Data to be gzip-compressed cannot be null."); //$NON-NLS-1$
+    }
 
-    this.m_data = data;
+    this.m_input = input;
+    this.m_crc = input._crc();
     this.m_name = (((((UltraGzipJobBuilder._checkName(name) + //
-        ' ') + '(') + data.length) + 'B') + ')');
+        ' ') + '(') + input.m_size) + 'B') + ')');
     this.m_jobs = new ArrayList<>();
+    this.m_queued = new HashSet<>();
+    this.m_deterministic = deterministic;
+    this.m_fastPath = fastPath;
+    this.m_tinySize = Math.max(0,
+        Math.min(_TinyDeflate.MAX_SIZE, tinySize));
+    this.m_leaderboard = new _Leaderboard(
+        UltraGzipJob.LEADERBOARD_SIZE, deterministic);
+    this.m_deferVerification = deferVerification;
+    this.m_chunkSize = Math.max(0, chunkSize);
+    this.m_memberSize = Math.max(0, memberSize);
+    this.m_format = format;
+    this.m_header = ((header != null) ? header
+        : _GZipFormat._header(null, 0L));
+    this.m_decodeMargin = Math.max(-1, decodeMargin);
+
+    this.m_dictionary = (((dictionary != null)
+        && (dictionary.length > 0)) ? dictionary : null);
+    array = input._array();
+    if ((array == null) || (this.m_dictionary == null)) {
+      this.m_window = array;
+      this.m_windowStart = 0;
+    } else {
+      this.m_window =
+          new byte[this.m_dictionary.length + array.length];
+      System.arraycopy(this.m_dictionary, 0, this.m_window, 0,
+          this.m_dictionary.length);
+      System.arraycopy(array, 0, this.m_window,
+          this.m_dictionary.length, array.length);
+      this.m_windowStart = this.m_dictionary.length;
+    }
   }
 
   /**
-   * Register a new gzipped data.
+   * Register a new gzipped data. Valid data enters the
+   * leaderboard if it is among the smallest distinct candidates.
+   * If verification is deferred, the data is only checked for a
+   * fitting header and trailer before entering the leaderboard.
+   * Only the entry which is to be returned is fully verified at
+   * the end of the job. Different tools write different headers,
+   * e.g., with file names or modification times, so the header of
+   * the data is first replaced by the canonical header of the job.
+   * This way, candidates are compared by their payload only.
    *
-   * @param data
+   * @param gzip
    *          the data
    * @param from
    *          the source process creating the data
    * @return the result
    */
-  final _ERegistrationResult _register(final byte[] data,
+  final _ERegistrationResult _register(final byte[] gzip,
       final String from) {
-    final ByteBuffers buffer;
-    byte[] best;
+    final _GZipVerifier verifier;
+    final byte[] data;
+    final int start;
+    _DeflateStats stats;
+    _Candidate best;
 
     valid: {
-      if ((data == null) || (data.length <= 0)) {
+      if ((gzip == null) || (gzip.length <= 0)) {
+        break valid;
+      }
+
+      // check the header and put the canonical one in its place
+      start = _GZipFormat._headerLength(gzip);
+      if (start < 0) {
         break valid;
       }
+      data = _GZipFormat._canonicalize(gzip, start, this.m_header);
 
-      best = this.m_best;
-      if ((best != null)
-          && ((3L * best.length) < (2L * data.length))) {
+      best = this.m_leaderboard._best();
+      if ((best != null) && (!(this.m_deterministic))
+          && ((3L * this.__limit(best)) < (2L * data.length))) {
         // far from improvement, skip checking contents
         // we might still get an improvement after refinement
+        // (not in deterministic mode: there, the invalid data must
+        // be reported as such regardless of the timing)
         return _ERegistrationResult.NO_IMPROVEMENT;
       }
 
       // ok, it might be that the new data is better, let's check
-      buffer = ByteBuffers.get();
-
-      try (final ByteArrayInputStream bis =
-          new ByteArrayInputStream(data)) {
-        // check if data is consistent using Java's
-        // GZIPInputStream
-        try (final java.util.zip.GZIPInputStream gis =
-            new java.util.zip.GZIPInputStream(bis)) {
-          if (!(buffer.compare(gis, this.m_data))) {
-            break valid;
-          }
-        }
+      // the trailer first, which is cheap
+      if (!(_GZipFormat._checkTrailer(data, this.m_crc,
+          this.m_input.m_size))) {
+        break valid;
+      }
 
-        best = this.m_best;
-        if ((best != null) && (best.length < data.length)) {
-          // no improvement, skip checking contents a second time
+      stats = null;
+      if (this.m_deferVerification) {
+        if (!(this.m_leaderboard._accepts(data.length))) {
           return _ERegistrationResult.NO_IMPROVEMENT;
         }
+      } else {
+        // now inflate the payload and compare it with the data
+        verifier = _GZipVerifier._get();
+        try {
+          // check if data is consistent using Java's inflater
+          if (!(this.__verifyJava(verifier, data,
+              this.m_header.length))) {
+            break valid;
+          }
 
-        bis.reset();
+          if (!(this.m_leaderboard._accepts(data.length))) {
+            // no improvement, skip checking contents a second time
+            return _ERegistrationResult.NO_IMPROVEMENT;
+          }
 
-        // check if data is consistent using jzlib's
-        // GZIPInputStream
-        try (final com.jcraft.jzlib.GZIPInputStream gis =
-            new com.jcraft.jzlib.GZIPInputStream(bis)) {
-          if (!(buffer.compare(gis, this.m_data))) {
+          // check if data is consistent using our own inflater
+          stats = new _DeflateStats();
+          if (!(this.__verifyOwn(verifier, data,
+              this.m_header.length, stats))) {
             break valid;
           }
+        } catch (final Throwable error) {
+          this._error(error, from);
+          break valid;
         }
-      } catch (final Throwable error) {
-        this._error(error, from);
-        break valid;
       }
 
       // if we get here, the compression was successful and
-      // likely yielded
-      // an improvement
-      synchronized (this.m_name) {
-        if ((this.m_best != null)
-            && (this.m_best.length <= data.length)) {
-          return _ERegistrationResult.NO_IMPROVEMENT;
-        }
-        this.m_best = data;
+      // maybe yielded an improvement
+      if (!(this.m_leaderboard._offer(
+          new _Candidate(this, data, from, stats)))) {
+        return _ERegistrationResult.NO_IMPROVEMENT;
       }
 
       ConsoleIO.stdout(from
@@ -122,7 +301,7 @@ public final class UltraGzipJob implements Callable<byte[]> {
           + this.m_name + " down to " + //$NON-NLS-1$
           data.length + "B (" + //$NON-NLS-1$
           (((100L * data.length) + (data.length - 1))
-              / this.m_data.length)
+              / this.m_input.m_size)
           + "%)."); //$NON-NLS-1$
       return _ERegistrationResult.IMPROVEMENT;
     }
@@ -133,6 +312,139 @@ public final class UltraGzipJob implements Callable<byte[]> {
     return _ERegistrationResult.INVALID;
   }
 
+  /**
+   * Verify an archive with Java's inflater.
+   *
+   * @param verifier
+   *          the verifier
+   * @param data
+   *          the archive
+   * @param start
+   *          the start index of the DEFLATE payload
+   * @return {@code true} if the archive is valid, {@code false}
+   *         otherwise
+   * @throws DataFormatException
+   *           if the payload is corrupted
+   */
+  private final boolean __verifyJava(final _GZipVerifier verifier,
+      final byte[] data, final int start)
+      throws DataFormatException {
+    return verifier._verifyJava(data, start, this.m_input,
+        this.m_dictionary);
+  }
+
+  /**
+   * Verify an archive with our own inflater. This inflater needs
+   * the data as array, so mapped data is not checked.
+   *
+   * @param verifier
+   *          the verifier
+   * @param data
+   *          the archive
+   * @param start
+   *          the start index of the DEFLATE payload
+   * @param stats
+   *          the statistics to update, or {@code null}
+   * @return {@code true} if the archive is valid or cannot be
+   *         checked, {@code false} otherwise
+   */
+  private final boolean __verifyOwn(final _GZipVerifier verifier,
+      final byte[] data, final int start,
+      final _DeflateStats stats) {
+    return ((this.m_window == null) || verifier._verifyOwn(data,
+        start, this.m_window, this.m_windowStart, stats));
+  }
+
+  /**
+   * Select the result among the candidates in the leaderboard,
+   * smallest first. If verification was deferred, the candidates
+   * are now fully verified until one passes both checks. If a
+   * decode margin is set, all valid candidates at most that many
+   * bytes larger than the smallest valid one are considered and
+   * the one with the lowest estimated decode cost, see
+   * {@link _DeflateStats#_decodeCost()}, is selected. Mapped data
+   * cannot be decoded by our own inflater, so then the smallest
+   * candidate is selected.
+   *
+   * @return the selected candidate, or {@code null} if there is
+   *         no valid one
+   * @throws IOException
+   *           if a spilled candidate cannot be loaded
+   */
+  final byte[] _select() throws IOException {
+    final _GZipVerifier verifier;
+    final boolean measure;
+    _Candidate smallest, chosen;
+    _DeflateStats stats;
+    byte[] data, best;
+    long limit, cost, bestCost, smallestCost;
+    int start;
+
+    measure = ((this.m_decodeMargin >= 0) && (this.m_window != null));
+    if (!(this.m_deferVerification || measure)) {
+      smallest = this.m_leaderboard._best();
+      return ((smallest != null) ? smallest._data() : null);
+    }
+
+    verifier = _GZipVerifier._get();
+    smallest = chosen = null;
+    best = null;
+    bestCost = smallestCost = Long.MAX_VALUE;
+    limit = Long.MAX_VALUE;
+    for (final _Candidate candidate : this.m_leaderboard
+        ._candidates()) {
+      if (candidate.m_size > limit) {
+        break;
+      }
+      stats = candidate.m_stats;
+      try {
+        data = candidate._data();
+        if (this.m_deferVerification || (stats == null)) {
+          start = _GZipFormat._headerLength(data);
+          stats = (measure ? new _DeflateStats() : null);
+          if (!((!(this.m_deferVerification)
+              || this.__verifyJava(verifier, data, start))
+              && this.__verifyOwn(verifier, data, start, stats))) {
+            data = null;
+          }
+        }
+      } catch (final Throwable error) {
+        this._error(error, candidate.m_from);
+        data = null;
+      }
+      if (data == null) {
+        ConsoleIO.stdout(candidate.m_from
+            + " produced invalid gzip archive for " + //$NON-NLS-1$
+            this.m_name + ", falling back to next candidate."); //$NON-NLS-1$
+        continue;
+      }
+      if (!measure) {
+        return data;
+      }
+
+      cost = stats._decodeCost();
+      if (smallest == null) {
+        smallest = candidate;
+        smallestCost = cost;
+        limit = (candidate.m_size + ((long) (this.m_decodeMargin)));
+      }
+      if (cost < bestCost) {
+        chosen = candidate;
+        best = data;
+        bestCost = cost;
+      }
+    }
+
+    if (chosen != null) {
+      ConsoleIO.stdout(this.m_name + " selected the result of " //$NON-NLS-1$
+          + chosen.m_from + " with " + chosen.m_size //$NON-NLS-1$
+          + "B and decode cost " + bestCost + //$NON-NLS-1$
+          ", while the smallest result has " + smallest.m_size //$NON-NLS-1$
+          + "B and decode cost " + smallestCost + '.'); //$NON-NLS-1$
+    }
+    return best;
+  }
+
   /**
    * log an error
    *
@@ -182,14 +494,66 @@ public final class UltraGzipJob implements Callable<byte[]> {
     }
   }
 
-  /** {@inheritDoc} */
-  @Override
-  public final byte[] call() {
-    final byte[] best;
-    int size;
-    Future<?> job;
+  /**
+   * Queue a candidate for post-processing. Several compressors
+   * often produce the same DEFLATE payload, maybe with different
+   * headers. Such a payload is only queued once.
+   *
+   * @param candidate
+   *          the candidate
+   * @return the number of queued candidates, or {@code 0} if the
+   *         candidate was dropped as duplicate
+   */
+  final int _addPending(final _Candidate candidate) {
+    final ByteBuffer digest;
+
+    digest = candidate.m_digest;
+    synchronized (this.m_jobs) {
+      if ((digest != null) && (!(this.m_queued.add(digest)))) {
+        candidate._release();
+        return 0; // payload already seen or queued
+      }
+      if (this.m_pending == null) {
+        this.m_pending = new ArrayList<>();
+      }
+      this.m_pending.add(candidate);
+      return this.m_pending.size();
+    }
+  }
 
-    // enqueue all the default jobs
+  /**
+   * Get the directory where candidates are spilled to.
+   *
+   * @return the directory
+   * @throws IOException
+   *           if the directory cannot be created
+   */
+  final Path _scratchDirectory() throws IOException {
+    synchronized (this.m_jobs) {
+      if (this.m_scratch == null) {
+        this.m_scratch = new TempDir();
+      }
+      return this.m_scratch.getPath();
+    }
+  }
+
+  /**
+   * Take all the candidates queued for post-processing.
+   *
+   * @return the candidates, or {@code null} if there are none
+   */
+  final ArrayList<_Candidate> _takePending() {
+    final ArrayList<_Candidate> pending;
+
+    synchronized (this.m_jobs) {
+      pending = this.m_pending;
+      this.m_pending = null;
+    }
+    return pending;
+  }
+
+  /** enqueue all the default compressors for the whole data */
+  final void _enqueueCompressors() {
     _JavaGZip._enqueue(this);
     _JZLibGZip._enqueue(this);
     _GZIP._enqueue(this);
@@ -197,41 +561,129 @@ public final class UltraGzipJob implements Callable<byte[]> {
     _PIGZ._enqueue(this);
     _7ZIP._enqueue(this);
     _Zopfli._enqueue(this);
+  }
 
-    // wait until all jobs have completed
-    wait: for (;;) {
-      synchronized (this.m_jobs) {
-        size = this.m_jobs.size();
-        if (size <= 0) {
-          this.m_jobs = null;
-          break wait;
+  /**
+   * Get the index of the gzip members of the result, if the data
+   * was compressed into multiple members. The index has the same
+   * format as the {@code .gzi} files of {@code bgzip}: a 64 bit
+   * number of entries followed by one pair of 64 bit compressed
+   * and uncompressed offsets for each member except the first
+   * one, all in little endian byte order.
+   *
+   * @return the index, or {@code null} if the job has not yet
+   *         completed or produced a single member
+   */
+  public final byte[] getIndex() {
+    return this.m_index;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public final byte[] call() {
+    final byte[] best;
+    final _Members members;
+    int size;
+    Future<?> job;
+
+    if (this.m_memberSize > 0) {
+      // compress the members in parallel and concatenate them
+      members = new _Members(this);
+      this.m_index = members.m_index;
+      return members.m_archive;
+    }
+
+    if ((this.m_window == null) && ((this.m_chunkSize <= 0)
+        || (this.m_input.m_size <= this.m_chunkSize))) {
+      ConsoleIO.stdout(this.m_name
+          + " is mapped into memory, so the Python zlib backend, the verification with our own inflater, the choice by decoding cost, and the direct encoding of incompressible data are skipped. Setting a chunk size avoids this."); //$NON-NLS-1$
+    }
+
+    // incompressible data is encoded directly, and tiny data only
+    // by the in-JVM encoders, without running external compressors
+    if (!((this.m_fastPath
+        && _Incompressible._apply(this, this.m_header))
+        || _TinyDeflate._apply(this, this.m_header))) {
+      if ((this.m_chunkSize > 0)
+          && (this.m_input.m_size > this.m_chunkSize)) {
+        // compress the chunks in parallel and stitch them together
+        _Chunks._enqueue(this);
+      } else {
+        this._enqueueCompressors();
+      }
+    }
+
+    do {
+      // wait until all jobs have completed
+      wait: for (;;) {
+        synchronized (this.m_jobs) {
+          size = this.m_jobs.size();
+          if (size <= 0) {
+            break wait;
+          }
+          job = this.m_jobs.remove(size - 1);
+        }
+        if (job != null) {
+          try {
+            job.get();
+          } catch (final Throwable error) {
+            this._error(error, "the job waiting routine"); //$NON-NLS-1$
+          }
         }
-        job = this.m_jobs.remove(size - 1);
       }
-      if (job != null) {
-        try {
-          job.get();
-        } catch (final Throwable error) {
-          this._error(error, "the job waiting routine"); //$NON-NLS-1$
+      // recompress the collected candidates in batches
+    } while (_ADVDEF._flush(this));
+
+    try {
+      best = this._select();
+    } catch (final IOException error) {
+      throw new IllegalStateException("Loading the result for " //$NON-NLS-1$
+          + this.m_name + " failed.", error); //$NON-NLS-1$
+    } finally {
+      this.m_leaderboard._clear();
+      synchronized (this.m_jobs) {
+        if (this.m_scratch != null) {
+          try {
+            this.m_scratch.close();
+          } catch (final Throwable error) {
+            this._error(error, "the candidate store"); //$NON-NLS-1$
+          }
+          this.m_scratch = null;
         }
       }
     }
 
-    synchronized (this.m_name) {
-      best = this.m_best;
-    }
-
     if (best == null) {
       throw new IllegalStateException(
           "Gzipping of " + this.m_name //$NON-NLS-1$
               + " failed."); //$NON-NLS-1$
     }
-    return best;
+    return _GZipFormat._rewrap(best, this.m_format, this.m_input);
+  }
+
+  /**
+   * Get the bound below which a result may still be selected,
+   * given the current best result. Without a decode margin, only
+   * smaller results may be selected. With a decode margin, results
+   * at most that many bytes larger than the best one compete for
+   * the lowest decode cost, so they must not be pruned.
+   *
+   * @param best
+   *          the current best result
+   * @return the exclusive upper bound for the size of results
+   *         which may still be selected
+   */
+  private final long __limit(final _Candidate best) {
+    return (((this.m_decodeMargin >= 0) && (this.m_window != null))
+        ? (best.m_size + this.m_decodeMargin + 1L) : best.m_size);
   }
 
   /**
    * Check whether a given data size might be promising for being
-   * a new better result.
+   * a new better result, or for being selected due to the decode
+   * margin. In deterministic mode, every size is promising, as
+   * whether a compressor is stopped early must not depend on how
+   * fast the others are.
    *
    * @param size
    *          the size
@@ -239,12 +691,58 @@ public final class UltraGzipJob implements Callable<byte[]> {
    *         result of that size, {@code false} otherwise
    */
   final boolean _isPromising(final long size) {
-    final byte[] res;
+    final _Candidate best;
+
+    if (this.m_deterministic) {
+      return true;
+    }
+    best = this.m_leaderboard._best();
+    return ((best == null) || (this.__limit(best) > size));
+  }
 
-    synchronized (this.m_name) {
-      res = this.m_best;
+  /**
+   * Feed the data to an in-JVM encoder chunk by chunk. After
+   * each chunk, the final size is projected from the compression
+   * ratio achieved so far. If this projection exceeds the best
+   * result, widened by the decode margin, if any, by more than
+   * {@link UltraGzip#_getAbortMargin()} percent, the compression
+   * is abandoned. Since encoders buffer
+   * some data before emitting it, the projection tends to be too
+   * small rather than too large. In deterministic mode, the
+   * compression is never abandoned.
+   *
+   * @param encoder
+   *          the stream compressing the data
+   * @param sink
+   *          the stream receiving the compressed data
+   * @return {@code true} if all data was written to
+   *         {@code encoder}, {@code false} if the compression was
+   *         abandoned
+   * @throws IOException
+   *           if i/o fails
+   */
+  final boolean _feed(final OutputStream encoder,
+      final ByteArrayOutputStream sink) throws IOException {
+    final _Input input;
+    final double margin;
+    _Candidate best;
+    long start, end;
+
+    input = this.m_input;
+    margin = (100d + UltraGzip._getAbortMargin());
+    for (start = 0L; start < input.m_size; start = end) {
+      end = Math.min(input.m_size, start + UltraGzipJob.CHUNK_SIZE);
+      if ((start > 0L) && (!(this.m_deterministic))) {
+        best = this.m_leaderboard._best();
+        // use doubles, as the products may exceed the long range
+        if ((best != null) && ((100d * sink.size() * input.m_size)
+            > (margin * this.__limit(best) * start))) {
+          return false;
+        }
+      }
+      input._write(encoder, start, end - start);
     }
-    return ((res == null) || (res.length > size));
+    return true;
   }
 
   /**
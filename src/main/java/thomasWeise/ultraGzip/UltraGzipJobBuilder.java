@@ -1,5 +1,7 @@
 package thomasWeise.ultraGzip;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.function.Supplier;
 
 /** Build a job for the ultrag gzip. */
@@ -7,14 +9,52 @@ public final class UltraGzipJobBuilder
     implements Supplier<UltraGzipJob> {
 
   /** the data */
-  private byte[] m_data;
+  private _Input m_input;
 
   /** the job's name */
   private String m_name;
 
+  /** should verification be deferred? */
+  private boolean m_deferVerification;
+
+  /** the chunk size, or {@code 0} */
+  private int m_chunkSize;
+
+  /** the member size, or {@code 0} */
+  private int m_memberSize;
+
+  /** the format of the result */
+  private EDeflateFormat m_format;
+
+  /** the file name to store in the gzip header, or {@code null} */
+  private String m_headerName;
+
+  /** the modification time to store in the gzip header */
+  private long m_headerTime;
+
+  /** the decode margin, or {@code -1} */
+  private int m_decodeMargin;
+
+  /** should the result be deterministic? */
+  private boolean m_deterministic;
+
+  /** should incompressible data be encoded directly? */
+  private boolean m_fastPath;
+
+  /** the size up to which data is only encoded in the JVM */
+  private int m_tinySize;
+
   /** create */
   UltraGzipJobBuilder() {
     super();
+    this.m_deferVerification = UltraGzip._isDeferringVerification();
+    this.m_chunkSize = UltraGzip._getChunkSize();
+    this.m_memberSize = UltraGzip._getMemberSize();
+    this.m_format = UltraGzip._getFormat();
+    this.m_decodeMargin = UltraGzip._getDecodeMargin();
+    this.m_deterministic = UltraGzip._isDeterministic();
+    this.m_fastPath = UltraGzip._isUsingFastPath();
+    this.m_tinySize = UltraGzip._getTinySize();
   }
 
   /**
@@ -74,13 +114,286 @@ public final class UltraGzipJobBuilder
    */
   public final UltraGzipJobBuilder setData(final byte[] data) {
     UltraGzipJobBuilder._checkData(data);
-    this.m_data = data;
+    this.m_input = new _Input(data);
+    return this;
+  }
+
+  /**
+   * Set the file holding the data to be compressed. If the file
+   * is too large to fit into an array, i.e., larger than about
+   * 2&nbsp;GiB, it is mapped into memory read-only instead of
+   * being loaded. External tools read the data directly from the
+   * file.
+   *
+   * @param path
+   *          the file holding the data to be compressed
+   * @return this builder
+   * @throws IOException
+   *           if the file cannot be read
+   */
+  public final UltraGzipJobBuilder setPath(final Path path)
+      throws IOException {
+    if (path == null) {
+      throw new IllegalArgumentException(
+          "Path to the data to be gzip-compressed cannot be null."); //$NON-NLS-1$
+    }
+    this.m_input = _Input._load(path);
+    return this;
+  }
+
+  /**
+   * Set the data to be compressed directly.
+   *
+   * @param input
+   *          the data to be compressed
+   * @return this builder
+   */
+  final UltraGzipJobBuilder _setInput(final _Input input) {
+    if (input == null) {
+      throw new IllegalArgumentException(
+          "Input to be gzip-compressed cannot be null."); //$NON-NLS-1$
+    }
+    this.m_input = input;
+    return this;
+  }
+
+  /**
+   * Set whether the verification of compressed data should be
+   * deferred. If so, results are only checked for a fitting gzip
+   * header and trailer while the job runs, and only the result
+   * which is finally returned is fully decompressed and compared
+   * with the data. This saves much work if many compressors are
+   * used, but the job may return a slightly larger result if
+   * the smallest candidates turn out to be broken.
+   *
+   * @param deferVerification
+   *          {@code true} to defer the verification,
+   *          {@code false} to verify every promising result
+   *          immediately
+   * @return this builder
+   */
+  public final UltraGzipJobBuilder
+      setDeferVerification(final boolean deferVerification) {
+    this.m_deferVerification = deferVerification;
+    return this;
+  }
+
+  /**
+   * Set the size of the chunks into which large data is split. The
+   * chunks are compressed in parallel, each primed with the 32 KiB
+   * of data preceding it, and their DEFLATE streams are then
+   * stitched into a single gzip member. This makes use of multiple
+   * cores for large data at the cost of a slightly larger result.
+   *
+   * @param chunkSize
+   *          the chunk size in bytes, or {@code 0} to compress the
+   *          data as a whole
+   * @return this builder
+   */
+  public final UltraGzipJobBuilder setChunkSize(final int chunkSize) {
+    if (chunkSize < 0) {
+      throw new IllegalArgumentException(
+          "Chunk size cannot be negative, but is " //$NON-NLS-1$
+              + chunkSize);
+    }
+    this.m_chunkSize = chunkSize;
+    return this;
+  }
+
+  /**
+   * Set the size of the data to put into each gzip member. If it is
+   * positive, the data is split into blocks of this size, which are
+   * optimized in parallel and written as a sequence of
+   * independently decodable gzip members, followed by an empty
+   * end-of-file member. This is the BGZF format: every member
+   * carries the {@code BC} extra field with its size, and
+   * {@link UltraGzipJob#getIndex()} provides an index of the
+   * member offsets. This allows for random access and parallel
+   * decompression, at the cost of a larger archive. As in
+   * {@code bgzip}, a member can hold at most 65280 bytes of data.
+   * The modification time set via {@link #setHeaderTime(long)} is
+   * stored in the first member, while a file name cannot be
+   * stored, as BGZF readers expect the data right after the
+   * {@code BC} field.
+   *
+   * @param memberSize
+   *          the number of bytes of data per member, at most 65280,
+   *          or {@code 0} to produce a single member
+   * @return this builder
+   */
+  public final UltraGzipJobBuilder
+      setMemberSize(final int memberSize) {
+    if ((memberSize < 0) || (memberSize > _Members.MAX_MEMBER_SIZE)) {
+      throw new IllegalArgumentException(
+          "Member size must be in 0.." //$NON-NLS-1$
+              + _Members.MAX_MEMBER_SIZE + ", but is " //$NON-NLS-1$
+              + memberSize);
+    }
+    this.m_memberSize = memberSize;
+    return this;
+  }
+
+  /**
+   * Set the format of the result. All compressors produce gzip
+   * archives, whose DEFLATE payload is finally put into the chosen
+   * format: a gzip archive, a zlib stream with an Adler-32
+   * checksum, e.g., for PNG files or HTTP's
+   * {@code Content-Encoding: deflate}, or a raw DEFLATE stream,
+   * e.g., for ZIP archives.
+   *
+   * @param format
+   *          the format
+   * @return this builder
+   */
+  public final UltraGzipJobBuilder
+      setOutputFormat(final EDeflateFormat format) {
+    if (format == null) {
+      throw new IllegalArgumentException(
+          "Output format cannot be null."); //$NON-NLS-1$
+    }
+    this.m_format = format;
+    return this;
+  }
+
+  /**
+   * Set the original file name to store in the gzip header of the
+   * result. By default, no name is stored. Every candidate archive
+   * receives the same header, so the name does not influence which
+   * one wins.
+   *
+   * @param name
+   *          the file name, or {@code null} to store none
+   * @return this builder
+   */
+  public final UltraGzipJobBuilder
+      setHeaderName(final String name) {
+    this.m_headerName = name;
+    return this;
+  }
+
+  /**
+   * Set the modification time to store in the gzip header of the
+   * result. By default, no time is stored.
+   *
+   * @param time
+   *          the modification time in seconds since the epoch, or
+   *          {@code 0} to store none
+   * @return this builder
+   */
+  public final UltraGzipJobBuilder setHeaderTime(final long time) {
+    if ((time < 0L) || (time > 0xffffffffL)) {
+      throw new IllegalArgumentException(
+          "Modification time must be in 0..2^32-1, but is " //$NON-NLS-1$
+              + time);
+    }
+    this.m_headerTime = time;
+    return this;
+  }
+
+  /**
+   * Set the decode margin. If it is not negative, the job does not
+   * simply return the smallest candidate, but the one which is
+   * estimated to be the cheapest to decode among all candidates at
+   * most this many bytes larger than the smallest. The estimate is
+   * based on the block structure, literals, and matches counted
+   * while decoding the candidates. This trades a few bytes for a
+   * faster decompression, which may pay off for data that is
+   * downloaded and decompressed very often.
+   *
+   * @param decodeMargin
+   *          the margin in bytes, or {@code -1} to always return
+   *          the smallest candidate
+   * @return this builder
+   */
+  public final UltraGzipJobBuilder
+      setDecodeMargin(final int decodeMargin) {
+    this.m_decodeMargin = Math.max(-1, decodeMargin);
+    return this;
+  }
+
+  /**
+   * Set whether the result should be deterministic. Normally, of
+   * several equally small candidates, the first one to arrive is
+   * returned, and compressors are stopped as soon as they cannot
+   * beat the best result so far, so the result depends on the
+   * timing of the compressors. In deterministic mode, no
+   * compressor is stopped early and ties are broken by the name
+   * and configuration of the compressor and then by the compressed
+   * data itself, so the same data always yields the same result,
+   * regardless of the number of cores. This costs some runtime.
+   *
+   * @param deterministic
+   *          {@code true} for a deterministic result, {@code false}
+   *          otherwise
+   * @return this builder
+   */
+  public final UltraGzipJobBuilder
+      setDeterministic(final boolean deterministic) {
+    this.m_deterministic = deterministic;
+    return this;
+  }
+
+  /**
+   * Set whether data which is clearly incompressible should be
+   * encoded directly. If so, all of the data is checked, segment
+   * by segment, for its entropy and for matches before any
+   * compressor is run.
+   * If the data turns out to be incompressible, e.g., because it
+   * is a JPEG image or encrypted, it is encoded as an optimal
+   * sequence of stored and fixed-Huffman blocks right away, which
+   * the compressors could hardly beat. This is the default.
+   *
+   * @param fastPath
+   *          {@code true} to encode incompressible data directly,
+   *          {@code false} to always run all compressors
+   * @return this builder
+   */
+  public final UltraGzipJobBuilder setFastPath(final boolean fastPath) {
+    this.m_fastPath = fastPath;
+    return this;
+  }
+
+  /**
+   * Set the size up to which data is only encoded in the JVM. For
+   * such tiny data, starting the external compressors costs far
+   * more than the compression itself, so a dedicated encoder for
+   * tiny data competes only with Java's and JZLib's compressors.
+   *
+   * @param tinySize
+   *          the size in bytes, at most 1024, or {@code 0} to always
+   *          run all compressors
+   * @return this builder
+   */
+  public final UltraGzipJobBuilder setTinySize(final int tinySize) {
+    if ((tinySize < 0) || (tinySize > _TinyDeflate.MAX_SIZE)) {
+      throw new IllegalArgumentException(
+          "Tiny data size must be in 0.." //$NON-NLS-1$
+              + _TinyDeflate.MAX_SIZE + ", but is " //$NON-NLS-1$
+              + tinySize);
+    }
+    this.m_tinySize = tinySize;
     return this;
   }
 
   /** {@inheritDoc} */
   @Override
   public final UltraGzipJob get() {
-    return new UltraGzipJob(this.m_data, this.m_name);
+    if ((this.m_memberSize > 0)
+        && (this.m_format != EDeflateFormat.GZIP)) {
+      throw new IllegalArgumentException(
+          "Multiple members can only be produced in the gzip format, not in " //$NON-NLS-1$
+              + this.m_format);
+    }
+    if ((this.m_memberSize > 0) && (this.m_headerName != null)) {
+      throw new IllegalArgumentException(
+          "A file name cannot be stored in BGZF members, but " //$NON-NLS-1$
+              + this.m_headerName + " was given."); //$NON-NLS-1$
+    }
+    return new UltraGzipJob(this.m_input, this.m_name, null,
+        this.m_deferVerification, this.m_chunkSize,
+        this.m_memberSize, this.m_format,
+        _GZipFormat._header(this.m_headerName, this.m_headerTime),
+        this.m_decodeMargin, this.m_deterministic, this.m_fastPath,
+        this.m_tinySize);
   }
 }
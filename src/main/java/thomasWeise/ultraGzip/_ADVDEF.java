@@ -4,15 +4,26 @@ import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
 
 import thomasWeise.tools.ByteBuffers;
 import thomasWeise.tools.Configuration;
 import thomasWeise.tools.EProcessStream;
 import thomasWeise.tools.ExternalProcess;
+import thomasWeise.tools.ExternalProcessBuilder;
 import thomasWeise.tools.ExternalProcessExecutor;
 import thomasWeise.tools.TempDir;
 
-/** The compressor class used Advanced Computing. */
+/**
+ * The compressor class used Advanced Computing. The results of
+ * the other archivers are not recompressed one by one. Instead,
+ * they are collected and handed to a few {@code advdef}
+ * invocations per quality level, each of which recompresses many
+ * files at once. A batch is started as soon as enough results
+ * are collected, so that {@code advdef} runs alongside the other
+ * compressors, and the remainder once all other jobs are done.
+ */
 final class _ADVDEF implements Runnable {
 
   /** the argument */
@@ -32,14 +43,17 @@ final class _ADVDEF implements Runnable {
   private static final int[] QUALITY =
       UltraGzip._qualityRange(1, 4, 3);
 
+  /**
+   * the maximum number of files per advdef invocation, which is
+   * also the number of collected results starting a batch early
+   */
+  static final int MAX_BATCH = 8;
+
   /** the job */
   private final UltraGzipJob m_owner;
 
-  /** the data to compress */
-  private final byte[] m_data;
-
-  /** the data source */
-  private final String m_source;
+  /** the candidates to recompress */
+  private final List<_Candidate> m_batch;
 
   /** the compression quality */
   private final int m_quality;
@@ -51,22 +65,22 @@ final class _ADVDEF implements Runnable {
    *          the owning job
    * @param quality
    *          the compression quality
-   * @param data
-   *          the data
-   * @param source
-   *          the source
+   * @param batch
+   *          the candidates to recompress
    */
   private _ADVDEF(final UltraGzipJob job, final int quality,
-      final byte[] data, final String source) {
+      final List<_Candidate> batch) {
     super();
     this.m_owner = job;
     this.m_quality = quality;
-    this.m_data = data;
-    this.m_source = source;
+    this.m_batch = batch;
   }
 
   /**
-   * post-process the results of another archiver
+   * post-process the results of another archiver: the data is
+   * queued here and recompressed during the next
+   * {@link #_flush(UltraGzipJob)}, which happens right away if a
+   * full batch has been collected
    *
    * @param job
    *          the job
@@ -77,19 +91,64 @@ final class _ADVDEF implements Runnable {
    */
   static final void _postprocess(final UltraGzipJob job,
       final byte[] data, final String source) {
-    if (_ADVDEF.__ADVDEF_PATH != null) {
-      for (final int quality : _ADVDEF.QUALITY) {
-        job._execute(new _ADVDEF(job, quality, data,
-            _ADVDEF.FROM_PREFIX + source));
+    if ((_ADVDEF.__ADVDEF_PATH != null)
+        && (job._addPending(new _Candidate(job, data, source,
+            null)) >= _ADVDEF.MAX_BATCH)) {
+      _ADVDEF._flush(job);
+    }
+  }
+
+  /**
+   * Start the recompression of all queued candidates. Each
+   * candidate is used by one job per quality level, each of which
+   * holds a reference to it.
+   *
+   * @param job
+   *          the job
+   * @return {@code true} if new recompression jobs were started,
+   *         {@code false} if there was nothing to do
+   */
+  static final boolean _flush(final UltraGzipJob job) {
+    final ArrayList<_Candidate> pending;
+    final int size, batches;
+    int start, end;
+
+    if (_ADVDEF.__ADVDEF_PATH == null) {
+      return false;
+    }
+    pending = job._takePending();
+    if (pending == null) {
+      return false;
+    }
+
+    for (final _Candidate candidate : pending) {
+      for (int i = _ADVDEF.QUALITY.length; (--i) > 0;) {
+        candidate._retain();
       }
     }
+
+    size = pending.size();
+    batches =
+        (size + (_ADVDEF.MAX_BATCH - 1)) / _ADVDEF.MAX_BATCH;
+    for (final int quality : _ADVDEF.QUALITY) {
+      start = 0;
+      for (int batch = 1; batch <= batches; batch++) {
+        end = (int) ((((long) size) * batch) / batches);
+        job._execute(new _ADVDEF(job, quality,
+            pending.subList(start, end)));
+        start = end;
+      }
+    }
+    return true;
   }
 
   /** {@inheritDoc} */
   @Override
   public final void run() {
-    final Path tempFile;
-    final int retCode;
+    final ExternalProcessBuilder epb;
+    final Path[] files;
+    Path tempFile;
+    int retCode, index;
 
     if (_ADVDEF.__ADVDEF_PATH == null) {
       return;
@@ -97,43 +156,63 @@ final class _ADVDEF implements Runnable {
 
     try (final TempDir temp = new TempDir()) {
 
-      tempFile = Files.createTempFile(temp.getPath(), "advdef", //$NON-NLS-1$
-          ".gz"); //$NON-NLS-1$
-      try (final OutputStream os =
-          Files.newOutputStream(tempFile)) {
-        os.write(this.m_data);
+      epb = ExternalProcessExecutor.getInstance().get();
+      epb.setDirectory(temp.getPath());
+      epb.setExecutable(_ADVDEF.__ADVDEF_PATH);
+      epb.addStringArgument("-" + this.m_quality); //$NON-NLS-1$
+      epb.addStringArgument("-i 64"); //$NON-NLS-1$
+      epb.addStringArgument("-z");//$NON-NLS-1$
+      epb.addStringArgument("-q"); //$NON-NLS-1$
+
+      files = new Path[this.m_batch.size()];
+      index = 0;
+      for (final _Candidate candidate : this.m_batch) {
+        tempFile = Files.createTempFile(temp.getPath(), "advdef", //$NON-NLS-1$
+            ".gz"); //$NON-NLS-1$
+        try (final OutputStream os =
+            Files.newOutputStream(tempFile)) {
+          candidate._write(os);
+        }
+        epb.addPathArgument(tempFile);
+        files[index++] = tempFile;
       }
 
-      try (final ExternalProcess ep =
-          ExternalProcessExecutor.getInstance().get()//
-              .setDirectory(temp.getPath())//
-              .setExecutable(_ADVDEF.__ADVDEF_PATH)
-              .addStringArgument("-" + this.m_quality) //$NON-NLS-1$
-              .addStringArgument("-i 64") //$NON-NLS-1$
-              .addStringArgument("-z")//$NON-NLS-1$
-              .addStringArgument("-q") //$NON-NLS-1$
-              .addPathArgument(tempFile)//
-              .setStdErr(EProcessStream.INHERIT)//
-              .setStdIn(EProcessStream.IGNORE)//
-              .setStdOut(EProcessStream.INHERIT)//
-              .setMergeStdOutAndStdErr(true)//
-              .get()) {
+      epb.setStdErr(EProcessStream.INHERIT);
+      epb.setStdIn(EProcessStream.IGNORE);
+      epb.setStdOut(EProcessStream.INHERIT);
+      epb.setMergeStdOutAndStdErr(true);
 
+      try (final ExternalProcess ep = epb.get()) {
         if ((retCode = ep.waitFor()) != 0) {
-          this.m_owner._processError(retCode, this.m_source,
+          this.m_owner._processError(retCode, _ADVDEF.FROM,
               _ADVDEF.__ADVDEF_PATH);
-          return;
         }
+      }
 
-        if (this.m_owner
-            ._isPromising(Files.readAttributes(tempFile, //
-                BasicFileAttributes.class).size())) {
-          this.m_owner._register(
-              ByteBuffers.get().load(tempFile), this.m_source);
+      // advdef only replaces a file if it could make it smaller,
+      // and every file is verified during registration anyway
+      index = 0;
+      for (final _Candidate candidate : this.m_batch) {
+        tempFile = files[index++];
+        try {
+          if (this.m_owner
+              ._isPromising(Files.readAttributes(tempFile, //
+                  BasicFileAttributes.class).size())) {
+            this.m_owner._register(
+                ByteBuffers.get().load(tempFile),
+                _ADVDEF.FROM_PREFIX + candidate.m_from);
+          }
+        } catch (final Throwable error) { // the error
+          this.m_owner._error(error,
+              _ADVDEF.FROM_PREFIX + candidate.m_from);
         }
       }
     } catch (final Throwable error) { // the error
-      this.m_owner._error(error, this.m_source);
+      this.m_owner._error(error, _ADVDEF.FROM);
+    } finally {
+      for (final _Candidate candidate : this.m_batch) {
+        candidate._release();
+      }
     }
   }
 }
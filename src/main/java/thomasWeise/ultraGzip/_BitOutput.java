@@ -0,0 +1,161 @@
+package thomasWeise.ultraGzip;
+
+import java.util.Arrays;
+
+/**
+ * A growing buffer to which bits are appended in DEFLATE order,
+ * i.e., starting with the least significant bit of each byte.
+ * It is used to stitch together DEFLATE streams which do not end
+ * at byte boundaries.
+ */
+final class _BitOutput {
+
+  /** the data */
+  private byte[] m_data;
+  /** the number of bits written */
+  private long m_count;
+
+  /**
+   * create
+   *
+   * @param capacity
+   *          the initial capacity in bytes
+   */
+  _BitOutput(final int capacity) {
+    super();
+    this.m_data = new byte[Math.max(16, capacity)];
+  }
+
+  /**
+   * Make sure that the given number of additional bits fits into
+   * the buffer.
+   *
+   * @param bits
+   *          the number of bits
+   */
+  private final void __ensure(final long bits) {
+    final long needed;
+
+    needed = ((this.m_count + bits + 7L) >>> 3);
+    if (needed > this.m_data.length) {
+      if (needed > (Integer.MAX_VALUE - 8)) {
+        throw new IllegalStateException(
+            "Stitched stream too large.");//$NON-NLS-1$
+      }
+      this.m_data = Arrays.copyOf(this.m_data, ((int) Math.min(
+          Integer.MAX_VALUE - 8, Math.max(needed,
+              ((long) (this.m_data.length)) << 1))));
+    }
+  }
+
+  /**
+   * Append some bits.
+   *
+   * @param value
+   *          the bits, lowest bit first
+   * @param count
+   *          the number of bits, at most 24
+   */
+  final void _bits(final int value, final int count) {
+    int index, shift, rest, v;
+
+    this.__ensure(count);
+    index = ((int) (this.m_count >>> 3));
+    shift = ((int) (this.m_count & 7L));
+    v = (value & ((1 << count) - 1));
+    this.m_count += count;
+
+    this.m_data[index] |= ((byte) (v << shift));
+    rest = (count - (8 - shift));
+    v >>>= (8 - shift);
+    while (rest > 0) {
+      this.m_data[++index] = ((byte) v);
+      v >>>= 8;
+      rest -= 8;
+    }
+  }
+
+  /**
+   * Append a range of bits from an array.
+   *
+   * @param src
+   *          the source array
+   * @param fromBit
+   *          the index of the first bit to copy
+   * @param toBit
+   *          the index of the bit after the last one to copy
+   */
+  final void _copy(final byte[] src, final long fromBit,
+      final long toBit) {
+    long bit;
+    int index, shift, chunk;
+
+    this.__ensure(toBit - fromBit);
+    bit = fromBit;
+    if ((this.m_count & 7L) == (bit & 7L)) {
+      // same alignment: copy whole bytes in the middle
+      while (((bit & 7L) != 0L) && (bit < toBit)) {
+        this._bits(src[(int) (bit >>> 3)] >>> (bit & 7L), 1);
+        bit++;
+      }
+      chunk = ((int) ((toBit - bit) >>> 3));
+      if (chunk > 0) {
+        System.arraycopy(src, ((int) (bit >>> 3)), this.m_data,
+            ((int) (this.m_count >>> 3)), chunk);
+        bit += (((long) chunk) << 3);
+        this.m_count += (((long) chunk) << 3);
+      }
+    }
+
+    while (bit < toBit) {
+      index = ((int) (bit >>> 3));
+      shift = ((int) (bit & 7L));
+      chunk = ((int) Math.min(8 - shift, toBit - bit));
+      this._bits((src[index] & 0xff) >>> shift, chunk);
+      bit += chunk;
+    }
+  }
+
+  /** Pad the output with zero bits up to the next byte boundary. */
+  final void _align() {
+    this.m_count = ((this.m_count + 7L) & (~7L));
+  }
+
+  /**
+   * Check whether the output ends at a byte boundary.
+   *
+   * @return {@code true} if it does, {@code false} otherwise
+   */
+  final boolean _isAligned() {
+    return ((this.m_count & 7L) == 0L);
+  }
+
+  /**
+   * Append whole bytes. The output must be aligned.
+   *
+   * @param data
+   *          the bytes
+   * @param start
+   *          the index of the first byte
+   * @param length
+   *          the number of bytes
+   */
+  final void _bytes(final byte[] data, final int start,
+      final int length) {
+    this.__ensure(((long) length) << 3);
+    System.arraycopy(data, start, this.m_data,
+        ((int) (this.m_count >>> 3)), length);
+    this.m_count += (((long) length) << 3);
+  }
+
+  /**
+   * Get the written bits as byte array, padding the last byte
+   * with zeros.
+   *
+   * @return the bytes
+   */
+  final byte[] _toByteArray() {
+    return Arrays.copyOf(this.m_data,
+        ((int) ((this.m_count + 7L) >>> 3)));
+  }
+}
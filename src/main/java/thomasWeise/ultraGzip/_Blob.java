@@ -0,0 +1,170 @@
+package thomasWeise.ultraGzip;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A reference-counted block of bytes. As long as all blobs
+ * together stay within {@link UltraGzip#_getStoreBudget()}, the
+ * bytes are kept on the heap. Beyond that, they are spilled to a
+ * file in the scratch directory of the job and only loaded when
+ * needed. Once the last reference is released, the heap budget is
+ * returned and the file is deleted right away.
+ */
+final class _Blob {
+
+  /** the number of bytes currently kept on the heap by all blobs */
+  private static final AtomicLong USED = new AtomicLong();
+
+  /** the number of bytes */
+  final int m_size;
+
+  /** the bytes, or {@code null} if spilled or released */
+  private byte[] m_data;
+
+  /** the spill file, or {@code null} if kept on the heap */
+  private Path m_path;
+
+  /** the number of references */
+  private int m_references;
+
+  /**
+   * create the blob, holding one reference
+   *
+   * @param data
+   *          the bytes, which must not be modified afterwards
+   * @param job
+   *          the job providing the scratch directory
+   */
+  _Blob(final byte[] data, final UltraGzipJob job) {
+    this(data, job, UltraGzip._getStoreBudget());
+  }
+
+  /**
+   * create the blob, holding one reference
+   *
+   * @param data
+   *          the bytes, which must not be modified afterwards
+   * @param job
+   *          the job providing the scratch directory
+   * @param budget
+   *          the number of bytes all blobs together may keep on
+   *          the heap
+   */
+  _Blob(final byte[] data, final UltraGzipJob job,
+      final long budget) {
+    super();
+    Path path;
+
+    this.m_size = data.length;
+    this.m_references = 1;
+
+    if (_Blob.USED.addAndGet(data.length) <= budget) {
+      this.m_data = data;
+      return;
+    }
+    _Blob.USED.addAndGet(-data.length);
+
+    path = null;
+    try {
+      path = Files.createTempFile(job._scratchDirectory(),
+          "candidate", //$NON-NLS-1$
+          ".gz"); //$NON-NLS-1$
+      Files.write(path, data);
+      this.m_path = path;
+    } catch (final Throwable error) {
+      job._error(error, "the candidate store"); //$NON-NLS-1$
+      _Blob.__delete(path);
+      // keep the data on the heap, even if that exceeds the budget
+      _Blob.USED.addAndGet(data.length);
+      this.m_data = data;
+    }
+  }
+
+  /**
+   * Delete a file, ignoring all errors.
+   *
+   * @param path
+   *          the file, or {@code null}
+   */
+  private static final void __delete(final Path path) {
+    if (path != null) {
+      try {
+        Files.deleteIfExists(path);
+      } catch (@SuppressWarnings("unused") final Throwable error) {
+        // ignore
+      }
+    }
+  }
+
+  /**
+   * Make sure that the blob has not yet been released.
+   */
+  private final void __checkAlive() {
+    if (this.m_references <= 0) {
+      throw new IllegalStateException(
+          "Blob has already been released."); //$NON-NLS-1$
+    }
+  }
+
+  /** Add a reference. */
+  final synchronized void _retain() {
+    this.__checkAlive();
+    this.m_references++;
+  }
+
+  /**
+   * Release a reference. Once no reference is left, the bytes are
+   * discarded.
+   */
+  final synchronized void _release() {
+    this.__checkAlive();
+    if ((--this.m_references) > 0) {
+      return;
+    }
+    if (this.m_data != null) {
+      this.m_data = null;
+      _Blob.USED.addAndGet(-this.m_size);
+    }
+    _Blob.__delete(this.m_path);
+    this.m_path = null;
+  }
+
+  /**
+   * Get the bytes. If the blob has been spilled, they are loaded
+   * from the file.
+   *
+   * @return the bytes, which must not be modified
+   * @throws IOException
+   *           if loading fails
+   */
+  final synchronized byte[] _bytes() throws IOException {
+    this.__checkAlive();
+    if (this.m_data != null) {
+      return this.m_data;
+    }
+    return Files.readAllBytes(this.m_path);
+  }
+
+  /**
+   * Write the bytes to a stream without loading a spilled blob
+   * into memory.
+   *
+   * @param os
+   *          the stream
+   * @throws IOException
+   *           if i/o fails
+   */
+  final synchronized void _write(final OutputStream os)
+      throws IOException {
+    this.__checkAlive();
+    if (this.m_data != null) {
+      os.write(this.m_data);
+    } else {
+      Files.copy(this.m_path, os);
+    }
+  }
+}
@@ -0,0 +1,148 @@
+package thomasWeise.ultraGzip;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A gzip archive produced by one of the compressors. The archive
+ * is kept in a {@link _Blob}, so it may be spilled to disk, and
+ * must be released by its last holder.
+ */
+final class _Candidate {
+
+  /**
+   * the order of candidates: smaller archives first, ties are
+   * broken by creation order, so no two candidates are equal
+   */
+  static final Comparator<_Candidate> BY_SIZE =
+      (a, b) -> {
+        final int res = Integer.compare(a.m_size, b.m_size);
+        return ((res != 0) ? res
+            : Long.compare(a.m_index, b.m_index));
+      };
+
+  /**
+   * the deterministic order of candidates: smaller archives first,
+   * ties are broken by the source process, i.e., the tool and its
+   * configuration, and then by the digest of the payload. This
+   * order does not depend on when a candidate was created.
+   * Candidates which are still equal have the same size and
+   * payload and, since all have the same header, the same bytes.
+   */
+  static final Comparator<_Candidate> DETERMINISTIC =
+      (a, b) -> {
+        int res = Integer.compare(a.m_size, b.m_size);
+        if (res != 0) {
+          return res;
+        }
+        res = a.m_from.compareTo(b.m_from);
+        if (res != 0) {
+          return res;
+        }
+        if (a.m_digest != b.m_digest) {
+          if (a.m_digest == null) {
+            return 1;
+          }
+          if (b.m_digest == null) {
+            return (-1);
+          }
+          res = a.m_digest.compareTo(b.m_digest);
+          if (res != 0) {
+            return res;
+          }
+        }
+        return Long.compare(a.m_index, b.m_index);
+      };
+
+  /** the counter for the creation order */
+  private static final AtomicLong COUNTER = new AtomicLong();
+
+  /** the size of the gzip archive */
+  final int m_size;
+
+  /**
+   * the source process creating the data, including the tool and
+   * its configuration
+   */
+  final String m_from;
+
+  /**
+   * the statistics about the DEFLATE stream, or {@code null} if
+   * the candidate has not been decoded
+   */
+  final _DeflateStats m_stats;
+
+  /**
+   * the digest of the payload, see
+   * {@link _GZipFormat#_payloadDigest(byte[])}, or {@code null}
+   * if the header is invalid
+   */
+  final ByteBuffer m_digest;
+
+  /** the gzip archive */
+  private final _Blob m_blob;
+
+  /** the creation index */
+  private final long m_index;
+
+  /**
+   * create the candidate, holding one reference
+   *
+   * @param job
+   *          the owning job
+   * @param data
+   *          the gzip archive, which must not be modified
+   *          afterwards
+   * @param from
+   *          the source process creating the data
+   * @param stats
+   *          the statistics about the DEFLATE stream, or
+   *          {@code null} if the candidate has not been decoded
+   */
+  _Candidate(final UltraGzipJob job, final byte[] data,
+      final String from, final _DeflateStats stats) {
+    super();
+    this.m_size = data.length;
+    this.m_from = from;
+    this.m_stats = stats;
+    this.m_digest = _GZipFormat._payloadDigest(data);
+    this.m_blob = new _Blob(data, job);
+    this.m_index = _Candidate.COUNTER.getAndIncrement();
+  }
+
+  /**
+   * Get the gzip archive.
+   *
+   * @return the gzip archive, which must not be modified
+   * @throws IOException
+   *           if a spilled archive cannot be loaded
+   */
+  final byte[] _data() throws IOException {
+    return this.m_blob._bytes();
+  }
+
+  /**
+   * Write the gzip archive to a stream.
+   *
+   * @param os
+   *          the stream
+   * @throws IOException
+   *           if i/o fails
+   */
+  final void _write(final OutputStream os) throws IOException {
+    this.m_blob._write(os);
+  }
+
+  /** Add a reference. */
+  final void _retain() {
+    this.m_blob._retain();
+  }
+
+  /** Release a reference. */
+  final void _release() {
+    this.m_blob._release();
+  }
+}
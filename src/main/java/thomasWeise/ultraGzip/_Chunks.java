@@ -0,0 +1,176 @@
+package thomasWeise.ultraGzip;
+
+import java.util.concurrent.Future;
+
+import thomasWeise.tools.Execute;
+
+/**
+ * Compress large data as a sequence of chunks in parallel and
+ * stitch the resulting DEFLATE streams into a single gzip member.
+ * Each chunk is compressed by a job of its own, which is primed
+ * with the 32&nbsp;KiB of data preceding the chunk as preset
+ * dictionary, so back-references may reach across the chunk
+ * boundary. Compressors which cannot use a dictionary simply
+ * produce a stream which does not refer to it, which is valid as
+ * well. The streams are then concatenated at bit level: the
+ * BFINAL flag of all but the last stream is cleared and, if a
+ * stream contains stored blocks, it is aligned to a byte boundary
+ * via an empty stored block. The CRC-32 of the whole data is
+ * already known to the owning job, so it is written directly
+ * into the trailer.
+ */
+final class _Chunks implements Runnable {
+
+  /** the source name */
+  private static final String FROM =
+      "parallel chunk compression"; //$NON-NLS-1$
+
+  /** the size of the DEFLATE window */
+  private static final int WINDOW = 32768;
+
+  /** the job */
+  private final UltraGzipJob m_owner;
+
+  /**
+   * create the chunk job
+   *
+   * @param job
+   *          the owning job
+   */
+  private _Chunks(final UltraGzipJob job) {
+    super();
+    this.m_owner = job;
+  }
+
+  /**
+   * enqueue the chunk job
+   *
+   * @param job
+   *          the owning job
+   */
+  static final void _enqueue(final UltraGzipJob job) {
+    job._execute(new _Chunks(job));
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public final void run() {
+    final UltraGzipJob owner;
+    final _Input input;
+    final int count;
+    final long[] starts;
+    final Future<?>[] futures;
+    final byte[][] results;
+    final _Inflater inflater;
+    final _DeflateStats stats;
+    final _BitOutput out;
+    _ERegistrationResult res;
+    byte[] data, window;
+    long start, end, first, total;
+    int index, header, dictionary;
+
+    owner = this.m_owner;
+    input = owner.m_input;
+    res = _ERegistrationResult.INVALID;
+
+    try {
+      count = ((int) ((input.m_size + (owner.m_chunkSize - 1L))
+          / owner.m_chunkSize));
+      starts = new long[count + 1];
+      for (index = 0; index < count; index++) {
+        starts[index] = (((long) index) * owner.m_chunkSize);
+      }
+      starts[count] = input.m_size;
+
+      // compress all chunks in parallel
+      futures = new Future<?>[count];
+      for (index = 0; index < count; index++) {
+        start = starts[index];
+        end = starts[index + 1];
+        dictionary = ((int) Math.min(start, _Chunks.WINDOW));
+        futures[index] = Execute.parallel(new UltraGzipJob(
+            new _Input(input._copy(start, ((int) (end - start)))),
+            owner.m_name + " chunk " + (index + 1) //$NON-NLS-1$
+                + '/' + count,
+            ((dictionary > 0)
+                ? input._copy(start - dictionary, dictionary)
+                : null),
+            owner.m_deferVerification, 0, 0,
+            EDeflateFormat.GZIP, null, owner.m_decodeMargin,
+            owner.m_deterministic, owner.m_fastPath,
+            owner.m_tinySize));
+      }
+      results = new byte[count][];
+      total = 0L;
+      for (index = 0; index < count; index++) {
+        results[index] = ((byte[]) (futures[index].get()));
+        futures[index] = null;
+        total += results[index].length;
+      }
+
+      // stitch the streams together
+      inflater = new _Inflater();
+      stats = new _DeflateStats();
+      out = new _BitOutput(
+          (int) Math.min(Integer.MAX_VALUE - 8, total));
+      for (index = 0; index < count; index++) {
+        data = results[index];
+        results[index] = null;
+        header = _GZipFormat._headerLength(data);
+        start = starts[index];
+        end = starts[index + 1];
+        dictionary = ((int) Math.min(start, _Chunks.WINDOW));
+        window = input._copy(start - dictionary,
+            ((int) (end - start)) + dictionary);
+
+        stats._clear();
+        if (inflater._inflate(data, header, data.length, window,
+            dictionary, window.length, stats) < 0) {
+          owner._warning(_Chunks.FROM, "chunk " + (index + 1) //$NON-NLS-1$
+              + " could not be decoded."); //$NON-NLS-1$
+          return;
+        }
+
+        if (index <= 0) {
+          out._bytes(data, 0, header);
+        } else {
+          if ((stats.m_storedBlocks > 0L)
+              && (!(out._isAligned()))) {
+            // an empty stored block to reach a byte boundary
+            out._bits(0, 3);
+            out._align();
+            out._bits(0, 16);
+            out._bits(0xffff, 16);
+          }
+        }
+
+        first = (((long) header) << 3);
+        if (index < (count - 1)) {
+          // clear the BFINAL flag of the last block
+          out._copy(data, first, inflater._lastBlock());
+          out._bits(0, 1);
+          out._copy(data, inflater._lastBlock() + 1L,
+              inflater._endBit());
+        } else {
+          out._copy(data, first, inflater._endBit());
+        }
+      }
+
+      // append the trailer of the whole data
+      out._align();
+      out._bits(owner.m_crc & 0xffff, 16);
+      out._bits(owner.m_crc >>> 16, 16);
+      out._bits(((int) (input.m_size)) & 0xffff, 16);
+      out._bits(((int) (input.m_size)) >>> 16, 16);
+
+      res = owner._register(out._toByteArray(), _Chunks.FROM);
+    } catch (final Throwable error) {
+      owner._error(error, _Chunks.FROM);
+    } finally {
+      if (res == _ERegistrationResult.INVALID) {
+        // fall back to compressing the data as a whole
+        owner._enqueueCompressors();
+      }
+    }
+  }
+}
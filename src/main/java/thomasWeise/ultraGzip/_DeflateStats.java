@@ -0,0 +1,80 @@
+package thomasWeise.ultraGzip;
+
+/**
+ * Statistics about the structure of a DEFLATE stream, as
+ * collected by {@link _Inflater}.
+ */
+final class _DeflateStats {
+
+  /** the number of blocks */
+  long m_blocks;
+  /** the number of stored blocks */
+  long m_storedBlocks;
+  /** the number of blocks with fixed Huffman codes */
+  long m_fixedBlocks;
+  /** the number of blocks with dynamic Huffman codes */
+  long m_dynamicBlocks;
+  /** the number of bytes in stored blocks */
+  long m_storedBytes;
+  /** the number of literals */
+  long m_literals;
+  /** the number of matches, i.e., length/distance pairs */
+  long m_matches;
+  /** the number of bytes produced by matches */
+  long m_matchBytes;
+  /** the number of bits spent on dynamic Huffman code headers */
+  long m_headerBits;
+
+  /** create */
+  _DeflateStats() {
+    super();
+  }
+
+  /** reset all counters to zero */
+  final void _clear() {
+    this.m_blocks = 0L;
+    this.m_storedBlocks = 0L;
+    this.m_fixedBlocks = 0L;
+    this.m_dynamicBlocks = 0L;
+    this.m_storedBytes = 0L;
+    this.m_literals = 0L;
+    this.m_matches = 0L;
+    this.m_matchBytes = 0L;
+    this.m_headerBits = 0L;
+  }
+
+  /**
+   * Estimate the work needed to decode the stream. The model counts
+   * roughly in table lookups of a table-driven inflater: each block
+   * has a small fixed overhead, each dynamic block additionally
+   * costs reading its code lengths and filling its decoding
+   * tables, each literal is one symbol, each match is two symbols
+   * plus extra bits, and the copied bytes of matches and stored
+   * blocks are moved several at a time. Of two streams of about
+   * the same size, the one with fewer dynamic blocks and fewer,
+   * longer matches therefore decodes faster.
+   *
+   * @return the estimated decoding cost
+   */
+  final long _decodeCost() {
+    return ((16L * this.m_blocks) //
+        + (512L * this.m_dynamicBlocks) + this.m_headerBits //
+        + this.m_literals + (3L * this.m_matches)
+        + (this.m_matchBytes >>> 3) + (this.m_storedBytes >>> 4));
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public final String toString() {
+    return ((((((((((((((((((("blocks=" + this.m_blocks) //$NON-NLS-1$
+        + " (stored=") + this.m_storedBlocks) //$NON-NLS-1$
+        + ", fixed=") + this.m_fixedBlocks) //$NON-NLS-1$
+        + ", dynamic=") + this.m_dynamicBlocks) //$NON-NLS-1$
+        + "), literals=") + this.m_literals) //$NON-NLS-1$
+        + ", matches=") + this.m_matches) //$NON-NLS-1$
+        + ", matchBytes=") + this.m_matchBytes) //$NON-NLS-1$
+        + ", storedBytes=") + this.m_storedBytes) //$NON-NLS-1$
+        + ", headerBits=") + this.m_headerBits) //$NON-NLS-1$
+        + ", decodeCost=") + this._decodeCost()); //$NON-NLS-1$
+  }
+}
@@ -1,12 +1,12 @@
 package thomasWeise.ultraGzip;
 
-import java.io.OutputStream;
 import java.nio.file.Path;
 
 import thomasWeise.tools.ByteBuffers;
 import thomasWeise.tools.Configuration;
 import thomasWeise.tools.EProcessStream;
 import thomasWeise.tools.ExternalProcess;
+import thomasWeise.tools.ExternalProcessBuilder;
 import thomasWeise.tools.ExternalProcessExecutor;
 import thomasWeise.tools.TempDir;
 
@@ -76,29 +76,32 @@ final class _GZIP implements Runnable {
     compressed = null;
     result = null;
     try (final TempDir temp = new TempDir()) {
-      try (final ExternalProcess ep =
+      final ExternalProcessBuilder epb =
           ExternalProcessExecutor.getInstance().get()//
               .setDirectory(temp.getPath())//
               .setExecutable(_GZIP.__GZIP_PATH)//
               .addStringArgument("-" + this.m_quality) //$NON-NLS-1$
               .addStringArgument("-c") //$NON-NLS-1$
               .setStdErr(EProcessStream.INHERIT)//
-              .setStdIn(EProcessStream.AS_STREAM)//
-              .setStdOut(EProcessStream.AS_STREAM)//
-              .setDirectory(temp.getPath())//
-              .get()) {
+              .setStdOut(EProcessStream.AS_STREAM);
+      this.m_owner.m_input._setStdIn(epb);
 
-        try (final OutputStream os = ep.getStdIn()) {
-          os.write(this.m_owner.m_data);
-        }
+      try (final ExternalProcess ep = epb.get()) {
 
-        compressed = ByteBuffers.get().load(ep.getStdOut());
+        this.m_owner.m_input._writeStdIn(ep);
+
+        compressed = ByteBuffers.get().load(ep.getStdOut(),
+            this.m_owner::_isPromising);
+        if (compressed == null) {
+          // The output is already larger than the best result, so
+          // the process is killed when we leave this block.
+          return;
+        }
         result = this.m_owner._register(compressed, _GZIP.FROM);
 
         if ((retCode = ep.waitFor()) != 0) {
           this.m_owner._processError(retCode, _GZIP.FROM,
               _GZIP.__GZIP_PATH);
-        } else {
           result = null;
           compressed = null;
         }
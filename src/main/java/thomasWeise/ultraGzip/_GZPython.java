@@ -1,25 +1,41 @@
 package thomasWeise.ultraGzip;
 
-import java.io.OutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 
-import thomasWeise.tools.ByteBuffers;
 import thomasWeise.tools.Configuration;
 import thomasWeise.tools.EProcessStream;
+import thomasWeise.tools.Execute;
 import thomasWeise.tools.ExternalProcess;
 import thomasWeise.tools.ExternalProcessExecutor;
 import thomasWeise.tools.TempDir;
 
 /**
- * The internal class for using the Python's GZIP implementation.
+ * The internal class for using the Python's zlib implementation.
+ * Instead of starting a new interpreter for every job, we keep a
+ * pool of long-lived Python workers, at most one per worker
+ * thread. Each worker receives the data together with a grid of
+ * {@code zlib.compressobj(level, method, wbits, memLevel, strategy)}
+ * settings and returns one compressed result per setting, using
+ * a simple length-prefixed framing over its stdin and stdout. If
+ * the job has a preset dictionary, it is passed on as
+ * {@code zdict}. Only the smallest valid result of the grid is
+ * registered.
  */
 final class _GZPython implements Runnable {
 
   /** the source name */
   private static final String FROM =
-      "Python GZip Implementation"; //$NON-NLS-1$
+      "Python zlib Implementation"; //$NON-NLS-1$
 
   /** the argument */
   static final String ARG = "python3"; //$NON-NLS-1$
@@ -28,6 +44,38 @@ final class _GZPython implements Runnable {
   private static final Path __PYTHON_PATH =
       Configuration.getExecutable(_GZPython.ARG);
 
+  /** the zlib compression method: deflate */
+  private static final int DEFLATED = 8;
+
+  /** the window bits: 32KiB window with gzip header and trailer */
+  private static final int WBITS_GZIP = 31;
+
+  /** the quality range */
+  private static final int[] QUALITY =
+      UltraGzip._qualityRange(1, 9, 7);
+
+  /** the memory levels */
+  private static final int[] MEM_LEVEL =
+      UltraGzip._qualityRange(1, 9, 8);
+
+  /**
+   * the strategies: {@code 0}=default, {@code 1}=filtered,
+   * {@code 2}=Huffman only, {@code 3}=run-length encoding
+   */
+  private static final int[] STRATEGY;
+
+  static {
+    if (UltraGzip._getIntensity() == 5) {
+      STRATEGY = new int[] { 0, 1, 3 };
+    } else {
+      if (UltraGzip._getIntensity() < 5) {
+        STRATEGY = new int[] { 0 };
+      } else {
+        STRATEGY = new int[] { 0, 1, 2, 3 };
+      }
+    }
+  }
+
   /** the job */
   private final UltraGzipJob m_owner;
 
@@ -54,67 +102,332 @@ final class _GZPython implements Runnable {
     }
   }
 
+  /**
+   * Get the name of a given setting
+   *
+   * @param level
+   *          the compression level
+   * @param memLevel
+   *          the memory level
+   * @param strategy
+   *          the strategy
+   * @return the name
+   */
+  private static final String __name(final int level,
+      final int memLevel, final int strategy) {
+    return _GZPython.FROM + " (level " + level + //$NON-NLS-1$
+        ", memLevel " + memLevel + //$NON-NLS-1$
+        ", strategy " + strategy + ')'; //$NON-NLS-1$
+  }
+
+  /**
+   * Compress data with a long-lived Python worker under each of
+   * the given settings.
+   *
+   * @param data
+   *          the data
+   * @param dictionary
+   *          the preset dictionary, or {@code null} if none
+   * @param settings
+   *          the settings, each an array of the form
+   *          {@code level, method, wbits, memLevel, strategy}
+   * @return the compressed data for each setting, in the same
+   *         order as the settings, where an empty array means that
+   *         the setting could not be applied, or {@code null} if
+   *         Python is not available
+   * @throws IOException
+   *           if i/o fails
+   */
+  static final byte[][] _compress(final byte[] data,
+      final byte[] dictionary, final int[][] settings)
+      throws IOException {
+    final byte[][] results;
+    __Worker worker;
+    int length;
+
+    if (_GZPython.__PYTHON_PATH == null) {
+      return null;
+    }
+
+    results = new byte[settings.length][];
+    worker = __Pool._borrow();
+    try {
+      worker.m_stdin.writeInt(data.length);
+      worker.m_stdin.write(data);
+      if (dictionary != null) {
+        worker.m_stdin.writeInt(dictionary.length);
+        worker.m_stdin.write(dictionary);
+      } else {
+        worker.m_stdin.writeInt(0);
+      }
+      worker.m_stdin.writeInt(settings.length);
+      for (final int[] setting : settings) {
+        for (final int value : setting) {
+          worker.m_stdin.writeInt(value);
+        }
+      }
+      worker.m_stdin.flush();
+
+      // the results come back in the same order as the settings
+      for (int index = 0; index < results.length; index++) {
+        length = worker.m_stdout.readInt();
+        if (length < 0) {
+          throw new IOException(//
+              "Python worker announced invalid result length " //$NON-NLS-1$
+                  + length);
+        }
+        results[index] = new byte[length];
+        worker.m_stdout.readFully(results[index]);
+      }
+    } catch (final Throwable error) {
+      try {
+        __Pool._discard(worker);
+      } catch (final Throwable error2) {
+        error.addSuppressed(error2);
+      }
+      throw error;
+    }
+
+    __Pool._return(worker);
+    return results;
+  }
+
   /** {@inheritDoc} */
   @Override
   public final void run() {
-    byte[] compressed;
-    _ERegistrationResult result;
-    int retCode;
+    final byte[] data;
+    final int[][] settings;
+    final byte[][] results;
+    final Integer[] order;
+    String from;
+    int index;
 
     if (_GZPython.__PYTHON_PATH == null) {
       return;
     }
+    data = this.m_owner.m_input._array();
+    if (data == null) {
+      this.m_owner._warning(_GZPython.FROM,
+          "skipped, since the worker protocol cannot stream data which is too large for an array.");//$NON-NLS-1$
+      return;
+    }
+
+    settings = new int[_GZPython.QUALITY.length
+        * _GZPython.MEM_LEVEL.length * _GZPython.STRATEGY.length][];
+    index = 0;
+    for (final int level : _GZPython.QUALITY) {
+      for (final int memLevel : _GZPython.MEM_LEVEL) {
+        for (final int strategy : _GZPython.STRATEGY) {
+          settings[index++] = new int[] { level, _GZPython.DEFLATED,
+              _GZPython.WBITS_GZIP, memLevel, strategy };
+        }
+      }
+    }
+
+    try {
+      results = _GZPython._compress(data,
+          this.m_owner.m_dictionary, settings);
+    } catch (final Throwable ioe) { // ignore!
+      this.m_owner._error(ioe, _GZPython.FROM);
+      return;
+    }
+
+    // only register the smallest result which passes verification
+    order = new Integer[results.length];
+    for (index = order.length; (--index) >= 0;) {
+      order[index] = Integer.valueOf(index);
+    }
+    Arrays.sort(order,
+        (a, b) -> Integer.compare(results[a.intValue()].length,
+            results[b.intValue()].length));
+    for (final Integer choice : order) {
+      index = choice.intValue();
+      if (results[index].length <= 0) {
+        continue;
+      }
+      from = _GZPython.__name(settings[index][0],
+          settings[index][3], settings[index][4]);
+      if (this.m_owner._register(results[index],
+          from) != _ERegistrationResult.INVALID) {
+        _ADVDEF._postprocess(this.m_owner, results[index], from);
+        return;
+      }
+    }
+  }
+
+  /** a long-lived Python worker process */
+  private static final class __Worker implements Closeable {
+
+    /** the temporary directory holding the script */
+    private final TempDir m_temp;
+
+    /** the process */
+    private final ExternalProcess m_process;
+
+    /** the stream to write requests to */
+    final DataOutputStream m_stdin;
+
+    /** the stream to read results from */
+    final DataInputStream m_stdout;
+
+    /**
+     * create and start the worker
+     *
+     * @throws IOException
+     *           if i/o fails
+     */
+    __Worker() throws IOException {
+      super();
+
+      final Path script;
+
+      this.m_temp = new TempDir();
+      try {
+        script = Files.createTempFile(this.m_temp.getPath(),
+            "gzipper", //$NON-NLS-1$
+            ".py");//$NON-NLS-1$
+        Files.copy(
+            _GZPython.class.getResourceAsStream("gzipper.py"), //$NON-NLS-1$
+            script, StandardCopyOption.REPLACE_EXISTING);
+
+        this.m_process = ExternalProcessExecutor.getInstance()
+            .get()//
+            .setDirectory(this.m_temp.getPath())//
+            .setExecutable(_GZPython.__PYTHON_PATH)//
+            .addPathArgument(script) //
+            .setStdErr(EProcessStream.INHERIT)//
+            .setStdIn(EProcessStream.AS_STREAM)//
+            .setStdOut(EProcessStream.AS_STREAM)//
+            .get();
+      } catch (final Throwable error) {
+        this.m_temp.close();
+        throw error;
+      }
+
+      this.m_stdin = new DataOutputStream(
+          new BufferedOutputStream(this.m_process.getStdIn()));
+      this.m_stdout = new DataInputStream(
+          new BufferedInputStream(this.m_process.getStdOut()));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public final void close() throws IOException {
+      try {
+        this.m_process.close();
+      } finally {
+        this.m_temp.close();
+      }
+    }
+  }
 
-    compressed = null;
-    result = null;
-    try (final TempDir temp = new TempDir()) {
+  /**
+   * The pool of workers, which starts at most as many workers as
+   * there are worker threads.
+   */
+  private static final class __Pool {
 
-      final Path tempFile =
-          Files.createTempFile(temp.getPath(), "gzipper", //$NON-NLS-1$
-              "py");//$NON-NLS-1$
+    /** all workers, whether idle or borrowed */
+    private static final ArrayList<__Worker> ALL = new ArrayList<>();
 
-      Files.copy(
-          _GZPython.class.getResourceAsStream("gzipper.py"), //$NON-NLS-1$
-          tempFile, StandardCopyOption.REPLACE_EXISTING);
+    /** the idle workers */
+    private static final ArrayList<__Worker> IDLE =
+        new ArrayList<>();
 
-      try (final ExternalProcess ep =
-          ExternalProcessExecutor.getInstance().get()//
-              .setDirectory(temp.getPath())//
-              .setExecutable(_GZPython.__PYTHON_PATH)//
-              .addPathArgument(tempFile) //
-              .setStdErr(EProcessStream.INHERIT)//
-              .setStdIn(EProcessStream.AS_STREAM)//
-              .setStdOut(EProcessStream.AS_STREAM)//
-              .setDirectory(temp.getPath())//
-              .get()) {
+    /** the number of workers which exist or are being started */
+    private static int s_count = 0;
 
-        try (final OutputStream os = ep.getStdIn()) {
-          os.write(this.m_owner.m_data);
+    static {
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+        synchronized (__Pool.IDLE) {
+          for (final __Worker worker : __Pool.ALL) {
+            try {
+              worker.close();
+            } catch (@SuppressWarnings("unused") final Throwable ignore) {
+              // ignore
+            }
+          }
+          __Pool.ALL.clear();
+          __Pool.IDLE.clear();
         }
+      }));
+    }
 
-        compressed = ByteBuffers.get().load(ep.getStdOut());
-        result =
-            this.m_owner._register(compressed, _GZPython.FROM);
+    /**
+     * Get an idle worker, start a new one if the pool is not yet
+     * full, or wait until a worker is returned.
+     *
+     * @return the worker
+     * @throws IOException
+     *           if i/o fails
+     */
+    static final __Worker _borrow() throws IOException {
+      final __Worker worker;
+      int size;
 
-        if ((retCode = ep.waitFor()) != 0) {
-          this.m_owner._processError(retCode, _GZPython.FROM,
-              _GZPython.__PYTHON_PATH);
-        } else {
-          result = null;
-          compressed = null;
+      synchronized (__Pool.IDLE) {
+        for (;;) {
+          size = __Pool.IDLE.size();
+          if (size > 0) {
+            return __Pool.IDLE.remove(size - 1);
+          }
+          if (__Pool.s_count < Execute.getCores()) {
+            ++__Pool.s_count;
+            break;
+          }
+          try {
+            __Pool.IDLE.wait();
+          } catch (final InterruptedException error) {
+            throw new IOException(error);
+          }
         }
       }
 
-    } catch (final Throwable ioe) { // ignore!
-      this.m_owner._error(ioe, _GZPython.FROM);
-      result = null;
-      compressed = null;
+      try {
+        worker = new __Worker();
+      } catch (final Throwable error) {
+        synchronized (__Pool.IDLE) {
+          --__Pool.s_count;
+          __Pool.IDLE.notify();
+        }
+        throw error;
+      }
+      synchronized (__Pool.IDLE) {
+        __Pool.ALL.add(worker);
+      }
+      return worker;
     }
 
-    if ((result != null) && (compressed != null)
-        && (result != _ERegistrationResult.INVALID)) {
-      _ADVDEF._postprocess(this.m_owner, compressed,
-          _GZPython.FROM);
+    /**
+     * Put a worker back into the pool.
+     *
+     * @param worker
+     *          the worker
+     */
+    static final void _return(final __Worker worker) {
+      synchronized (__Pool.IDLE) {
+        __Pool.IDLE.add(worker);
+        __Pool.IDLE.notify();
+      }
+    }
+
+    /**
+     * Close a broken worker and remove it from the pool.
+     *
+     * @param worker
+     *          the worker
+     * @throws IOException
+     *           if i/o fails
+     */
+    static final void _discard(final __Worker worker)
+        throws IOException {
+      synchronized (__Pool.IDLE) {
+        if (__Pool.ALL.remove(worker)) {
+          --__Pool.s_count;
+        }
+        __Pool.IDLE.notify();
+      }
+      worker.close();
     }
   }
 }
@@ -0,0 +1,334 @@
+package thomasWeise.ultraGzip;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/** Some helper methods for dealing with the GZIP format. */
+final class _GZipFormat {
+
+  /** the first magic byte */
+  static final int ID1 = 0x1f;
+  /** the second magic byte */
+  static final int ID2 = 0x8b;
+  /** the compression method: deflate */
+  static final int CM_DEFLATE = 8;
+
+  /** the flag for a header crc */
+  static final int FHCRC = 2;
+  /** the flag for extra fields */
+  static final int FEXTRA = 4;
+  /** the flag for a file name */
+  static final int FNAME = 8;
+  /** the flag for a comment */
+  static final int FCOMMENT = 16;
+  /** the reserved flags, which must be zero */
+  private static final int FRESERVED = 0xe0;
+
+  /** the operating system: unknown */
+  private static final int OS_UNKNOWN = 0xff;
+
+  /** the size of the fixed part of the header */
+  static final int HEADER_SIZE = 10;
+  /** the size of the trailer */
+  static final int TRAILER_SIZE = 8;
+
+  /**
+   * Get the length of the header of a gzip archive, i.e., the
+   * index where the DEFLATE payload begins.
+   *
+   * @param data
+   *          the gzip archive
+   * @return the length of the header, or {@code -1} if the data
+   *         does not start with a valid header or is too short
+   *         to hold a header and a trailer
+   */
+  static final int _headerLength(final byte[] data) {
+    final int flags, end;
+    int index;
+
+    end = data.length - _GZipFormat.TRAILER_SIZE;
+    if ((end < _GZipFormat.HEADER_SIZE)
+        || ((data[0] & 0xff) != _GZipFormat.ID1)
+        || ((data[1] & 0xff) != _GZipFormat.ID2)
+        || ((data[2] & 0xff) != _GZipFormat.CM_DEFLATE)) {
+      return (-1);
+    }
+
+    flags = (data[3] & 0xff);
+    if ((flags & _GZipFormat.FRESERVED) != 0) {
+      return (-1);
+    }
+
+    index = _GZipFormat.HEADER_SIZE;
+    if ((flags & _GZipFormat.FEXTRA) != 0) {
+      if ((index + 2) > end) {
+        return (-1);
+      }
+      index += 2 + ((data[index] & 0xff)
+          | ((data[index + 1] & 0xff) << 8));
+    }
+    if ((flags & _GZipFormat.FNAME) != 0) {
+      while ((index < end) && (data[index] != 0)) {
+        index++;
+      }
+      index++;
+    }
+    if ((flags & _GZipFormat.FCOMMENT) != 0) {
+      while ((index < end) && (data[index] != 0)) {
+        index++;
+      }
+      index++;
+    }
+    if ((flags & _GZipFormat.FHCRC) != 0) {
+      if ((index + 2) > end) {
+        return (-1);
+      }
+      // the header crc holds the two lower bytes of the CRC-32 of
+      // all header bytes before it
+      final CRC32 crc = new CRC32();
+      crc.update(data, 0, index);
+      if ((((int) (crc.getValue())) & 0xffff) != ((data[index]
+          & 0xff) | ((data[index + 1] & 0xff) << 8))) {
+        return (-1);
+      }
+      index += 2;
+    }
+
+    return ((index < end) ? index : (-1));
+  }
+
+  /**
+   * Create the canonical header which every candidate archive of a
+   * job receives. Without name and time, this is the minimal
+   * 10-byte header with no flags, no modification time, no extra
+   * flags, and an unknown operating system.
+   *
+   * @param name
+   *          the original file name to store, or {@code null} to
+   *          store none
+   * @param time
+   *          the modification time to store, in seconds since the
+   *          epoch, or {@code 0} to store none
+   * @return the header
+   */
+  static final byte[] _header(final String name, final long time) {
+    final byte[] header, bytes;
+
+    // the file name is stored in ISO 8859-1, zero-terminated
+    bytes = ((name != null) ? name.replace((char) 0, '_')
+        .getBytes(StandardCharsets.ISO_8859_1) : new byte[0]);
+    header = new byte[_GZipFormat.HEADER_SIZE
+        + ((name != null) ? (bytes.length + 1) : 0)];
+    header[0] = ((byte) _GZipFormat.ID1);
+    header[1] = ((byte) _GZipFormat.ID2);
+    header[2] = ((byte) _GZipFormat.CM_DEFLATE);
+    header[3] = ((byte) ((name != null) ? _GZipFormat.FNAME : 0));
+    header[4] = ((byte) time);
+    header[5] = ((byte) (time >>> 8));
+    header[6] = ((byte) (time >>> 16));
+    header[7] = ((byte) (time >>> 24));
+    header[9] = ((byte) _GZipFormat.OS_UNKNOWN);
+    System.arraycopy(bytes, 0, header, _GZipFormat.HEADER_SIZE,
+        bytes.length);
+    return header;
+  }
+
+  /**
+   * Replace the header of a gzip archive with the given one.
+   *
+   * @param data
+   *          the gzip archive
+   * @param start
+   *          the length of its current header
+   * @param header
+   *          the new header
+   * @return the archive with the new header, which is
+   *         {@code data} if it already has this header
+   */
+  static final byte[] _canonicalize(final byte[] data,
+      final int start, final byte[] header) {
+    final byte[] result;
+
+    if ((start == header.length) && Arrays.equals(header,
+        Arrays.copyOf(data, header.length))) {
+      return data;
+    }
+    result = new byte[header.length + (data.length - start)];
+    System.arraycopy(header, 0, result, 0, header.length);
+    System.arraycopy(data, start, result, header.length,
+        data.length - start);
+    return result;
+  }
+
+  /**
+   * Store the size of a gzip member in the {@code BC} field of its
+   * extra field, which BGZF readers use to find the next member.
+   * Members without such a field are left alone.
+   *
+   * @param data
+   *          the gzip member
+   * @return {@code true} if the member has no {@code BC} field or
+   *         its size was stored, {@code false} if the member is too
+   *         large for the field
+   */
+  static final boolean _setBlockSize(final byte[] data) {
+    final int end;
+    int index, length;
+
+    if ((data.length < (_GZipFormat.HEADER_SIZE + 2))
+        || ((data[3] & _GZipFormat.FEXTRA) == 0)) {
+      return true;
+    }
+    index = (_GZipFormat.HEADER_SIZE + 2);
+    end = Math.min(data.length, index + ((data[index - 2] & 0xff)
+        | ((data[index - 1] & 0xff) << 8)));
+    while ((index + 4) <= end) {
+      length = ((data[index + 2] & 0xff)
+          | ((data[index + 3] & 0xff) << 8));
+      if ((data[index] == 'B') && (data[index + 1] == 'C')
+          && (length == 2) && ((index + 6) <= end)) {
+        if (data.length > 65536) {
+          return false;
+        }
+        data[index + 4] = ((byte) (data.length - 1));
+        data[index + 5] = ((byte) ((data.length - 1) >>> 8));
+        return true;
+      }
+      index += (4 + length);
+    }
+    return true;
+  }
+
+  /**
+   * Read a little-endian 32 bit integer
+   *
+   * @param data
+   *          the data
+   * @param index
+   *          the index of the first byte
+   * @return the integer
+   */
+  private static final int __readInt(final byte[] data,
+      final int index) {
+    return ((data[index] & 0xff) | ((data[index + 1] & 0xff) << 8)
+        | ((data[index + 2] & 0xff) << 16)
+        | ((data[index + 3] & 0xff) << 24));
+  }
+
+  /**
+   * Get the CRC-32 stored in the trailer of a gzip archive
+   *
+   * @param data
+   *          the gzip archive
+   * @return the CRC-32 of the uncompressed data
+   */
+  static final int _trailerCRC(final byte[] data) {
+    return _GZipFormat.__readInt(data,
+        data.length - _GZipFormat.TRAILER_SIZE);
+  }
+
+  /**
+   * Get the size stored in the trailer of a gzip archive
+   *
+   * @param data
+   *          the gzip archive
+   * @return the size of the uncompressed data modulo 2^32
+   */
+  static final int _trailerSize(final byte[] data) {
+    return _GZipFormat.__readInt(data, data.length - 4);
+  }
+
+  /**
+   * Check whether the trailer of a gzip archive fits to the
+   * uncompressed data. This is an O(1) test which can rule out
+   * broken archives without inflating them.
+   *
+   * @param data
+   *          the gzip archive
+   * @param crc
+   *          the CRC-32 of the uncompressed data
+   * @param size
+   *          the size of the uncompressed data
+   * @return {@code true} if the trailer holds the given checksum
+   *         and size, {@code false} otherwise
+   */
+  static final boolean _checkTrailer(final byte[] data,
+      final int crc, final long size) {
+    return ((data.length >= (_GZipFormat.HEADER_SIZE
+        + _GZipFormat.TRAILER_SIZE))
+        && (_GZipFormat._trailerCRC(data) == crc)
+        && (_GZipFormat._trailerSize(data) == ((int) size)));
+  }
+
+  /**
+   * Put the DEFLATE payload of a gzip archive into another
+   * container format.
+   *
+   * @param data
+   *          the gzip archive
+   * @param format
+   *          the format
+   * @param input
+   *          the uncompressed data, to compute checksums from
+   * @return the data in the new format
+   */
+  static final byte[] _rewrap(final byte[] data,
+      final EDeflateFormat format, final _Input input) {
+    final int start, length, adler;
+    final byte[] result;
+
+    if (format == EDeflateFormat.GZIP) {
+      return data;
+    }
+    start = _GZipFormat._headerLength(data);
+    length = ((data.length - _GZipFormat.TRAILER_SIZE) - start);
+    if (format == EDeflateFormat.RAW) {
+      return Arrays.copyOfRange(data, start, start + length);
+    }
+
+    // zlib: deflate with a 32 KiB window, maximum compression, and
+    // the Adler-32 checksum in big endian byte order
+    result = new byte[length + 6];
+    result[0] = 0x78;
+    result[1] = ((byte) 0xda);
+    System.arraycopy(data, start, result, 2, length);
+    adler = input._adler();
+    result[length + 2] = ((byte) (adler >>> 24));
+    result[length + 3] = ((byte) (adler >>> 16));
+    result[length + 4] = ((byte) (adler >>> 8));
+    result[length + 5] = ((byte) adler);
+    return result;
+  }
+
+  /**
+   * Compute a digest of the DEFLATE payload of a gzip archive,
+   * i.e., of everything except the header. Archives which only
+   * differ in their headers have the same digest.
+   *
+   * @param data
+   *          the gzip archive
+   * @return the digest, or {@code null} if the data does not
+   *         start with a valid header
+   */
+  static final ByteBuffer _payloadDigest(final byte[] data) {
+    final MessageDigest digest;
+    final int start;
+
+    start = _GZipFormat._headerLength(data);
+    if (start < 0) {
+      return null;
+    }
+
+    try {
+      digest = MessageDigest.getInstance("SHA-256"); //$NON-NLS-1$
+    } catch (final NoSuchAlgorithmException error) {
+      throw new IllegalStateException(error);
+    }
+    digest.update(data, start, data.length - start);
+    return ByteBuffer.wrap(digest.digest());
+  }
+}
@@ -0,0 +1,146 @@
+package thomasWeise.ultraGzip;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A thread-local verifier for gzip archives. The DEFLATE payload
+ * of an archive is inflated chunk by chunk and every chunk is
+ * directly compared with the corresponding part of the original
+ * data. Thus, we never need to materialize the whole decompressed
+ * output and re-use the same inflaters and buffer for every
+ * archive checked in a thread. The payload is checked with two
+ * independent implementations: zlib via Java's inflater and our
+ * own {@link _Inflater}, which decodes right from the array. The
+ * trailer is not checked here, as {@link UltraGzipJob} already
+ * compares it with the checksum of the original data before
+ * inflating anything.
+ */
+final class _GZipVerifier {
+
+  /** the getter for the verifier */
+  private static final ThreadLocal<_GZipVerifier> GET =
+      new __ThreadLocal();
+
+  /** Java's inflater, i.e., zlib */
+  private final Inflater m_java;
+
+  /** our own inflater */
+  private final _Inflater m_own;
+
+  /** the chunk buffer */
+  private final byte[] m_buffer;
+
+  /** create */
+  _GZipVerifier() {
+    super();
+    this.m_java = new Inflater(true);
+    this.m_own = new _Inflater();
+    this.m_buffer = new byte[65536];
+  }
+
+  /**
+   * Get the thread local verifier.
+   *
+   * @return the verifier
+   */
+  static final _GZipVerifier _get() {
+    return _GZipVerifier.GET.get();
+  }
+
+  /**
+   * Verify an archive with Java's inflater, i.e., with zlib.
+   *
+   * @param archive
+   *          the gzip archive
+   * @param start
+   *          the start index of the DEFLATE payload
+   * @param original
+   *          the original data
+   * @param dictionary
+   *          the preset dictionary, or {@code null}
+   * @return {@code true} if the payload decompresses to the
+   *         original data and is followed by exactly a trailer,
+   *         {@code false} otherwise
+   * @throws DataFormatException
+   *           if the payload is corrupted
+   */
+  final boolean _verifyJava(final byte[] archive, final int start,
+      final _Input original, final byte[] dictionary)
+      throws DataFormatException {
+    final Inflater inflater;
+    final byte[] buffer;
+    long offset;
+    int read;
+
+    inflater = this.m_java;
+    buffer = this.m_buffer;
+    inflater.reset();
+    if (dictionary != null) {
+      inflater.setDictionary(dictionary);
+    }
+    inflater.setInput(archive, start, archive.length - start);
+
+    offset = 0;
+    while (!(inflater.finished())) {
+      read = inflater.inflate(buffer);
+      if (read <= 0) {
+        if (inflater.finished()) {
+          break;
+        }
+        return false; // truncated or needs a dictionary
+      }
+      if (!(original._matches(offset, buffer, read))) {
+        return false;
+      }
+      offset += read;
+    }
+
+    return ((offset == original.m_size) && (inflater
+        .getRemaining() == _GZipFormat.TRAILER_SIZE));
+  }
+
+  /**
+   * Verify an archive with our own inflater.
+   *
+   * @param archive
+   *          the gzip archive
+   * @param start
+   *          the start index of the DEFLATE payload
+   * @param original
+   *          the original data, preceded by the preset dictionary
+   * @param from
+   *          the index where the original data begins, i.e., the
+   *          length of the preset dictionary
+   * @param stats
+   *          the statistics to update, or {@code null}
+   * @return {@code true} if the payload decompresses to the
+   *         original data and is followed by exactly a trailer,
+   *         {@code false} otherwise
+   */
+  final boolean _verifyOwn(final byte[] archive, final int start,
+      final byte[] original, final int from,
+      final _DeflateStats stats) {
+    final int end;
+
+    end = this.m_own._inflate(archive, start, archive.length,
+        original, from, original.length, stats);
+    return ((end >= 0)
+        && ((archive.length - end) == _GZipFormat.TRAILER_SIZE));
+  }
+
+  /** create */
+  private static final class __ThreadLocal
+      extends ThreadLocal<_GZipVerifier> {
+    /** create the thread local verifier */
+    __ThreadLocal() {
+      super();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected final _GZipVerifier initialValue() {
+      return new _GZipVerifier();
+    }
+  }
+}
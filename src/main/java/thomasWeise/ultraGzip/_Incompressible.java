@@ -0,0 +1,326 @@
+package thomasWeise.ultraGzip;
+
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+import thomasWeise.tools.ConsoleIO;
+
+/**
+ * A fast path for data which cannot be compressed, such as JPEG
+ * images, ZIP archives, or encrypted data. For such data, all
+ * compressors would run at full cost only to be beaten by stored
+ * blocks. All of the data is therefore checked first, segment by
+ * segment, so that no compressible region can hide between
+ * samples: if the entropy of the byte histogram of every segment
+ * is close to 8 bits per byte and a DEFLATE pass at the fastest
+ * level over the whole data hardly shrinks any segment, the data
+ * is encoded directly as a
+ * sequence of stored and fixed-Huffman literal blocks. The
+ * partition into blocks is optimal at the granularity of
+ * {@link #__granule(long)} bytes: it is found by dynamic
+ * programming over the block boundaries and the bit offset at
+ * which each block ends, since stored blocks must be padded to a
+ * byte boundary.
+ */
+final class _Incompressible {
+
+  /** the source name */
+  private static final String FROM =
+      "stored/fixed block encoder"; //$NON-NLS-1$
+
+  /** the smallest data for which the fast path is considered */
+  private static final int MIN_SIZE = 32768;
+
+  /** the size of a segment */
+  private static final int SEGMENT = 16384;
+
+  /** the minimum entropy of a segment, in bits per byte */
+  private static final double MIN_ENTROPY = 7.95d;
+
+  /** the largest payload of a stored block */
+  private static final int MAX_STORED = 65535;
+
+  /** the maximum number of granules in a fixed block */
+  private static final int MAX_FIXED_GRANULES = 64;
+
+  /**
+   * Check whether data seems to be incompressible.
+   *
+   * @param input
+   *          the data
+   * @return {@code true} if the data is clearly incompressible,
+   *         {@code false} otherwise
+   */
+  static final boolean _isIncompressible(final _Input input) {
+    final long segments;
+    final int[] histogram;
+    final byte[] buffer;
+    final Deflater deflater;
+    byte[] segment;
+    double entropy, p;
+    long start;
+    int out, read;
+
+    if ((input.m_size < _Incompressible.MIN_SIZE)
+        || (input._array() == null)) {
+      return false;
+    }
+
+    // the last segment takes up the remainder, so that no segment
+    // is too short for a meaningful histogram
+    segments = (input.m_size / _Incompressible.SEGMENT);
+    histogram = new int[256];
+    buffer = new byte[(_Incompressible.SEGMENT << 1) + 1024];
+    deflater = new Deflater(Deflater.BEST_SPEED, true);
+    try {
+      for (long i = 0L; i < segments; i++) {
+        start = (i * _Incompressible.SEGMENT);
+        segment = input._copy(start, (int) ((i < (segments - 1L))
+            ? _Incompressible.SEGMENT : (input.m_size - start)));
+
+        // the entropy of the byte histogram
+        Arrays.fill(histogram, 0);
+        for (final byte b : segment) {
+          histogram[b & 0xff]++;
+        }
+        entropy = 0d;
+        for (final int count : histogram) {
+          if (count > 0) {
+            p = (((double) count) / segment.length);
+            entropy -= (p * Math.log(p));
+          }
+        }
+        if ((entropy / Math.log(2d)) < _Incompressible.MIN_ENTROPY) {
+          return false;
+        }
+
+        // Matches, which the histogram misses, are searched by one
+        // DEFLATE stream over all of the data. Flushing it after
+        // each segment yields the compressed size of every segment,
+        // including matches reaching back into the previous one.
+        deflater.setInput(segment);
+        out = 0;
+        do {
+          read = deflater.deflate(buffer, 0, buffer.length,
+              Deflater.SYNC_FLUSH);
+          out += read;
+        } while (read >= buffer.length);
+        if ((100L * out) < (99L * segment.length)) {
+          return false;
+        }
+      }
+    } finally {
+      deflater.end();
+    }
+    return true;
+  }
+
+  /**
+   * Get the granularity at which the block boundaries are chosen:
+   * 1&nbsp;KiB, or more for very large data, to keep the search
+   * cheap.
+   *
+   * @param size
+   *          the size of the data
+   * @return the size of a granule
+   */
+  private static final int __granule(final long size) {
+    int granule;
+
+    granule = 1024;
+    while (((size / granule) > 262144L) && (granule < 32768)) {
+      granule <<= 1;
+    }
+    return granule;
+  }
+
+  /**
+   * Get the length of the fixed Huffman code of a literal.
+   *
+   * @param literal
+   *          the literal
+   * @return the code length
+   */
+  private static final int __fixedLength(final int literal) {
+    return ((literal < 144) ? 8 : 9);
+  }
+
+  /**
+   * Write the fixed Huffman code of a literal.
+   *
+   * @param out
+   *          the output
+   * @param literal
+   *          the literal
+   */
+  private static final void __fixedLiteral(final _BitOutput out,
+      final int literal) {
+    final int code, length;
+
+    if (literal < 144) {
+      code = (0x30 + literal);
+      length = 8;
+    } else {
+      code = (0x190 + (literal - 144));
+      length = 9;
+    }
+    // Huffman codes are packed starting with their highest bit
+    out._bits(Integer.reverse(code) >>> (32 - length), length);
+  }
+
+  /**
+   * Encode data as an optimal sequence of stored and fixed-Huffman
+   * literal blocks.
+   *
+   * @param data
+   *          the data
+   * @param header
+   *          the gzip header
+   * @param crc
+   *          the CRC-32 of the data
+   * @return the gzip archive
+   */
+  static final byte[] _encode(final byte[] data, final byte[] header,
+      final int crc) {
+    final int granule, count, storedSpan;
+    final long[] bytes, bits, cost;
+    final int[] fromGranule, blocks;
+    final byte[] fromOffset;
+    final boolean[] stored;
+    final _BitOutput out;
+    long here, next;
+    int end, offset, state, k, m, start, length;
+
+    granule = _Incompressible.__granule(data.length);
+    count = ((data.length + (granule - 1)) / granule);
+    storedSpan = (_Incompressible.MAX_STORED / granule);
+
+    // prefix sums of the bytes and of the fixed literal code bits
+    bytes = new long[count + 1];
+    bits = new long[count + 1];
+    for (int i = 0; i < count; i++) {
+      end = ((int) (Math.min(data.length,
+          ((long) (i + 1)) * granule)));
+      here = 0L;
+      for (int j = i * granule; j < end; j++) {
+        here += _Incompressible.__fixedLength(data[j] & 0xff);
+      }
+      bytes[i + 1] = end;
+      bits[i + 1] = bits[i] + here;
+    }
+
+    // state (granules done, bit offset modulo 8): least bits used
+    cost = new long[(count + 1) << 3];
+    Arrays.fill(cost, Long.MAX_VALUE);
+    fromGranule = new int[cost.length];
+    fromOffset = new byte[cost.length];
+    stored = new boolean[cost.length];
+    cost[0] = 0L;
+    for (int i = 0; i < count; i++) {
+      for (offset = 0; offset < 8; offset++) {
+        here = cost[(i << 3) | offset];
+        if (here == Long.MAX_VALUE) {
+          continue;
+        }
+        for (int j = i + 1; j <= Math.min(count,
+            i + Math.max(storedSpan,
+                _Incompressible.MAX_FIXED_GRANULES)); j++) {
+          if ((j - i) <= storedSpan) {
+            // header, padding, LEN and NLEN, and the bytes
+            next = here + 3L + ((8 - ((offset + 3) & 7)) & 7) + 32L
+                + ((bytes[j] - bytes[i]) << 3);
+            state = (j << 3);
+            if (next < cost[state]) {
+              cost[state] = next;
+              fromGranule[state] = i;
+              fromOffset[state] = ((byte) offset);
+              stored[state] = true;
+            }
+          }
+          if ((j - i) <= _Incompressible.MAX_FIXED_GRANULES) {
+            // header, the literals, and the end-of-block code
+            next = here + 3L + (bits[j] - bits[i]) + 7L;
+            state = ((j << 3) | ((int) ((offset + next - here) & 7L)));
+            if (next < cost[state]) {
+              cost[state] = next;
+              fromGranule[state] = i;
+              fromOffset[state] = ((byte) offset);
+              stored[state] = false;
+            }
+          }
+        }
+      }
+    }
+
+    // find the best final state and trace back the blocks
+    state = (count << 3);
+    for (offset = 1; offset < 8; offset++) {
+      if (cost[(count << 3) | offset] < cost[state]) {
+        state = ((count << 3) | offset);
+      }
+    }
+    blocks = new int[count + 1];
+    k = 0;
+    while ((state >>> 3) > 0) {
+      blocks[k++] = state;
+      state = ((fromGranule[state] << 3) | fromOffset[state]);
+    }
+
+    // write the blocks
+    out = new _BitOutput(header.length + data.length
+        + (k * 5) + 16);
+    out._bytes(header, 0, header.length);
+    while ((--k) >= 0) {
+      state = blocks[k];
+      m = (state >>> 3);
+      start = ((int) (bytes[fromGranule[state]]));
+      length = ((int) (bytes[m] - start));
+      out._bits((k == 0) ? 1 : 0, 1);
+      if (stored[state]) {
+        out._bits(0, 2);
+        out._align();
+        out._bits(length, 16);
+        out._bits(~length, 16);
+        out._bytes(data, start, length);
+      } else {
+        out._bits(1, 2);
+        for (int i = start; i < (start + length); i++) {
+          _Incompressible.__fixedLiteral(out, data[i] & 0xff);
+        }
+        out._bits(0, 7);
+      }
+    }
+
+    // the trailer
+    out._align();
+    out._bits(crc & 0xffff, 16);
+    out._bits(crc >>> 16, 16);
+    out._bits(data.length & 0xffff, 16);
+    out._bits(data.length >>> 16, 16);
+    return out._toByteArray();
+  }
+
+  /**
+   * Check whether the data of a job is incompressible and, if so,
+   * register its direct encoding.
+   *
+   * @param job
+   *          the job
+   * @param header
+   *          the gzip header to use
+   * @return {@code true} if the data was found to be
+   *         incompressible and a valid result was registered,
+   *         {@code false} if the compressors need to be run
+   */
+  static final boolean _apply(final UltraGzipJob job,
+      final byte[] header) {
+    if (!(_Incompressible._isIncompressible(job.m_input))) {
+      return false;
+    }
+    ConsoleIO.stdout(job.m_name
+        + " looks incompressible, so it is encoded directly as stored and fixed-Huffman blocks."); //$NON-NLS-1$
+    return (job._register(_Incompressible._encode(
+        job.m_input._array(), header, job.m_crc),
+        _Incompressible.FROM) != _ERegistrationResult.INVALID);
+  }
+}
@@ -0,0 +1,564 @@
+package thomasWeise.ultraGzip;
+
+/**
+ * A pure-Java DEFLATE decoder which does not produce any output.
+ * Instead, every decoded byte is directly compared with the data
+ * the stream is supposed to represent. Since all bytes decoded so
+ * far are equal to that data, back-references are resolved
+ * against it, too, and no window needs to be kept. Bits are
+ * buffered in a {@code long} which is refilled several bytes at
+ * a time and Huffman codes are decoded via two-level lookup
+ * tables. The decoder is as strict as zlib, i.e., it rejects the
+ * same malformed streams. Optionally, statistics about the
+ * structure of the stream are collected.
+ */
+final class _Inflater {
+
+  /** the number of bits resolved by the first table level */
+  private static final int ROOT_BITS = 10;
+  /** the size of the first table level */
+  private static final int ROOT_SIZE = (1 << _Inflater.ROOT_BITS);
+  /** the mask for the first table level */
+  private static final int ROOT_MASK = (_Inflater.ROOT_SIZE - 1);
+  /** the maximum length of a Huffman code */
+  private static final int MAX_BITS = 15;
+  /** the flag marking a link to a second-level table */
+  private static final int LINK = 0x8000;
+  /** the size of a lookup table */
+  private static final int TABLE_SIZE = _Inflater.ROOT_SIZE
+      + (288 << (_Inflater.MAX_BITS - _Inflater.ROOT_BITS));
+
+  /** the base lengths of the length symbols 257..285 */
+  static final int[] LENGTH_BASE = { 3, 4, 5, 6, 7, 8, 9,
+      10, 11, 13, 15, 17, 19, 23, 27, 31, 35, 43, 51, 59, 67, 83, 99,
+      115, 131, 163, 195, 227, 258 };
+  /** the extra bits of the length symbols 257..285 */
+  static final int[] LENGTH_EXTRA = { 0, 0, 0, 0, 0, 0, 0,
+      0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5,
+      0 };
+  /** the base distances of the distance symbols 0..29 */
+  static final int[] DIST_BASE = { 1, 2, 3, 4, 5, 7, 9, 13,
+      17, 25, 33, 49, 65, 97, 129, 193, 257, 385, 513, 769, 1025,
+      1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577 };
+  /** the extra bits of the distance symbols 0..29 */
+  static final int[] DIST_EXTRA = { 0, 0, 0, 0, 1, 1, 2, 2,
+      3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12,
+      12, 13, 13 };
+  /** the order of the code length code lengths */
+  static final int[] CODE_LENGTH_ORDER = { 16, 17, 18, 0, 8,
+      7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15 };
+
+  /** the input data */
+  private byte[] m_in;
+  /** the index of the next byte to load into the bit buffer */
+  private int m_pos;
+  /** the end of the input data */
+  private int m_end;
+  /** the bit buffer */
+  private long m_bits;
+  /** the number of valid bits in the bit buffer */
+  private int m_count;
+
+  /** the literal/length table of the current block */
+  private final int[] m_litTable;
+  /** the distance table of the current block */
+  private final int[] m_distTable;
+  /** the code lengths of a dynamic block */
+  private final int[] m_lengths;
+
+  /**
+   * the index of the bit holding the BFINAL flag of the last
+   * block of the most recently decoded stream
+   */
+  private long m_lastBlock;
+  /** the index of the bit after the most recently decoded stream */
+  private long m_endBit;
+
+  /** create */
+  _Inflater() {
+    super();
+    this.m_litTable = new int[_Inflater.TABLE_SIZE];
+    this.m_distTable = new int[_Inflater.TABLE_SIZE];
+    this.m_lengths = new int[286 + 30];
+  }
+
+  /**
+   * Reverse the lowest bits of a code, since Huffman codes are
+   * stored starting with their most significant bit.
+   *
+   * @param code
+   *          the code
+   * @param length
+   *          the length of the code
+   * @return the reversed code
+   */
+  private static final int __reverse(final int code,
+      final int length) {
+    return (Integer.reverse(code) >>> (32 - length));
+  }
+
+  /**
+   * Build a lookup table for a canonical Huffman code. A table
+   * entry is either {@code (symbol << 16) | length} or a link
+   * {@code (offset << 16) | LINK | bits} to a second-level table
+   * at {@code offset} indexed by the next {@code bits} bits. An
+   * entry of {@code 0} marks an invalid code.
+   *
+   * @param lengths
+   *          the code lengths
+   * @param offset
+   *          the index of the length of the first symbol
+   * @param count
+   *          the number of symbols
+   * @param table
+   *          the table to fill
+   * @param single
+   *          may the code be incomplete if it has only a single
+   *          code of length 1? zlib allows this for
+   *          literal/length and distance codes
+   * @return {@code true} if the code is valid, {@code false} if
+   *         it is over-subscribed or incomplete
+   */
+  private static final boolean __build(final int[] lengths,
+      final int offset, final int count, final int[] table,
+      final boolean single) {
+    final int[] counts, next;
+    int length, maxLength, left, code, reversed, entry, base,
+        subBits, free;
+
+    counts = new int[_Inflater.MAX_BITS + 1];
+    maxLength = 0;
+    for (int i = 0; i < count; i++) {
+      length = lengths[offset + i];
+      counts[length]++;
+      if (length > maxLength) {
+        maxLength = length;
+      }
+    }
+
+    for (int i = 0; i < _Inflater.ROOT_SIZE; i++) {
+      table[i] = 0;
+    }
+    if (maxLength <= 0) {
+      return true; // no codes: every lookup will fail
+    }
+
+    left = 1;
+    for (int i = 1; i <= _Inflater.MAX_BITS; i++) {
+      left = ((left << 1) - counts[i]);
+      if (left < 0) {
+        return false; // over-subscribed
+      }
+    }
+    if ((left > 0) && ((!single) || (maxLength != 1))) {
+      return false; // incomplete
+    }
+
+    next = new int[_Inflater.MAX_BITS + 1];
+    code = 0;
+    counts[0] = 0;
+    for (int i = 1; i <= _Inflater.MAX_BITS; i++) {
+      code = ((code + counts[i - 1]) << 1);
+      next[i] = code;
+    }
+
+    subBits = (maxLength - _Inflater.ROOT_BITS);
+    free = _Inflater.ROOT_SIZE;
+    for (int symbol = 0; symbol < count; symbol++) {
+      length = lengths[offset + symbol];
+      if (length <= 0) {
+        continue;
+      }
+      reversed = _Inflater.__reverse(next[length]++, length);
+      entry = ((symbol << 16) | length);
+
+      if (length <= _Inflater.ROOT_BITS) {
+        for (int i = reversed; i < _Inflater.ROOT_SIZE; i +=
+            (1 << length)) {
+          table[i] = entry;
+        }
+      } else {
+        base = table[reversed & _Inflater.ROOT_MASK];
+        if ((base & _Inflater.LINK) == 0) {
+          base = ((free << 16) | _Inflater.LINK | subBits);
+          table[reversed & _Inflater.ROOT_MASK] = base;
+          for (int i = (1 << subBits); (--i) >= 0;) {
+            table[free + i] = 0;
+          }
+          free += (1 << subBits);
+        }
+        base >>>= 16;
+        for (int i = (reversed >>> _Inflater.ROOT_BITS); i < (1
+            << subBits); i += (1 << (length - _Inflater.ROOT_BITS))) {
+          table[base + i] = entry;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Fill the bit buffer. Beyond the end of the input, zero bytes
+   * are loaded, so that the buffer always holds at least 57 bits.
+   * Whether the stream really ended within the input is checked
+   * once it has been decoded.
+   */
+  private final void __refill() {
+    final byte[] in;
+    int pos, count;
+    long bits;
+
+    in = this.m_in;
+    pos = this.m_pos;
+    count = this.m_count;
+    bits = this.m_bits;
+    for (; count <= 56; count += 8) {
+      if (pos < this.m_end) {
+        bits |= (((long) (in[pos] & 0xff)) << count);
+      }
+      pos++;
+    }
+    this.m_pos = pos;
+    this.m_count = count;
+    this.m_bits = bits;
+  }
+
+  /**
+   * Read some bits.
+   *
+   * @param count
+   *          the number of bits, at most 16
+   * @return the bits
+   */
+  private final int __bits(final int count) {
+    final int res;
+
+    if (this.m_count < count) {
+      this.__refill();
+    }
+    res = (((int) (this.m_bits)) & ((1 << count) - 1));
+    this.m_bits >>>= count;
+    this.m_count -= count;
+    return res;
+  }
+
+  /**
+   * Decode a Huffman-coded symbol.
+   *
+   * @param table
+   *          the lookup table
+   * @return the symbol, or {@code -1} if the code is invalid
+   */
+  private final int __decode(final int[] table) {
+    final int length;
+    int entry;
+
+    if (this.m_count < _Inflater.MAX_BITS) {
+      this.__refill();
+    }
+    entry = table[((int) (this.m_bits)) & _Inflater.ROOT_MASK];
+    if ((entry & _Inflater.LINK) != 0) {
+      entry = table[(entry >>> 16)
+          + (((int) (this.m_bits >>> _Inflater.ROOT_BITS))
+              & ((1 << (entry & 0xf)) - 1))];
+    }
+    length = (entry & 0xf);
+    if (length <= 0) {
+      return (-1);
+    }
+    this.m_bits >>>= length;
+    this.m_count -= length;
+    return (entry >>> 16);
+  }
+
+  /**
+   * Get the number of bits consumed so far.
+   *
+   * @return the number of bits consumed so far
+   */
+  private final long __consumed() {
+    return ((((long) (this.m_pos)) << 3) - this.m_count);
+  }
+
+  /**
+   * Read the code lengths of a dynamic block and build its
+   * tables.
+   *
+   * @return {@code true} if the tables are valid, {@code false}
+   *         otherwise
+   */
+  private final boolean __readDynamic() {
+    final int[] lengths;
+    final int litCount, distCount, total, codeCount;
+    int index, symbol, previous, repeat;
+
+    litCount = (this.__bits(5) + 257);
+    distCount = (this.__bits(5) + 1);
+    codeCount = (this.__bits(4) + 4);
+    if ((litCount > 286) || (distCount > 30)) {
+      return false;
+    }
+
+    lengths = this.m_lengths;
+    for (index = 0; index < 19; index++) {
+      lengths[_Inflater.CODE_LENGTH_ORDER[index]] =
+          ((index < codeCount) ? this.__bits(3) : 0);
+    }
+    // the distance table is used to decode the code lengths
+    if (!(_Inflater.__build(lengths, 0, 19, this.m_distTable,
+        false))) {
+      return false;
+    }
+
+    total = (litCount + distCount);
+    index = 0;
+    while (index < total) {
+      symbol = this.__decode(this.m_distTable);
+      if (symbol < 0) {
+        return false;
+      }
+      if (symbol < 16) {
+        lengths[index++] = symbol;
+        continue;
+      }
+      if (symbol == 16) {
+        if (index <= 0) {
+          return false;
+        }
+        previous = lengths[index - 1];
+        repeat = (3 + this.__bits(2));
+      } else {
+        previous = 0;
+        repeat = ((symbol == 17) ? (3 + this.__bits(3))
+            : (11 + this.__bits(7)));
+      }
+      if ((index + repeat) > total) {
+        return false;
+      }
+      while ((--repeat) >= 0) {
+        lengths[index++] = previous;
+      }
+    }
+
+    if (lengths[256] <= 0) {
+      return false; // no end-of-block code
+    }
+    return (_Inflater.__build(lengths, 0, litCount,
+        this.m_litTable, true)
+        && _Inflater.__build(lengths, litCount, distCount,
+            this.m_distTable, true));
+  }
+
+  /**
+   * Decode a DEFLATE stream and compare its contents with the
+   * expected data. The bytes of {@code original} before
+   * {@code from} act as preset dictionary.
+   *
+   * @param in
+   *          the input data
+   * @param start
+   *          the index of the first byte of the DEFLATE stream
+   * @param end
+   *          the end of the input data
+   * @param original
+   *          the data the stream should decode to
+   * @param from
+   *          the index of the first byte the stream should
+   *          decode to
+   * @param to
+   *          the end index of the bytes the stream should decode
+   *          to
+   * @param stats
+   *          the statistics to update, or {@code null}
+   * @return the index of the first byte after the stream, or
+   *         {@code -1} if the stream is invalid or does not
+   *         decode to {@code original[from..to)}
+   */
+  final int _inflate(final byte[] in, final int start,
+      final int end, final byte[] original, final int from,
+      final int to, final _DeflateStats stats) {
+    final int[] fixedLit, fixedDist;
+    int[] lit, dist;
+    int out, type, symbol, length, distance, pos;
+    boolean last;
+    long headerStart, blockStart;
+
+    this.m_in = in;
+    this.m_pos = start;
+    this.m_end = end;
+    this.m_bits = 0L;
+    this.m_count = 0;
+
+    fixedLit = __Fixed.LIT;
+    fixedDist = __Fixed.DIST;
+    out = from;
+
+    try {
+      do {
+        blockStart = this.__consumed();
+        last = (this.__bits(1) != 0);
+        type = this.__bits(2);
+        if (stats != null) {
+          stats.m_blocks++;
+        }
+
+        if (type == 0) { // stored block
+          this.__bits(this.m_count & 7);
+          length = this.__bits(16);
+          if ((length ^ 0xffff) != this.__bits(16)) {
+            return (-1);
+          }
+          pos = (this.m_pos - (this.m_count >>> 3));
+          if (((pos + length) > end) || ((out + length) > to)) {
+            return (-1);
+          }
+          for (int i = length; (--i) >= 0;) {
+            if (in[pos++] != original[out++]) {
+              return (-1);
+            }
+          }
+          this.m_pos = pos;
+          this.m_bits = 0L;
+          this.m_count = 0;
+          if (stats != null) {
+            stats.m_storedBlocks++;
+            stats.m_storedBytes += length;
+          }
+          continue;
+        }
+
+        if (type == 1) {
+          lit = fixedLit;
+          dist = fixedDist;
+          if (stats != null) {
+            stats.m_fixedBlocks++;
+          }
+        } else {
+          if (type != 2) {
+            return (-1);
+          }
+          headerStart = this.__consumed();
+          if (!(this.__readDynamic())) {
+            return (-1);
+          }
+          lit = this.m_litTable;
+          dist = this.m_distTable;
+          if (stats != null) {
+            stats.m_dynamicBlocks++;
+            stats.m_headerBits += (this.__consumed() - headerStart);
+          }
+        }
+
+        for (;;) {
+          symbol = this.__decode(lit);
+          if (symbol < 256) {
+            if ((symbol < 0) || (out >= to)
+                || (original[out] != ((byte) symbol))) {
+              return (-1);
+            }
+            out++;
+            if (stats != null) {
+              stats.m_literals++;
+            }
+            continue;
+          }
+          if (symbol == 256) {
+            break;
+          }
+
+          symbol -= 257;
+          if (symbol >= 29) {
+            return (-1);
+          }
+          length = (_Inflater.LENGTH_BASE[symbol]
+              + this.__bits(_Inflater.LENGTH_EXTRA[symbol]));
+          symbol = this.__decode(dist);
+          if ((symbol < 0) || (symbol >= 30)) {
+            return (-1);
+          }
+          distance = (_Inflater.DIST_BASE[symbol]
+              + this.__bits(_Inflater.DIST_EXTRA[symbol]));
+          if ((distance > out) || ((out + length) > to)) {
+            return (-1);
+          }
+          for (int i = length; (--i) >= 0;) {
+            if (original[out] != original[out - distance]) {
+              return (-1);
+            }
+            out++;
+          }
+          if (stats != null) {
+            stats.m_matches++;
+            stats.m_matchBytes += length;
+          }
+        }
+      } while (!last);
+    } finally {
+      this.m_in = null;
+    }
+
+    if (out != to) {
+      return (-1);
+    }
+    this.m_lastBlock = blockStart;
+    this.m_endBit = this.__consumed();
+    pos = (this.m_pos - (this.m_count >>> 3));
+    return ((pos <= end) ? pos : (-1));
+  }
+
+  /**
+   * Get the index of the bit holding the BFINAL flag of the last
+   * block of the stream decoded by the most recent successful call
+   * to {@link #_inflate}, counted from the start of the input
+   * array.
+   *
+   * @return the bit index
+   */
+  final long _lastBlock() {
+    return this.m_lastBlock;
+  }
+
+  /**
+   * Get the index of the bit following the stream decoded by the
+   * most recent successful call to {@link #_inflate}, counted from
+   * the start of the input array.
+   *
+   * @return the bit index
+   */
+  final long _endBit() {
+    return this.m_endBit;
+  }
+
+  /** the tables for the fixed Huffman codes */
+  private static final class __Fixed {
+
+    /** the fixed literal/length table */
+    static final int[] LIT = new int[_Inflater.TABLE_SIZE];
+    /** the fixed distance table */
+    static final int[] DIST = new int[_Inflater.TABLE_SIZE];
+
+    static {
+      final int[] lengths = new int[288];
+      int i;
+
+      for (i = 0; i < 144; i++) {
+        lengths[i] = 8;
+      }
+      for (; i < 256; i++) {
+        lengths[i] = 9;
+      }
+      for (; i < 280; i++) {
+        lengths[i] = 7;
+      }
+      for (; i < 288; i++) {
+        lengths[i] = 8;
+      }
+      _Inflater.__build(lengths, 0, 288, __Fixed.LIT, false);
+
+      for (i = 0; i < 32; i++) {
+        lengths[i] = 5;
+      }
+      _Inflater.__build(lengths, 0, 32, __Fixed.DIST, false);
+    }
+  }
+}
@@ -0,0 +1,372 @@
+package thomasWeise.ultraGzip;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+
+import thomasWeise.tools.EProcessStream;
+import thomasWeise.tools.ExternalProcess;
+import thomasWeise.tools.ExternalProcessBuilder;
+
+/**
+ * The data to be compressed. The data is either held in a byte
+ * array or, if it is too large for an array, in read-only
+ * memory-mapped segments of a file, so that inputs larger than
+ * 2&nbsp;GiB can be processed without copying them to the heap.
+ * If the data stems from a file, external tools read it directly
+ * from that file.
+ */
+final class _Input {
+
+  /** the largest data that can be kept in an array */
+  private static final long MAX_ARRAY = (Integer.MAX_VALUE - 8);
+
+  /** the size of a mapped segment */
+  private static final int SEGMENT_SIZE = (1 << 30);
+
+  /** the size of the chunks copied from mapped segments */
+  private static final int CHUNK_SIZE = 65536;
+
+  /** the size of the data */
+  final long m_size;
+
+  /** the file holding the data, or {@code null} */
+  final Path m_path;
+
+  /** the data, or {@code null} if the data is mapped */
+  private final byte[] m_array;
+
+  /** the mapped segments, or {@code null} */
+  private final ByteBuffer[] m_segments;
+
+  /** the size of each mapped segment except the last one */
+  private final int m_segmentSize;
+
+  /**
+   * create the input
+   *
+   * @param array
+   *          the data, or {@code null} if the data is mapped
+   * @param segments
+   *          the mapped segments, or {@code null}
+   * @param segmentSize
+   *          the size of each mapped segment except the last one
+   * @param size
+   *          the size of the data
+   * @param path
+   *          the file holding the data, or {@code null}
+   */
+  private _Input(final byte[] array, final ByteBuffer[] segments,
+      final int segmentSize, final long size, final Path path) {
+    super();
+    this.m_array = array;
+    this.m_segments = segments;
+    this.m_segmentSize = segmentSize;
+    this.m_size = size;
+    this.m_path = path;
+  }
+
+  /**
+   * create an input from an array
+   *
+   * @param data
+   *          the data
+   */
+  _Input(final byte[] data) {
+    this(data, null, 0, data.length, null);
+  }
+
+  /**
+   * Load the data from a file. If it fits into an array, it is
+   * read into an array of exactly the right size, otherwise it is
+   * mapped into memory.
+   *
+   * @param path
+   *          the file
+   * @return the input
+   * @throws IOException
+   *           if i/o fails
+   */
+  static final _Input _load(final Path path) throws IOException {
+    return _Input._load(path, _Input.MAX_ARRAY, _Input.SEGMENT_SIZE);
+  }
+
+  /**
+   * Load the data from a file, with explicit limits.
+   *
+   * @param path
+   *          the file
+   * @param maxArray
+   *          the largest data to read into an array
+   * @param segmentSize
+   *          the size of the mapped segments
+   * @return the input
+   * @throws IOException
+   *           if i/o fails
+   */
+  static final _Input _load(final Path path, final long maxArray,
+      final int segmentSize) throws IOException {
+    final ByteBuffer[] segments;
+    final long size;
+    long start;
+
+    try (final FileChannel channel =
+        FileChannel.open(path, StandardOpenOption.READ)) {
+      size = channel.size();
+      if (size <= 0L) {
+        throw new IllegalArgumentException(
+            "The data to be gzip-compressed cannot be zero-lengthed, but file " //$NON-NLS-1$
+                + path + " is empty.");//$NON-NLS-1$
+      }
+      if (size <= maxArray) {
+        return new _Input(Files.readAllBytes(path), null, 0, size,
+            path);
+      }
+
+      segments = new ByteBuffer[(int) ((size + (segmentSize - 1))
+          / segmentSize)];
+      start = 0L;
+      for (int i = 0; i < segments.length; i++) {
+        segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+            start, Math.min(segmentSize, size - start));
+        start += segmentSize;
+      }
+    }
+    return new _Input(null, segments, segmentSize, size, path);
+  }
+
+  /**
+   * Get the data as array.
+   *
+   * @return the data, or {@code null} if it is mapped
+   */
+  final byte[] _array() {
+    return this.m_array;
+  }
+
+  /**
+   * Get a read-only view of the part of a mapped segment starting
+   * at the given index.
+   *
+   * @param index
+   *          the index
+   * @return the view, whose position corresponds to {@code index}
+   */
+  private final ByteBuffer __view(final long index) {
+    final ByteBuffer view;
+
+    view = this.m_segments[(int) (index / this.m_segmentSize)]
+        .duplicate();
+    view.position((int) (index % this.m_segmentSize));
+    return view;
+  }
+
+  /**
+   * Write a part of the data to a stream.
+   *
+   * @param os
+   *          the stream
+   * @param start
+   *          the index of the first byte to write
+   * @param length
+   *          the number of bytes to write
+   * @throws IOException
+   *           if i/o fails
+   */
+  final void _write(final OutputStream os, final long start,
+      final long length) throws IOException {
+    final byte[] buffer;
+    ByteBuffer view;
+    long index, end;
+    int chunk;
+
+    if (this.m_array != null) {
+      os.write(this.m_array, ((int) start), ((int) length));
+      return;
+    }
+
+    buffer = new byte[(int) Math.min(length, _Input.CHUNK_SIZE)];
+    end = (start + length);
+    for (index = start; index < end; index += chunk) {
+      view = this.__view(index);
+      chunk = ((int) Math.min(buffer.length,
+          Math.min(view.remaining(), end - index)));
+      view.get(buffer, 0, chunk);
+      os.write(buffer, 0, chunk);
+    }
+  }
+
+  /**
+   * Copy a part of the data into a new array.
+   *
+   * @param start
+   *          the index of the first byte to copy
+   * @param length
+   *          the number of bytes to copy
+   * @return the array
+   */
+  final byte[] _copy(final long start, final int length) {
+    final byte[] result;
+    ByteBuffer view;
+    int index, chunk;
+
+    if (this.m_array != null) {
+      return Arrays.copyOfRange(this.m_array, ((int) start),
+          ((int) start) + length);
+    }
+
+    result = new byte[length];
+    for (index = 0; index < length; index += chunk) {
+      view = this.__view(start + index);
+      chunk = Math.min(view.remaining(), length - index);
+      view.get(result, index, chunk);
+    }
+    return result;
+  }
+
+  /**
+   * Write all the data to a stream.
+   *
+   * @param os
+   *          the stream
+   * @throws IOException
+   *           if i/o fails
+   */
+  final void _write(final OutputStream os) throws IOException {
+    this._write(os, 0L, this.m_size);
+  }
+
+  /**
+   * Check whether a chunk of bytes equals a part of the data.
+   *
+   * @param offset
+   *          the index in the data where the chunk should start
+   * @param chunk
+   *          the chunk
+   * @param length
+   *          the number of valid bytes in the chunk
+   * @return {@code true} if the chunk matches, {@code false}
+   *         otherwise
+   */
+  final boolean _matches(final long offset, final byte[] chunk,
+      final int length) {
+    ByteBuffer view;
+    long index;
+    int i, j;
+
+    if ((this.m_size - offset) < length) {
+      return false;
+    }
+
+    if (this.m_array != null) {
+      j = ((int) offset);
+      for (i = 0; i < length; i++) {
+        if (chunk[i] != this.m_array[j++]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    index = offset;
+    view = null;
+    for (i = 0; i < length; i++) {
+      if ((view == null) || (!(view.hasRemaining()))) {
+        view = this.__view(index);
+      }
+      if (chunk[i] != view.get()) {
+        return false;
+      }
+      index++;
+    }
+    return true;
+  }
+
+  /**
+   * Compute the CRC-32 of the data.
+   *
+   * @return the CRC-32
+   */
+  final int _crc() {
+    final CRC32 crc;
+
+    crc = new CRC32();
+    if (this.m_array != null) {
+      crc.update(this.m_array);
+    } else {
+      for (final ByteBuffer segment : this.m_segments) {
+        crc.update(segment.duplicate());
+      }
+    }
+    return ((int) (crc.getValue()));
+  }
+
+  /**
+   * Compute the Adler-32 checksum of the data.
+   *
+   * @return the Adler-32 checksum
+   */
+  final int _adler() {
+    final Adler32 adler;
+
+    adler = new Adler32();
+    if (this.m_array != null) {
+      adler.update(this.m_array);
+    } else {
+      for (final ByteBuffer segment : this.m_segments) {
+        adler.update(segment.duplicate());
+      }
+    }
+    return ((int) (adler.getValue()));
+  }
+
+  /**
+   * Set up the stdin of an external process which should read the
+   * data: if the data stems from a file, the process reads it
+   * directly from there.
+   *
+   * @param epb
+   *          the process builder
+   */
+  final void _setStdIn(final ExternalProcessBuilder epb) {
+    if (this.m_path != null) {
+      epb.readStdInFrom(this.m_path);
+    } else {
+      epb.setStdIn(EProcessStream.AS_STREAM);
+    }
+  }
+
+  /**
+   * Write the data to the stdin of an external process set up via
+   * {@link #_setStdIn(ExternalProcessBuilder)}, if it does not read
+   * the data from a file. The data is written by a separate
+   * daemon thread, so that the caller can monitor the output of
+   * the process while its input is still being fed. If the
+   * process is killed early, the writing thread just stops.
+   *
+   * @param ep
+   *          the process
+   */
+  final void _writeStdIn(final ExternalProcess ep) {
+    final Thread pump;
+
+    if (this.m_path == null) {
+      pump = new Thread(() -> {
+        try (final OutputStream os = ep.getStdIn()) {
+          this._write(os);
+        } catch (@SuppressWarnings("unused") final IOException ignore) {
+          // the process has been killed before reading all data
+        }
+      }, "stdin pump"); //$NON-NLS-1$
+      pump.setDaemon(true);
+      pump.start();
+    }
+  }
+}
@@ -63,8 +63,12 @@ final class _JZLibGZip implements Runnable {
         buffers.getBufferedOutputStream()) {
       try (final GZIPOutputStream gzo =
           new __JZLibGZIPOutputStream(bos,
-              this.m_owner.m_data.length, this.m_quality)) {
-        gzo.write(_JZLibGZip.this.m_owner.m_data);
+              (int) (Math.min(this.m_owner.m_input.m_size,
+                  UltraGzipJob.CHUNK_SIZE)),
+              this.m_quality)) {
+        if (!(_JZLibGZip.this.m_owner._feed(gzo, bos))) {
+          return; // the result would not be good enough
+        }
       }
 
       compressed = bos.toByteArray();
@@ -6,7 +6,11 @@ import java.util.zip.GZIPOutputStream;
 
 import thomasWeise.tools.ByteBuffers;
 
-/** The internal class for Java's GZIP jobs. */
+/**
+ * The internal class for Java's GZIP jobs. Since Java's GZIP
+ * stream writes a raw DEFLATE stream, it can be primed with the
+ * preset dictionary of the job, if any.
+ */
 final class _JavaGZip implements Runnable {
 
   /** the source name */
@@ -63,8 +67,12 @@ final class _JavaGZip implements Runnable {
         buffers.getBufferedOutputStream()) {
       try (final GZIPOutputStream gzo =
           new __JavaGZIPOutputStream(bos,
-              this.m_owner.m_data.length, this.m_quality)) {
-        gzo.write(_JavaGZip.this.m_owner.m_data);
+              (int) (Math.min(this.m_owner.m_input.m_size,
+                  UltraGzipJob.CHUNK_SIZE)),
+              this.m_quality, this.m_owner.m_dictionary)) {
+        if (!(_JavaGZip.this.m_owner._feed(gzo, bos))) {
+          return; // the result would not be good enough
+        }
       }
 
       compressed = bos.toByteArray();
@@ -96,13 +104,19 @@ final class _JavaGZip implements Runnable {
      *          the size
      * @param level
      *          the level to use
+     * @param dictionary
+     *          the preset dictionary, or {@code null}
      * @throws IOException
      *           if something goes wrong
      */
     __JavaGZIPOutputStream(final ByteArrayOutputStream _out,
-        final int size, final int level) throws IOException {
+        final int size, final int level, final byte[] dictionary)
+        throws IOException {
       super(_out, size, false);
       this.def.setLevel(level);
+      if (dictionary != null) {
+        this.def.setDictionary(dictionary);
+      }
     }
   }
 }
@@ -0,0 +1,170 @@
+package thomasWeise.ultraGzip;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * A concurrent leaderboard of the smallest distinct candidates of
+ * a job. Two candidates are distinct if their DEFLATE payloads
+ * differ: of several candidates which only differ in their
+ * headers, only the smallest one is kept. The leaderboard holds
+ * at most a fixed number of entries, the largest ones are
+ * dropped. Every entry holds a reference to its candidate, which
+ * is released as soon as the entry is dropped. In deterministic
+ * mode, the entries are ordered by
+ * {@link _Candidate#DETERMINISTIC} and candidates as large as the
+ * largest entry are still admitted, so the leaderboard ends up
+ * holding the same entries regardless of the order in which the
+ * candidates are offered.
+ */
+final class _Leaderboard {
+
+  /** the maximum number of entries */
+  private final int m_capacity;
+
+  /** is the leaderboard deterministic? */
+  private final boolean m_deterministic;
+
+  /** the order of the entries */
+  private final Comparator<_Candidate> m_order;
+
+  /** the entries, smallest first */
+  private final ConcurrentSkipListSet<_Candidate> m_entries;
+
+  /** the entries by the digests of their payloads */
+  private final ConcurrentHashMap<ByteBuffer, _Candidate> m_byDigest;
+
+  /**
+   * create the leaderboard
+   *
+   * @param capacity
+   *          the maximum number of entries
+   * @param deterministic
+   *          should the leaderboard be deterministic?
+   */
+  _Leaderboard(final int capacity, final boolean deterministic) {
+    super();
+    if (capacity <= 0) {
+      throw new IllegalArgumentException(
+          "Leaderboard capacity must be positive, but is " //$NON-NLS-1$
+              + capacity);
+    }
+    this.m_capacity = capacity;
+    this.m_deterministic = deterministic;
+    this.m_order = (deterministic ? _Candidate.DETERMINISTIC
+        : _Candidate.BY_SIZE);
+    this.m_entries = new ConcurrentSkipListSet<>(this.m_order);
+    this.m_byDigest = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Get the smallest candidate.
+   *
+   * @return the smallest candidate, or {@code null} if there is
+   *         none
+   */
+  final _Candidate _best() {
+    final Iterator<_Candidate> iterator;
+
+    iterator = this.m_entries.iterator();
+    return (iterator.hasNext() ? iterator.next() : null);
+  }
+
+  /**
+   * Check whether a candidate of the given size might enter the
+   * leaderboard.
+   *
+   * @param size
+   *          the size
+   * @return {@code true} if a candidate of that size may enter
+   *         the leaderboard, {@code false} if it is certainly too
+   *         large
+   */
+  final boolean _accepts(final long size) {
+    final _Candidate last;
+
+    if (this.m_entries.size() < this.m_capacity) {
+      return true;
+    }
+    last = this.m_entries.descendingSet().iterator().next();
+    return ((last.m_size > size)
+        || (this.m_deterministic && (last.m_size == size)));
+  }
+
+  /**
+   * Offer a candidate to the leaderboard. The leaderboard takes
+   * over the reference held by the caller: if the candidate does
+   * not enter the leaderboard, it is released immediately.
+   *
+   * @param candidate
+   *          the candidate
+   * @return {@code true} if the candidate now is the smallest
+   *         entry, {@code false} otherwise
+   */
+  final boolean _offer(final _Candidate candidate) {
+    final ByteBuffer digest;
+    _Candidate last;
+
+    if (!(this._accepts(candidate.m_size))) {
+      candidate._release();
+      return false;
+    }
+
+    digest = candidate.m_digest;
+    if (digest == null) {
+      this.m_entries.add(candidate);
+    } else {
+      // The digest map and the entry set are updated together while
+      // the map locks the digest, so no two entries share a digest.
+      if (this.m_byDigest.compute(digest, (key, old) -> {
+        if (old != null) {
+          if (this.m_order.compare(old, candidate) <= 0) {
+            return old; // same payload, at most as large header
+          }
+          if (this.m_entries.remove(old)) {
+            old._release();
+          }
+        }
+        this.m_entries.add(candidate);
+        return candidate;
+      }) != candidate) {
+        candidate._release();
+        return false;
+      }
+    }
+
+    while (this.m_entries.size() > this.m_capacity) {
+      last = this.m_entries.pollLast();
+      if (last != null) {
+        if (last.m_digest != null) {
+          this.m_byDigest.remove(last.m_digest, last);
+        }
+        last._release();
+      }
+    }
+    return (this._best() == candidate);
+  }
+
+  /** Remove and release all entries. */
+  final void _clear() {
+    _Candidate candidate;
+
+    while ((candidate = this.m_entries.pollFirst()) != null) {
+      candidate._release();
+    }
+    this.m_byDigest.clear();
+  }
+
+  /**
+   * Get a snapshot of the entries.
+   *
+   * @return the entries, smallest first
+   */
+  final ArrayList<_Candidate> _candidates() {
+    return new ArrayList<>(this.m_entries);
+  }
+}
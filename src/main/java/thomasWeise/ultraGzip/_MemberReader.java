@@ -0,0 +1,276 @@
+package thomasWeise.ultraGzip;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A reader which streams through the members of a gzip archive
+ * one by one. For each member, both its raw bytes and the data it
+ * decompresses to are provided, so that it can either be
+ * re-optimized or copied unchanged.
+ */
+final class _MemberReader {
+
+  /** the stream to read from */
+  private final InputStream m_in;
+
+  /** the inflater */
+  private final Inflater m_inflater;
+
+  /** the input buffer */
+  private final byte[] m_buffer;
+
+  /** the index of the next unread byte in the buffer */
+  private int m_pos;
+
+  /** the end of the valid bytes in the buffer */
+  private int m_end;
+
+  /** the raw bytes of the current member */
+  private final ByteArrayOutputStream m_raw;
+
+  /** the decompressed data of the current member */
+  private final ByteArrayOutputStream m_data;
+
+  /** the digest computed over the decompressed data */
+  private final MessageDigest m_digest;
+
+  /** the digest of the data of the current member */
+  private String m_hash;
+
+  /**
+   * create
+   *
+   * @param in
+   *          the stream to read from
+   */
+  _MemberReader(final InputStream in) {
+    super();
+    this.m_in = in;
+    this.m_inflater = new Inflater(true);
+    this.m_buffer = new byte[65536];
+    this.m_raw = new ByteArrayOutputStream();
+    this.m_data = new ByteArrayOutputStream();
+    try {
+      this.m_digest = MessageDigest.getInstance("SHA-256"); //$NON-NLS-1$
+    } catch (final NoSuchAlgorithmException error) {
+      throw new IllegalStateException(error);
+    }
+  }
+
+  /**
+   * Check whether the given bytes start with the gzip magic
+   * number.
+   *
+   * @param data
+   *          the bytes
+   * @param length
+   *          the number of valid bytes
+   * @return {@code true} if they do, {@code false} otherwise
+   */
+  static final boolean _isGZip(final byte[] data,
+      final int length) {
+    return ((length >= 2)
+        && ((data[0] & 0xff) == _GZipFormat.ID1)
+        && ((data[1] & 0xff) == _GZipFormat.ID2));
+  }
+
+  /**
+   * Make sure that there are unread bytes in the buffer.
+   *
+   * @return {@code true} if there are, {@code false} if the end of
+   *         the stream has been reached
+   * @throws IOException
+   *           if i/o fails
+   */
+  private final boolean __fill() throws IOException {
+    int read;
+
+    while (this.m_pos >= this.m_end) {
+      read = this.m_in.read(this.m_buffer);
+      if (read < 0) {
+        return false;
+      }
+      this.m_pos = 0;
+      this.m_end = read;
+    }
+    return true;
+  }
+
+  /**
+   * Read one byte of the current member.
+   *
+   * @return the byte
+   * @throws IOException
+   *           if i/o fails or the stream ends
+   */
+  private final int __read() throws IOException {
+    final int result;
+
+    if (!(this.__fill())) {
+      throw new EOFException("Truncated gzip member."); //$NON-NLS-1$
+    }
+    result = (this.m_buffer[this.m_pos++] & 0xff);
+    this.m_raw.write(result);
+    return result;
+  }
+
+  /**
+   * Skip a zero-terminated string in the header.
+   *
+   * @throws IOException
+   *           if i/o fails or the stream ends
+   */
+  private final void __skipString() throws IOException {
+    while (this.__read() != 0) {
+      // skip
+    }
+  }
+
+  /**
+   * Read the next member.
+   *
+   * @return {@code true} if a member was read, {@code false} if the
+   *         end of the archive has been reached
+   * @throws IOException
+   *           if i/o fails or the archive is corrupted
+   */
+  final boolean _next() throws IOException {
+    final Inflater inflater;
+    final CRC32 crc;
+    final byte[] output, hash;
+    final StringBuilder text;
+    int flags, length, start, read, value;
+
+    this.m_raw.reset();
+    this.m_data.reset();
+    if (!(this.__fill())) {
+      return false;
+    }
+
+    // the header
+    if ((this.__read() != _GZipFormat.ID1)
+        || (this.__read() != _GZipFormat.ID2)
+        || (this.__read() != _GZipFormat.CM_DEFLATE)) {
+      throw new IOException("Invalid gzip member header."); //$NON-NLS-1$
+    }
+    flags = this.__read();
+    for (int i = 6; (--i) >= 0;) {
+      this.__read(); // mtime, xfl, os
+    }
+    if ((flags & _GZipFormat.FEXTRA) != 0) {
+      length = (this.__read() | (this.__read() << 8));
+      while ((--length) >= 0) {
+        this.__read();
+      }
+    }
+    if ((flags & _GZipFormat.FNAME) != 0) {
+      this.__skipString();
+    }
+    if ((flags & _GZipFormat.FCOMMENT) != 0) {
+      this.__skipString();
+    }
+    if ((flags & _GZipFormat.FHCRC) != 0) {
+      this.__read();
+      this.__read();
+    }
+
+    // the DEFLATE payload
+    inflater = this.m_inflater;
+    inflater.reset();
+    crc = new CRC32();
+    this.m_digest.reset();
+    output = new byte[65536];
+    start = this.m_pos;
+    this.m_pos = this.m_end;
+    inflater.setInput(this.m_buffer, start, this.m_end - start);
+    try {
+      while (!(inflater.finished())) {
+        if (inflater.needsInput()) {
+          // all bytes handed to the inflater have been consumed
+          this.m_raw.write(this.m_buffer, start,
+              this.m_end - start);
+          if (!(this.__fill())) {
+            throw new EOFException("Truncated gzip member."); //$NON-NLS-1$
+          }
+          start = this.m_pos;
+          this.m_pos = this.m_end;
+          inflater.setInput(this.m_buffer, start,
+              this.m_end - start);
+        }
+        read = inflater.inflate(output);
+        if ((read <= 0) && inflater.needsDictionary()) {
+          throw new IOException(
+              "Gzip member needs a dictionary."); //$NON-NLS-1$
+        }
+        crc.update(output, 0, read);
+        this.m_digest.update(output, 0, read);
+        this.m_data.write(output, 0, read);
+      }
+    } catch (final DataFormatException error) {
+      throw new IOException(error);
+    }
+    this.m_pos = (this.m_end - inflater.getRemaining());
+    this.m_raw.write(this.m_buffer, start, this.m_pos - start);
+
+    // the trailer
+    value = 0;
+    for (int i = 0; i < 32; i += 8) {
+      value |= (this.__read() << i);
+    }
+    if (value != ((int) (crc.getValue()))) {
+      throw new IOException("Gzip member has wrong CRC-32."); //$NON-NLS-1$
+    }
+    value = 0;
+    for (int i = 0; i < 32; i += 8) {
+      value |= (this.__read() << i);
+    }
+    if (value != this.m_data.size()) {
+      throw new IOException("Gzip member has wrong size."); //$NON-NLS-1$
+    }
+
+    hash = this.m_digest.digest();
+    text = new StringBuilder(hash.length << 1);
+    for (final byte b : hash) {
+      text.append(Character.forDigit((b >>> 4) & 0xf, 16));
+      text.append(Character.forDigit(b & 0xf, 16));
+    }
+    this.m_hash = text.toString();
+    return true;
+  }
+
+  /**
+   * Get the raw bytes of the current member.
+   *
+   * @return the raw bytes
+   */
+  final byte[] _member() {
+    return this.m_raw.toByteArray();
+  }
+
+  /**
+   * Get the SHA-256 digest of the decompressed data of the current
+   * member in hexadecimal notation.
+   *
+   * @return the digest
+   */
+  final String _digest() {
+    return this.m_hash;
+  }
+
+  /**
+   * Get the decompressed data of the current member.
+   *
+   * @return the data
+   */
+  final byte[] _data() {
+    return this.m_data.toByteArray();
+  }
+}
@@ -0,0 +1,151 @@
+package thomasWeise.ultraGzip;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+import thomasWeise.tools.Execute;
+
+/**
+ * Compress data into a sequence of independently decodable gzip
+ * members in the BGZF format. The data is split into blocks of at
+ * most {@link #MAX_MEMBER_SIZE} bytes, each of which is optimized
+ * by a job of its own, all of them in parallel. The header of
+ * each resulting member is then replaced by the BGZF header,
+ * which carries the {@code BC} extra field holding the size of
+ * the member. Like {@code bgzip}, we limit the blocks such that
+ * even stored data fits into the 64&nbsp;KiB a member may span.
+ * The modification time of the job's header is put into the first
+ * member. The members are followed by the empty end-of-file
+ * member of BGZF. Alongside the archive, an index of the member
+ * offsets in the format of the {@code .gzi} files of
+ * {@code bgzip} is created.
+ */
+final class _Members {
+
+  /** the size of a BGZF member header */
+  private static final int BGZF_HEADER_SIZE = 18;
+
+  /** the largest member whose size fits into the BC field */
+  private static final int BGZF_MAX_SIZE = 65536;
+
+  /** the largest block of data per member, as in bgzip */
+  static final int MAX_MEMBER_SIZE = 0xff00;
+
+  /** the empty end-of-file member of BGZF */
+  private static final byte[] EOF = { 0x1f, (byte) 0x8b, 8, 4, 0,
+      0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0, 0x1b, 0, 3, 0,
+      0, 0, 0, 0, 0, 0, 0, 0 };
+
+  /** the archive */
+  final byte[] m_archive;
+
+  /** the index */
+  final byte[] m_index;
+
+  /**
+   * compress the data of a job into members
+   *
+   * @param owner
+   *          the owning job
+   */
+  _Members(final UltraGzipJob owner) {
+    super();
+
+    final _Input input;
+    final int count;
+    final Future<?>[] futures;
+    final ByteArrayOutputStream archive, index;
+    final CRC32 crc;
+    byte[] data, block;
+    long start, end;
+    int header, size;
+
+    input = owner.m_input;
+    count = ((int) ((input.m_size + (owner.m_memberSize - 1L))
+        / owner.m_memberSize));
+
+    // compress all members in parallel
+    futures = new Future<?>[count];
+    for (int i = 0; i < count; i++) {
+      start = (((long) i) * owner.m_memberSize);
+      end = Math.min(input.m_size, start + owner.m_memberSize);
+      futures[i] = Execute.parallel(new UltraGzipJob(
+          new _Input(input._copy(start, ((int) (end - start)))),
+          owner.m_name + " member " + (i + 1) //$NON-NLS-1$
+              + '/' + count,
+          null, owner.m_deferVerification, owner.m_chunkSize, 0,
+          EDeflateFormat.GZIP, null, owner.m_decodeMargin,
+          owner.m_deterministic, owner.m_fastPath,
+          owner.m_tinySize));
+    }
+
+    archive = new ByteArrayOutputStream();
+    index = new ByteArrayOutputStream();
+    crc = new CRC32();
+    _Members.__long(index, count - 1L);
+    try {
+      for (int i = 0; i < count; i++) {
+        data = ((byte[]) (futures[i].get()));
+        futures[i] = null;
+        start = (((long) i) * owner.m_memberSize);
+        if (i > 0) {
+          _Members.__long(index, archive.size());
+          _Members.__long(index, start);
+        }
+
+        header = _GZipFormat._headerLength(data);
+        size = ((data.length - header) + _Members.BGZF_HEADER_SIZE);
+        if (size > _Members.BGZF_MAX_SIZE) {
+          // the result is worse than stored blocks, which do fit
+          block = input._copy(start, ((int) (Math.min(input.m_size,
+              start + owner.m_memberSize) - start)));
+          crc.reset();
+          crc.update(block);
+          data = _Incompressible._encode(block,
+              _GZipFormat._header(null, 0L),
+              ((int) (crc.getValue())));
+          header = _GZipFormat._headerLength(data);
+          size = ((data.length - header) + _Members.BGZF_HEADER_SIZE);
+        }
+
+        // replace the header with the BGZF header
+        archive.write(_GZipFormat.ID1);
+        archive.write(_GZipFormat.ID2);
+        archive.write(_GZipFormat.CM_DEFLATE);
+        archive.write(_GZipFormat.FEXTRA);
+        if (i > 0) {
+          archive.write(_Members.EOF, 4, 4); // no mtime
+        } else {
+          archive.write(owner.m_header, 4, 4); // mtime
+        }
+        archive.write(_Members.EOF, 8, 8); // xfl, os, xlen, BC, slen
+        archive.write((size - 1) & 0xff);
+        archive.write((size - 1) >>> 8);
+        archive.write(data, header, data.length - header);
+      }
+    } catch (final Throwable error) {
+      throw new IllegalStateException("Compressing the members of " //$NON-NLS-1$
+          + owner.m_name + " failed.", error); //$NON-NLS-1$
+    }
+    archive.write(_Members.EOF, 0, _Members.EOF.length);
+
+    this.m_archive = archive.toByteArray();
+    this.m_index = index.toByteArray();
+  }
+
+  /**
+   * Write a 64 bit integer in little endian byte order.
+   *
+   * @param out
+   *          the stream
+   * @param value
+   *          the value
+   */
+  private static final void __long(final ByteArrayOutputStream out,
+      final long value) {
+    for (int shift = 0; shift < 64; shift += 8) {
+      out.write((int) (value >>> shift));
+    }
+  }
+}
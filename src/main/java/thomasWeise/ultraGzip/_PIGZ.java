@@ -1,6 +1,5 @@
 package thomasWeise.ultraGzip;
 
-import java.io.OutputStream;
 import java.nio.file.Path;
 
 import thomasWeise.tools.ByteBuffers;
@@ -86,22 +85,25 @@ final class _PIGZ implements Runnable {
       epb.addStringArgument("-" + this.m_quality); //$NON-NLS-1$
       epb.addStringArgument("-c"); //$NON-NLS-1$
       epb.setStdErr(EProcessStream.INHERIT);
-      epb.setStdIn(EProcessStream.AS_STREAM);
+      this.m_owner.m_input._setStdIn(epb);
       epb.setStdOut(EProcessStream.AS_STREAM);
 
       try (final ExternalProcess ep = epb.get()) {
 
-        try (final OutputStream os = ep.getStdIn()) {
-          os.write(this.m_owner.m_data);
-        }
+        this.m_owner.m_input._writeStdIn(ep);
 
-        compressed = ByteBuffers.get().load(ep.getStdOut());
+        compressed = ByteBuffers.get().load(ep.getStdOut(),
+            this.m_owner::_isPromising);
+        if (compressed == null) {
+          // The output is already larger than the best result, so
+          // the process is killed when we leave this block.
+          return;
+        }
         result = this.m_owner._register(compressed, _PIGZ.FROM);
 
         if ((retCode = ep.waitFor()) != 0) {
           this.m_owner._processError(retCode, _PIGZ.FROM,
               _PIGZ.__PIGZ_PATH);
-        } else {
           result = null;
           compressed = null;
         }
@@ -0,0 +1,185 @@
+package thomasWeise.ultraGzip;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import thomasWeise.tools.ConsoleIO;
+
+/**
+ * Re-optimize the image data of a PNG file. The payloads of all
+ * {@code IDAT} chunks together form one zlib stream, which is
+ * decompressed and recompressed by an {@link UltraGzipJob} producing
+ * zlib output. If the result is smaller, the file is rewritten with
+ * a single {@code IDAT} chunk holding it in place of the original
+ * ones. The filtered scanlines, i.e., the pixel data, stay exactly
+ * the same, and all other chunks are copied unchanged.
+ */
+final class _PngRecompression {
+
+  /** the PNG signature */
+  private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N',
+      'G', '\r', '\n', 0x1a, '\n' };
+
+  /** the type of the image data chunks */
+  private static final int IDAT = 0x49444154;
+
+  /** the size of the length, type, and CRC fields of a chunk */
+  private static final int CHUNK_OVERHEAD = 12;
+
+  /**
+   * Check whether the given bytes start with the PNG signature.
+   *
+   * @param data
+   *          the bytes
+   * @param length
+   *          the number of valid bytes
+   * @return {@code true} if they do, {@code false} otherwise
+   */
+  static final boolean _isPng(final byte[] data,
+      final int length) {
+    if (length < _PngRecompression.SIGNATURE.length) {
+      return false;
+    }
+    for (int i = _PngRecompression.SIGNATURE.length; (--i) >= 0;) {
+      if (data[i] != _PngRecompression.SIGNATURE[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Read a big-endian 32 bit integer
+   *
+   * @param data
+   *          the data
+   * @param index
+   *          the index of the first byte
+   * @return the integer
+   */
+  private static final int __int(final byte[] data,
+      final int index) {
+    return (((data[index] & 0xff) << 24)
+        | ((data[index + 1] & 0xff) << 16)
+        | ((data[index + 2] & 0xff) << 8) | (data[index + 3] & 0xff));
+  }
+
+  /**
+   * Write a big-endian 32 bit integer
+   *
+   * @param out
+   *          the stream
+   * @param value
+   *          the value
+   */
+  private static final void __putInt(final ByteArrayOutputStream out,
+      final int value) {
+    out.write(value >>> 24);
+    out.write(value >>> 16);
+    out.write(value >>> 8);
+    out.write(value);
+  }
+
+  /**
+   * Re-optimize the image data of a PNG file.
+   *
+   * @param png
+   *          the PNG file
+   * @param name
+   *          the name of the file
+   * @return the re-optimized PNG file, which is the original one if
+   *         no improvement was possible
+   * @throws IOException
+   *           if the file is corrupted
+   */
+  static final byte[] _recompress(final byte[] png,
+      final String name) throws IOException {
+    final ByteArrayOutputStream idat, data, out;
+    final Inflater inflater;
+    final byte[] buffer, result;
+    final CRC32 crc;
+    int index, length, first, read;
+
+    // collect the payload of all IDAT chunks
+    idat = new ByteArrayOutputStream();
+    first = (-1);
+    index = _PngRecompression.SIGNATURE.length;
+    while (index < png.length) {
+      if ((index + _PngRecompression.CHUNK_OVERHEAD) > png.length) {
+        throw new IOException("Truncated PNG chunk."); //$NON-NLS-1$
+      }
+      length = _PngRecompression.__int(png, index);
+      if ((length < 0) || ((((long) index) + length
+          + _PngRecompression.CHUNK_OVERHEAD) > png.length)) {
+        throw new IOException("Truncated PNG chunk."); //$NON-NLS-1$
+      }
+      if (_PngRecompression.__int(png,
+          index + 4) == _PngRecompression.IDAT) {
+        if (first < 0) {
+          first = index;
+        }
+        idat.write(png, index + 8, length);
+      }
+      index += (length + _PngRecompression.CHUNK_OVERHEAD);
+    }
+    if (first < 0) {
+      throw new IOException("PNG file without image data."); //$NON-NLS-1$
+    }
+
+    // decompress the image data, i.e., the filtered scanlines
+    data = new ByteArrayOutputStream();
+    inflater = new Inflater();
+    buffer = new byte[65536];
+    try {
+      inflater.setInput(idat.toByteArray());
+      while (!(inflater.finished())) {
+        read = inflater.inflate(buffer);
+        if ((read <= 0) && (inflater.needsInput()
+            || inflater.needsDictionary())) {
+          throw new IOException("Corrupted PNG image data."); //$NON-NLS-1$
+        }
+        data.write(buffer, 0, read);
+      }
+    } catch (final DataFormatException error) {
+      throw new IOException(error);
+    } finally {
+      inflater.end();
+    }
+
+    result = UltraGzip.getInstance().get()//
+        .setData(data.toByteArray()).setName(name).setMemberSize(0)//
+        .setOutputFormat(EDeflateFormat.ZLIB).get().call();
+    if (result.length >= idat.size()) {
+      ConsoleIO.stdout(name + " cannot improve the " + idat.size() //$NON-NLS-1$
+          + "B of PNG image data."); //$NON-NLS-1$
+      return png;
+    }
+
+    // write the chunks before the first IDAT, the new IDAT, and
+    // all the chunks after it except for further IDATs
+    out = new ByteArrayOutputStream(png.length);
+    out.write(png, 0, first);
+    _PngRecompression.__putInt(out, result.length);
+    crc = new CRC32();
+    crc.update(png, first + 4, 4);
+    crc.update(result);
+    out.write(png, first + 4, 4);
+    out.write(result, 0, result.length);
+    _PngRecompression.__putInt(out, (int) (crc.getValue()));
+
+    index = first;
+    while (index < png.length) {
+      length = (_PngRecompression.__int(png, index)
+          + _PngRecompression.CHUNK_OVERHEAD);
+      if (_PngRecompression.__int(png,
+          index + 4) != _PngRecompression.IDAT) {
+        out.write(png, index, length);
+      }
+      index += length;
+    }
+    return out.toByteArray();
+  }
+}
@@ -0,0 +1,183 @@
+package thomasWeise.ultraGzip;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+import thomasWeise.tools.ConsoleIO;
+import thomasWeise.tools.Execute;
+
+/**
+ * Re-optimize an existing gzip archive member by member. The
+ * members are read one after the other and each of them is
+ * recompressed by an {@link UltraGzipJob} of its own, all of them
+ * in parallel. The results are written in the original order, so
+ * the member boundaries are preserved. Each new payload keeps the
+ * header of its original member, including its name, modification
+ * time, and extra field, where the {@code BC} field of BGZF members
+ * is updated to the new size, so that BGZF archives remain valid.
+ * If a member cannot be made smaller, it is copied unchanged. If a {@link _SizeCache} is
+ * configured, members which are known to be no larger than the
+ * smallest member ever produced for their data are copied right
+ * away, costing only their decompression and checksum.
+ */
+final class _Recompression implements Callable<byte[]> {
+
+  /** the maximum number of members processed at once */
+  private static final int MAX_PENDING = 64;
+
+  /** the raw bytes of the original member */
+  private final byte[] m_member;
+
+  /** the decompressed data of the member */
+  private final byte[] m_data;
+
+  /** the name of the member */
+  private final String m_name;
+
+  /** the digest of the data */
+  private final String m_digest;
+
+  /** the size cache, or {@code null} */
+  private final _SizeCache m_cache;
+
+  /**
+   * create
+   *
+   * @param member
+   *          the raw bytes of the original member
+   * @param data
+   *          the decompressed data of the member
+   * @param name
+   *          the name of the member
+   * @param digest
+   *          the digest of the data
+   * @param cache
+   *          the size cache, or {@code null}
+   */
+  private _Recompression(final byte[] member, final byte[] data,
+      final String name, final String digest,
+      final _SizeCache cache) {
+    super();
+    this.m_member = member;
+    this.m_data = data;
+    this.m_name = name;
+    this.m_digest = digest;
+    this.m_cache = cache;
+  }
+
+  /**
+   * Re-optimize all the members of a gzip archive.
+   *
+   * @param in
+   *          the stream to read the archive from
+   * @param out
+   *          the stream to write the re-optimized archive to
+   * @param name
+   *          the name of the archive
+   * @return the number of members
+   * @throws IOException
+   *           if i/o fails or the archive is corrupted
+   */
+  static final long _recompress(final InputStream in,
+      final OutputStream out, final String name)
+      throws IOException {
+    return _Recompression._recompress(in, out, name,
+        _SizeCache._getInstance());
+  }
+
+  /**
+   * Re-optimize all the members of a gzip archive with the given
+   * size cache.
+   *
+   * @param in
+   *          the stream to read the archive from
+   * @param out
+   *          the stream to write the re-optimized archive to
+   * @param name
+   *          the name of the archive
+   * @param cache
+   *          the size cache, or {@code null} if none is used
+   * @return the number of members
+   * @throws IOException
+   *           if i/o fails or the archive is corrupted
+   */
+  static final long _recompress(final InputStream in,
+      final OutputStream out, final String name,
+      final _SizeCache cache) throws IOException {
+    final _MemberReader reader;
+    final ArrayDeque<Future<byte[]>> pending;
+    byte[] member;
+    String memberName;
+    long count;
+
+    reader = new _MemberReader(in);
+    pending = new ArrayDeque<>();
+    count = 0L;
+    try {
+      while (reader._next()) {
+        if (pending.size() >= _Recompression.MAX_PENDING) {
+          out.write(pending.removeFirst().get());
+        }
+        member = reader._member();
+        memberName = name + " member " + (++count); //$NON-NLS-1$
+        if ((cache != null)
+            && (cache._get(reader._digest()) >= member.length)) {
+          ConsoleIO.stdout(memberName
+              + " is already optimal and copied."); //$NON-NLS-1$
+          pending.addLast(CompletableFuture.completedFuture(member));
+          continue;
+        }
+        pending.addLast(Execute.parallel(new _Recompression(member,
+            reader._data(), memberName, reader._digest(), cache)));
+      }
+      while (!(pending.isEmpty())) {
+        out.write(pending.removeFirst().get());
+      }
+      if (cache != null) {
+        cache._save();
+      }
+    } catch (final IOException error) {
+      throw error;
+    } catch (final Throwable error) {
+      throw new IOException("Re-optimizing the members of " //$NON-NLS-1$
+          + name + " failed.", error); //$NON-NLS-1$
+    }
+    return count;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public final byte[] call() {
+    final int header;
+    byte[] result;
+
+    if (this.m_data.length <= 0) {
+      return this.m_member;
+    }
+    header = _GZipFormat._headerLength(this.m_member);
+    result = UltraGzip.getInstance().get().setData(this.m_data)//
+        .setName(this.m_name).setMemberSize(0)//
+        .setOutputFormat(EDeflateFormat.GZIP).get().call();
+    if (header > 0) {
+      // put the payload under the header of the original member
+      result = _GZipFormat._canonicalize(result,
+          _GZipFormat._headerLength(result),
+          Arrays.copyOf(this.m_member, header));
+      if (!(_GZipFormat._setBlockSize(result))) {
+        return this.m_member;
+      }
+    }
+    if (this.m_cache != null) {
+      this.m_cache._put(this.m_digest,
+          Math.min(result.length, this.m_member.length));
+    }
+    return ((result.length < this.m_member.length) ? result
+        : this.m_member);
+  }
+}
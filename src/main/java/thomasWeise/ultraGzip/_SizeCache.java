@@ -0,0 +1,152 @@
+package thomasWeise.ultraGzip;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import thomasWeise.tools.ConsoleIO;
+
+/**
+ * A persisted table mapping the SHA-256 digest of some data to the
+ * size of the smallest gzip member known for it. When a gzip
+ * archive is re-optimized, members whose content has already been
+ * optimized to a size no larger than their current size can be
+ * copied without running a job. The table is a text file with one
+ * line per digest, holding the digest in hexadecimal notation and
+ * the size separated by a space. When it is saved, the file is
+ * read again and merged, so that several processes can share it.
+ */
+final class _SizeCache {
+
+  /** the file */
+  private final Path m_path;
+
+  /** the sizes */
+  private final ConcurrentHashMap<String, Long> m_sizes;
+
+  /**
+   * create
+   *
+   * @param path
+   *          the file
+   */
+  _SizeCache(final Path path) {
+    super();
+    this.m_path = path;
+    this.m_sizes = new ConcurrentHashMap<>();
+    try {
+      this.__load();
+    } catch (final Throwable error) {
+      ConsoleIO.stderr("Could not load gzip size cache " //$NON-NLS-1$
+          + path + ", starting with an empty one.", //$NON-NLS-1$
+          error);
+    }
+  }
+
+  /**
+   * Get the shared size cache.
+   *
+   * @return the cache, or {@code null} if none is configured
+   */
+  static final _SizeCache _getInstance() {
+    return __SizeCacheHolder.INSTANCE;
+  }
+
+  /**
+   * Merge the contents of the file into the table.
+   *
+   * @throws IOException
+   *           if i/o fails
+   */
+  private final void __load() throws IOException {
+    String line;
+    int space;
+
+    if (!(Files.exists(this.m_path))) {
+      return;
+    }
+    try (final BufferedReader reader = Files
+        .newBufferedReader(this.m_path, StandardCharsets.UTF_8)) {
+      while ((line = reader.readLine()) != null) {
+        space = line.indexOf(' ');
+        if (space > 0) {
+          this._put(line.substring(0, space),
+              Long.parseLong(line.substring(space + 1).trim()));
+        }
+      }
+    }
+  }
+
+  /**
+   * Get the smallest known size for some data.
+   *
+   * @param digest
+   *          the digest of the data
+   * @return the size, or {@code -1} if none is known
+   */
+  final long _get(final String digest) {
+    final Long size;
+
+    size = this.m_sizes.get(digest);
+    return ((size != null) ? size.longValue() : (-1L));
+  }
+
+  /**
+   * Remember the size of a gzip member for some data, if it is
+   * smaller than the smallest known size.
+   *
+   * @param digest
+   *          the digest of the data
+   * @param size
+   *          the size
+   */
+  final void _put(final String digest, final long size) {
+    this.m_sizes.merge(digest, Long.valueOf(size),
+        (a, b) -> ((a.longValue() <= b.longValue()) ? a : b));
+  }
+
+  /**
+   * Save the table, after merging it with the current contents of
+   * the file.
+   *
+   * @throws IOException
+   *           if i/o fails
+   */
+  final synchronized void _save() throws IOException {
+    final Path temp;
+
+    this.__load();
+    temp = this.m_path.resolveSibling(
+        this.m_path.getFileName().toString() + ".tmp"); //$NON-NLS-1$
+    try (final BufferedWriter writer =
+        Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+      for (final Map.Entry<String, Long> entry : this.m_sizes
+          .entrySet()) {
+        writer.write(entry.getKey());
+        writer.write(' ');
+        writer.write(entry.getValue().toString());
+        writer.newLine();
+      }
+    }
+    Files.move(temp, this.m_path,
+        StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /** the size cache holder */
+  private static final class __SizeCacheHolder {
+
+    /** the shared cache, or {@code null} */
+    static final _SizeCache INSTANCE;
+
+    static {
+      final Path path = UltraGzip._getSizeCachePath();
+      INSTANCE = ((path != null) ? new _SizeCache(path) : null);
+    }
+  }
+}
@@ -0,0 +1,338 @@
+package thomasWeise.ultraGzip;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+/**
+ * Pack the files of a directory into a tar archive whose entries
+ * are ordered such that similar files follow each other. DEFLATE
+ * can only refer back 32&nbsp;KiB, so matches between files are
+ * only found if they are close to each other in the archive. The
+ * similarity of two files is estimated via bottom-k MinHash
+ * sketches of the 8-byte shingles of their contents. Starting from
+ * the first file in path order, the archive is built by always
+ * appending the not-yet-added file most similar to the previous
+ * one. The archive is a plain ustar archive, so nothing changes on
+ * the decoding side.
+ */
+final class _Tar {
+
+  /** the number of hashes in a sketch */
+  private static final int SKETCH_SIZE = 128;
+
+  /** the tar block size */
+  private static final int BLOCK = 512;
+
+  /**
+   * Mix the bits of a 64 bit value (the finalizer of MurmurHash3).
+   *
+   * @param value
+   *          the value
+   * @return the hash
+   */
+  private static final long __mix(final long value) {
+    long h;
+
+    h = value;
+    h ^= (h >>> 33);
+    h *= 0xff51afd7ed558ccdL;
+    h ^= (h >>> 33);
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= (h >>> 33);
+    return h;
+  }
+
+  /**
+   * Compute the bottom-k MinHash sketch of some data, i.e., the
+   * {@link #SKETCH_SIZE} smallest distinct hashes of its 8-byte
+   * shingles.
+   *
+   * @param data
+   *          the data
+   * @return the sorted sketch
+   */
+  private static final long[] __sketch(final byte[] data) {
+    final long[] sketch;
+    long shingle, hash;
+    int size, index;
+
+    sketch = new long[_Tar.SKETCH_SIZE];
+    size = 0;
+    shingle = 0L;
+    for (int i = 0; i < data.length; i++) {
+      shingle = ((shingle << 8) | (data[i] & 0xff));
+      if ((i < 7) && (i < (data.length - 1))) {
+        continue;
+      }
+      hash = _Tar.__mix(shingle);
+      if ((size >= sketch.length) && (hash >= sketch[size - 1])) {
+        continue;
+      }
+      index = Arrays.binarySearch(sketch, 0, size, hash);
+      if (index >= 0) {
+        continue;
+      }
+      index = (-(index + 1));
+      if (size < sketch.length) {
+        size++;
+      }
+      System.arraycopy(sketch, index, sketch, index + 1,
+          size - index - 1);
+      sketch[index] = hash;
+    }
+    return Arrays.copyOf(sketch, size);
+  }
+
+  /**
+   * Estimate the Jaccard similarity of the shingle sets of two
+   * files from their sketches: among the smallest hashes of the
+   * union of both sketches, count those contained in both.
+   *
+   * @param a
+   *          the first sketch
+   * @param b
+   *          the second sketch
+   * @return the estimated similarity, in {@code [0, 1]}
+   */
+  private static final double __similarity(final long[] a,
+      final long[] b) {
+    int i, j, union, both;
+
+    i = j = union = both = 0;
+    while ((union < _Tar.SKETCH_SIZE) && (i < a.length)
+        && (j < b.length)) {
+      if (a[i] == b[j]) {
+        both++;
+        i++;
+        j++;
+      } else {
+        if (a[i] < b[j]) {
+          i++;
+        } else {
+          j++;
+        }
+      }
+      union++;
+    }
+    union += Math.min(_Tar.SKETCH_SIZE - union,
+        (a.length - i) + (b.length - j));
+    return ((union > 0) ? (((double) both) / union) : 0d);
+  }
+
+  /**
+   * Write a string into a header field.
+   *
+   * @param header
+   *          the header
+   * @param offset
+   *          the offset of the field
+   * @param length
+   *          the length of the field
+   * @param value
+   *          the value
+   */
+  private static final void __string(final byte[] header,
+      final int offset, final int length, final byte[] value) {
+    System.arraycopy(value, 0, header, offset,
+        Math.min(length, value.length));
+  }
+
+  /**
+   * Write an octal number into a header field.
+   *
+   * @param header
+   *          the header
+   * @param offset
+   *          the offset of the field
+   * @param length
+   *          the length of the field, including the terminating
+   *          zero
+   * @param value
+   *          the value
+   */
+  private static final void __octal(final byte[] header,
+      final int offset, final int length, final long value) {
+    final String text;
+
+    text = Long.toOctalString(value);
+    if (text.length() >= length) {
+      throw new IllegalArgumentException("Value " + value //$NON-NLS-1$
+          + " does not fit into a tar header field."); //$NON-NLS-1$
+    }
+    Arrays.fill(header, offset, offset + length - 1, (byte) '0');
+    _Tar.__string(header, (offset + length - 1) - text.length(),
+        text.length(), text.getBytes(StandardCharsets.US_ASCII));
+    header[offset + length - 1] = 0;
+  }
+
+  /**
+   * Write the ustar header of a file.
+   *
+   * @param out
+   *          the stream
+   * @param file
+   *          the file
+   * @throws IOException
+   *           if the file name does not fit into the header
+   */
+  private static final void __header(final ByteArrayOutputStream out,
+      final __File file) throws IOException {
+    final byte[] header, name;
+    int split, sum;
+
+    header = new byte[_Tar.BLOCK];
+    name = file.m_name.getBytes(StandardCharsets.UTF_8);
+    if (name.length <= 100) {
+      _Tar.__string(header, 0, 100, name);
+    } else {
+      // split long names into a prefix and a name at a slash
+      split = -1;
+      for (int i = Math.min(155, name.length - 2); i >= 0; i--) {
+        if ((name[i] == '/') && ((name.length - i - 1) <= 100)) {
+          split = i;
+          break;
+        }
+      }
+      if (split < 0) {
+        throw new IOException("Path too long for tar: " //$NON-NLS-1$
+            + file.m_name);
+      }
+      _Tar.__string(header, 0, 100,
+          Arrays.copyOfRange(name, split + 1, name.length));
+      _Tar.__string(header, 345, 155,
+          Arrays.copyOfRange(name, 0, split));
+    }
+    _Tar.__octal(header, 100, 8, file.m_executable ? 0755 : 0644);
+    _Tar.__octal(header, 108, 8, 0L); // uid
+    _Tar.__octal(header, 116, 8, 0L); // gid
+    _Tar.__octal(header, 124, 12, file.m_data.length);
+    _Tar.__octal(header, 136, 12, file.m_time);
+    Arrays.fill(header, 148, 156, (byte) ' '); // checksum
+    header[156] = '0'; // regular file
+    _Tar.__string(header, 257, 8,
+        "ustar\u000000".getBytes(StandardCharsets.US_ASCII)); //$NON-NLS-1$
+
+    sum = 0;
+    for (final byte b : header) {
+      sum += (b & 0xff);
+    }
+    _Tar.__octal(header, 148, 7, sum);
+    header[155] = ' ';
+    out.write(header, 0, header.length);
+  }
+
+  /**
+   * Pack the regular files in a directory and its sub-directories
+   * into a tar archive, ordered by similarity. The entry names
+   * start with the name of the directory.
+   *
+   * @param directory
+   *          the directory
+   * @return the tar archive
+   * @throws IOException
+   *           if i/o fails
+   */
+  static final byte[] _tar(final Path directory) throws IOException {
+    final ArrayList<__File> files;
+    final ByteArrayOutputStream out;
+    final String root;
+    __File current, next;
+    double best, similarity;
+    int padding;
+
+    files = new ArrayList<>();
+    root = directory.getFileName().toString();
+    try (final Stream<Path> stream = Files.walk(directory)) {
+      stream.filter(Files::isRegularFile).sorted()
+          .forEachOrdered((path) -> {
+            try {
+              files.add(new __File(path,
+                  root + '/' + directory.relativize(path).toString()
+                      .replace(path.getFileSystem().getSeparator(),
+                          "/"))); //$NON-NLS-1$
+            } catch (final IOException error) {
+              throw new IllegalStateException(error);
+            }
+          });
+    } catch (final IllegalStateException error) {
+      if (error.getCause() instanceof IOException) {
+        throw ((IOException) (error.getCause()));
+      }
+      throw error;
+    }
+
+    out = new ByteArrayOutputStream();
+    current = null;
+    while (!(files.isEmpty())) {
+      // append the file most similar to the previous one
+      next = files.get(0);
+      if (current != null) {
+        best = -1d;
+        for (final __File file : files) {
+          similarity =
+              _Tar.__similarity(current.m_sketch, file.m_sketch);
+          if (similarity > best) {
+            best = similarity;
+            next = file;
+          }
+        }
+      }
+      files.remove(next);
+      current = next;
+
+      _Tar.__header(out, current);
+      out.write(current.m_data, 0, current.m_data.length);
+      padding = ((-current.m_data.length) & (_Tar.BLOCK - 1));
+      out.write(new byte[padding], 0, padding);
+    }
+
+    // the end of the archive: two empty blocks
+    out.write(new byte[2 * _Tar.BLOCK], 0, 2 * _Tar.BLOCK);
+    return out.toByteArray();
+  }
+
+  /** a file to be packed */
+  private static final class __File {
+
+    /** the name inside the archive */
+    final String m_name;
+
+    /** the contents */
+    final byte[] m_data;
+
+    /** the modification time, in seconds since the epoch */
+    final long m_time;
+
+    /** is the file executable? */
+    final boolean m_executable;
+
+    /** the MinHash sketch */
+    final long[] m_sketch;
+
+    /**
+     * load a file
+     *
+     * @param path
+     *          the path to the file
+     * @param name
+     *          the name inside the archive
+     * @throws IOException
+     *           if i/o fails
+     */
+    __File(final Path path, final String name) throws IOException {
+      super();
+      this.m_name = name;
+      this.m_data = Files.readAllBytes(path);
+      this.m_time = Math.max(0L,
+          Files.getLastModifiedTime(path).toMillis() / 1000L);
+      this.m_executable = Files.isExecutable(path);
+      this.m_sketch = _Tar.__sketch(this.m_data);
+    }
+  }
+}
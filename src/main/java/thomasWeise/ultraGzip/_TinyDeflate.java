@@ -0,0 +1,901 @@
+package thomasWeise.ultraGzip;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * An in-JVM encoder for tiny data, for which starting external
+ * processes costs far more than the compression itself. The data
+ * is encoded as a single block. For a stored block, the size is
+ * fixed. For a block with fixed Huffman codes, the sequence of
+ * literals and matches is found by dynamic programming over all
+ * positions, all matches reaching back to all earlier positions,
+ * and all match lengths. For a block with dynamic Huffman codes,
+ * parse and codes depend on each other, so this is a heuristic:
+ * starting from the fixed parse and from a parse of only
+ * literals, length-limited codes are computed for the current
+ * parse via package-merge and the best parse for these codes is
+ * computed in turn, until the block does not shrink anymore. The
+ * smallest of the three blocks is returned. It competes with the
+ * in-JVM compressors, which occasionally find a smaller dynamic
+ * block, but no external processes are started.
+ */
+final class _TinyDeflate {
+
+  /** the source name */
+  private static final String FROM =
+      "in-JVM small data encoder"; //$NON-NLS-1$
+
+  /** the largest data which may be encoded */
+  static final int MAX_SIZE = 1024;
+
+  /** the number of literal/length symbols */
+  private static final int LITERALS = 286;
+  /** the number of distance symbols */
+  private static final int DISTANCES = 30;
+  /** the end-of-block symbol */
+  private static final int END_OF_BLOCK = 256;
+  /** the shortest match */
+  private static final int MIN_MATCH = 3;
+  /** the longest match */
+  private static final int MAX_MATCH = 258;
+  /** the size of the window */
+  private static final int WINDOW = 32768;
+  /** the maximum length of a Huffman code */
+  private static final int MAX_BITS = 15;
+  /** the maximum length of a code length code */
+  private static final int MAX_CODE_LENGTH_BITS = 7;
+  /** the maximum number of parse/code iterations */
+  private static final int ITERATIONS = 32;
+  /** the block header bits */
+  private static final int BLOCK_HEADER = 3;
+
+  /** the data */
+  private final byte[] m_data;
+
+  /** the length of each token, {@code 1} for literals */
+  private int[] m_lengths;
+  /** the distance of each token, {@code 0} for literals */
+  private int[] m_distances;
+  /** the number of tokens */
+  private int m_count;
+
+  /**
+   * create
+   *
+   * @param data
+   *          the data
+   */
+  private _TinyDeflate(final byte[] data) {
+    super();
+    this.m_data = data;
+  }
+
+  /**
+   * Get the length symbol of a match length.
+   *
+   * @param length
+   *          the length
+   * @return the index of the length symbol, i.e., the symbol minus
+   *         257
+   */
+  private static final int __lengthCode(final int length) {
+    int code;
+
+    code = (_Inflater.LENGTH_BASE.length - 1);
+    while (_Inflater.LENGTH_BASE[code] > length) {
+      code--;
+    }
+    return code;
+  }
+
+  /**
+   * Get the distance symbol of a match distance.
+   *
+   * @param distance
+   *          the distance
+   * @return the distance symbol
+   */
+  private static final int __distanceCode(final int distance) {
+    int code;
+
+    code = (_Inflater.DIST_BASE.length - 1);
+    while (_Inflater.DIST_BASE[code] > distance) {
+      code--;
+    }
+    return code;
+  }
+
+  /**
+   * Get the code lengths of the fixed Huffman codes.
+   *
+   * @return the literal/length code lengths followed by the
+   *         distance code lengths
+   */
+  private static final int[][] __fixed() {
+    final int[] literals, distances;
+
+    literals = new int[288];
+    Arrays.fill(literals, 0, 144, 8);
+    Arrays.fill(literals, 144, 256, 9);
+    Arrays.fill(literals, 256, 280, 7);
+    Arrays.fill(literals, 280, 288, 8);
+    distances = new int[_TinyDeflate.DISTANCES];
+    Arrays.fill(distances, 5);
+    return new int[][] { literals, distances };
+  }
+
+  /**
+   * Compute optimal Huffman code lengths with a length limit via
+   * the package-merge algorithm. If less than two symbols occur,
+   * symbols are added so that the code is complete.
+   *
+   * @param frequencies
+   *          the symbol frequencies
+   * @param limit
+   *          the maximum code length
+   * @return the code lengths
+   */
+  private static final int[] __huffman(final long[] frequencies,
+      final int limit) {
+    final int[] lengths;
+    final ArrayList<__Item> leaves;
+    ArrayList<__Item> current, packages, merged;
+    int used, i, j;
+
+    lengths = new int[frequencies.length];
+    leaves = new ArrayList<>();
+    for (i = 0; i < frequencies.length; i++) {
+      if (frequencies[i] > 0L) {
+        leaves.add(new __Item(frequencies[i], i));
+      }
+    }
+    for (i = 0; (leaves.size() < 2); i++) {
+      if (frequencies[i] <= 0L) {
+        leaves.add(new __Item(0L, i));
+      }
+    }
+    leaves.sort((a, b) -> Long.compare(a.m_weight, b.m_weight));
+
+    current = leaves;
+    for (int level = 1; level < limit; level++) {
+      packages = new ArrayList<>();
+      for (i = 1; i < current.size(); i += 2) {
+        packages.add(new __Item(current.get(i - 1), current.get(i)));
+      }
+      merged = new ArrayList<>(leaves.size() + packages.size());
+      i = j = 0;
+      while ((i < leaves.size()) || (j < packages.size())) {
+        if ((j >= packages.size()) || ((i < leaves.size())
+            && (leaves.get(i).m_weight <= packages
+                .get(j).m_weight))) {
+          merged.add(leaves.get(i++));
+        } else {
+          merged.add(packages.get(j++));
+        }
+      }
+      current = merged;
+    }
+
+    used = ((leaves.size() << 1) - 2);
+    for (i = 0; i < used; i++) {
+      for (final int symbol : current.get(i).m_symbols) {
+        lengths[symbol]++;
+      }
+    }
+    return lengths;
+  }
+
+  /**
+   * Get the bit cost of each symbol under some code lengths. Unused
+   * symbols are priced as if they were one bit longer than the
+   * longest code, as using them would require lengthening the
+   * code.
+   *
+   * @param lengths
+   *          the code lengths
+   * @return the costs
+   */
+  private static final int[] __costs(final int[] lengths) {
+    final int[] costs;
+    int max;
+
+    max = 0;
+    for (final int length : lengths) {
+      max = Math.max(max, length);
+    }
+    costs = new int[lengths.length];
+    for (int i = lengths.length; (--i) >= 0;) {
+      costs[i] = ((lengths[i] > 0) ? lengths[i] : (max + 1));
+    }
+    return costs;
+  }
+
+  /**
+   * Compute the optimal parse of the data for the given symbol
+   * costs, by going backwards over all positions and trying the
+   * literal and all matches with each earlier position, keeping
+   * the cheapest distance for each match length.
+   *
+   * @param literalCosts
+   *          the costs of the literal/length symbols
+   * @param distanceCosts
+   *          the costs of the distance symbols
+   */
+  private final void __parse(final int[] literalCosts,
+      final int[] distanceCosts) {
+    final byte[] data;
+    final long[] best, matchCost;
+    final int[] choice, choiceDistance, matchDistance;
+    final int size;
+    int maxLength, length, code, i;
+    long cost;
+
+    data = this.m_data;
+    size = data.length;
+    best = new long[size + 1];
+    choice = new int[size];
+    choiceDistance = new int[size];
+    matchCost = new long[_TinyDeflate.MAX_MATCH + 1];
+    matchDistance = new int[_TinyDeflate.MAX_MATCH + 1];
+
+    for (i = size; (--i) >= 0;) {
+      best[i] = (literalCosts[data[i] & 0xff] + best[i + 1]);
+      choice[i] = 1;
+      choiceDistance[i] = 0;
+
+      maxLength = Math.min(_TinyDeflate.MAX_MATCH, size - i);
+      if (maxLength < _TinyDeflate.MIN_MATCH) {
+        continue;
+      }
+      Arrays.fill(matchCost, Long.MAX_VALUE);
+      for (int j = i; (--j) >= Math.max(0,
+          i - _TinyDeflate.WINDOW);) {
+        length = 0;
+        while ((length < maxLength)
+            && (data[j + length] == data[i + length])) {
+          length++;
+        }
+        if (length < _TinyDeflate.MIN_MATCH) {
+          continue;
+        }
+        code = _TinyDeflate.__distanceCode(i - j);
+        cost = (distanceCosts[code] + _Inflater.DIST_EXTRA[code]);
+        for (int l = _TinyDeflate.MIN_MATCH; l <= length; l++) {
+          if (cost < matchCost[l]) {
+            matchCost[l] = cost;
+            matchDistance[l] = (i - j);
+          }
+        }
+      }
+
+      for (int l = _TinyDeflate.MIN_MATCH; l <= maxLength; l++) {
+        if (matchCost[l] == Long.MAX_VALUE) {
+          continue;
+        }
+        code = _TinyDeflate.__lengthCode(l);
+        cost = (literalCosts[257 + code] + _Inflater.LENGTH_EXTRA[code]
+            + matchCost[l] + best[i + l]);
+        if (cost < best[i]) {
+          best[i] = cost;
+          choice[i] = l;
+          choiceDistance[i] = matchDistance[l];
+        }
+      }
+    }
+
+    this.m_lengths = new int[size];
+    this.m_distances = new int[size];
+    this.m_count = 0;
+    for (i = 0; i < size; i += choice[i]) {
+      this.m_lengths[this.m_count] = choice[i];
+      this.m_distances[this.m_count++] = choiceDistance[i];
+    }
+  }
+
+  /**
+   * Count the symbols of the current parse.
+   *
+   * @return the frequencies of the literal/length symbols and of
+   *         the distance symbols
+   */
+  private final long[][] __frequencies() {
+    final long[] literals, distances;
+    int position;
+
+    literals = new long[_TinyDeflate.LITERALS];
+    distances = new long[_TinyDeflate.DISTANCES];
+    position = 0;
+    for (int i = 0; i < this.m_count; i++) {
+      if (this.m_lengths[i] == 1) {
+        literals[this.m_data[position] & 0xff]++;
+      } else {
+        literals[257 + _TinyDeflate.__lengthCode(this.m_lengths[i])]++;
+        distances[_TinyDeflate
+            .__distanceCode(this.m_distances[i])]++;
+      }
+      position += this.m_lengths[i];
+    }
+    literals[_TinyDeflate.END_OF_BLOCK]++;
+    return new long[][] { literals, distances };
+  }
+
+  /**
+   * Get the number of bits needed for the symbols of the current
+   * parse, including the end-of-block symbol.
+   *
+   * @param literals
+   *          the literal/length code lengths
+   * @param distances
+   *          the distance code lengths
+   * @return the number of bits
+   */
+  private final long __bits(final int[] literals,
+      final int[] distances) {
+    long bits;
+    int position, code;
+
+    bits = literals[_TinyDeflate.END_OF_BLOCK];
+    position = 0;
+    for (int i = 0; i < this.m_count; i++) {
+      if (this.m_lengths[i] == 1) {
+        bits += literals[this.m_data[position] & 0xff];
+      } else {
+        code = _TinyDeflate.__lengthCode(this.m_lengths[i]);
+        bits += (literals[257 + code] + _Inflater.LENGTH_EXTRA[code]);
+        code = _TinyDeflate.__distanceCode(this.m_distances[i]);
+        bits += (distances[code] + _Inflater.DIST_EXTRA[code]);
+      }
+      position += this.m_lengths[i];
+    }
+    return bits;
+  }
+
+  /**
+   * Get the number of code lengths to transmit.
+   *
+   * @param lengths
+   *          the code lengths
+   * @param minimum
+   *          the minimum number
+   * @return the number of code lengths up to the last non-zero one
+   */
+  private static final int __used(final int[] lengths,
+      final int minimum) {
+    int used;
+
+    used = lengths.length;
+    while ((used > minimum) && (lengths[used - 1] == 0)) {
+      used--;
+    }
+    return used;
+  }
+
+  /**
+   * Run-length encode the code lengths of a dynamic block header
+   * with the repeat symbols 16, 17, and 18. A greedy encoding is
+   * refined by optimal encodings for the code length code of the
+   * previous encoding, as long as the header shrinks.
+   *
+   * @param literals
+   *          the literal/length code lengths
+   * @param distances
+   *          the distance code lengths
+   * @return the header: the number of literal/length and distance
+   *         code lengths followed by pairs of code length symbol
+   *         and extra bits value
+   */
+  private static final int[] __header(final int[] literals,
+      final int[] distances) {
+    final int hlit, hdist;
+    final int[] all, out;
+    int[] header, candidate;
+    long bits, candidateBits;
+    int count, i, run, take;
+
+    hlit = _TinyDeflate.__used(literals, 257);
+    hdist = _TinyDeflate.__used(distances, 1);
+    all = new int[hlit + hdist];
+    System.arraycopy(literals, 0, all, 0, hlit);
+    System.arraycopy(distances, 0, all, hlit, hdist);
+
+    out = new int[2 + (all.length << 1)];
+    out[0] = hlit;
+    out[1] = hdist;
+    count = 2;
+    for (i = 0; i < all.length;) {
+      run = 1;
+      while (((i + run) < all.length) && (all[i + run] == all[i])) {
+        run++;
+      }
+      if (all[i] == 0) {
+        if (run >= 11) {
+          take = Math.min(run, 138);
+          out[count++] = 18;
+          out[count++] = (take - 11);
+        } else {
+          if (run >= 3) {
+            take = run;
+            out[count++] = 17;
+            out[count++] = (take - 3);
+          } else {
+            take = 1;
+            out[count++] = 0;
+            out[count++] = 0;
+          }
+        }
+        i += take;
+        continue;
+      }
+      out[count++] = all[i++];
+      out[count++] = 0;
+      run--;
+      while (run >= 3) {
+        take = Math.min(run, 6);
+        out[count++] = 16;
+        out[count++] = (take - 3);
+        run -= take;
+        i += take;
+      }
+    }
+
+    header = Arrays.copyOf(out, count);
+    bits = _TinyDeflate.__headerBits(header);
+    for (;;) {
+      candidate = _TinyDeflate.__rle(all, hlit, hdist,
+          _TinyDeflate.__costs(_TinyDeflate.__codeLengthCode(header)));
+      candidateBits = _TinyDeflate.__headerBits(candidate);
+      if (candidateBits >= bits) {
+        return header;
+      }
+      header = candidate;
+      bits = candidateBits;
+    }
+  }
+
+  /**
+   * Find the optimal run-length encoding of code lengths for given
+   * costs of the code length symbols.
+   *
+   * @param all
+   *          the literal/length and distance code lengths
+   * @param hlit
+   *          the number of literal/length code lengths
+   * @param hdist
+   *          the number of distance code lengths
+   * @param costs
+   *          the costs of the code length symbols
+   * @return the header, in the format of
+   *         {@link #__header(int[], int[])}
+   */
+  private static final int[] __rle(final int[] all, final int hlit,
+      final int hdist, final int[] costs) {
+    final int size;
+    final int[] same, choice, symbol, out;
+    final long[] best;
+    long cost;
+    int count;
+
+    size = all.length;
+    same = new int[size + 1];
+    for (int i = size; (--i) >= 0;) {
+      same[i] = ((((i + 1) < size) && (all[i + 1] == all[i]))
+          ? (same[i + 1] + 1) : 1);
+    }
+
+    best = new long[size + 1];
+    choice = new int[size];
+    symbol = new int[size];
+    for (int i = size; (--i) >= 0;) {
+      best[i] = (costs[all[i]] + best[i + 1]);
+      choice[i] = 1;
+      symbol[i] = all[i];
+      if (all[i] == 0) {
+        for (int k = 3; k <= Math.min(138, same[i]); k++) {
+          cost = ((k <= 10) ? (costs[17] + 3L) : (costs[18] + 7L))
+              + best[i + k];
+          if (cost < best[i]) {
+            best[i] = cost;
+            choice[i] = k;
+            symbol[i] = ((k <= 10) ? 17 : 18);
+          }
+        }
+      }
+      if ((i > 0) && (all[i - 1] == all[i])) {
+        for (int k = 3; k <= Math.min(6, same[i]); k++) {
+          cost = (costs[16] + 2L + best[i + k]);
+          if (cost < best[i]) {
+            best[i] = cost;
+            choice[i] = k;
+            symbol[i] = 16;
+          }
+        }
+      }
+    }
+
+    out = new int[2 + (size << 1)];
+    out[0] = hlit;
+    out[1] = hdist;
+    count = 2;
+    for (int i = 0; i < size; i += choice[i]) {
+      out[count++] = symbol[i];
+      switch (symbol[i]) {
+        case 16: {
+          out[count++] = (choice[i] - 3);
+          break;
+        }
+        case 17: {
+          out[count++] = (choice[i] - 3);
+          break;
+        }
+        case 18: {
+          out[count++] = (choice[i] - 11);
+          break;
+        }
+        default: {
+          out[count++] = 0;
+        }
+      }
+    }
+    return Arrays.copyOf(out, count);
+  }
+
+  /**
+   * Get the number of extra bits of a code length symbol.
+   *
+   * @param symbol
+   *          the symbol
+   * @return the number of extra bits
+   */
+  private static final int __codeLengthExtra(final int symbol) {
+    switch (symbol) {
+      case 16: {
+        return 2;
+      }
+      case 17: {
+        return 3;
+      }
+      case 18: {
+        return 7;
+      }
+      default: {
+        return 0;
+      }
+    }
+  }
+
+  /**
+   * Get the code lengths of the code length code of a header.
+   *
+   * @param header
+   *          the header
+   * @return the code lengths
+   */
+  private static final int[] __codeLengthCode(final int[] header) {
+    final long[] frequencies;
+
+    frequencies = new long[19];
+    for (int i = 2; i < header.length; i += 2) {
+      frequencies[header[i]]++;
+    }
+    return _TinyDeflate.__huffman(frequencies,
+        _TinyDeflate.MAX_CODE_LENGTH_BITS);
+  }
+
+  /**
+   * Get the number of code length code lengths to transmit.
+   *
+   * @param code
+   *          the code length code
+   * @return the number of code length code lengths
+   */
+  private static final int __hclen(final int[] code) {
+    int hclen;
+
+    hclen = _Inflater.CODE_LENGTH_ORDER.length;
+    while ((hclen > 4)
+        && (code[_Inflater.CODE_LENGTH_ORDER[hclen - 1]] == 0)) {
+      hclen--;
+    }
+    return hclen;
+  }
+
+  /**
+   * Get the number of bits of a dynamic block header.
+   *
+   * @param header
+   *          the header
+   * @return the number of bits
+   */
+  private static final long __headerBits(final int[] header) {
+    final int[] code;
+    long bits;
+
+    code = _TinyDeflate.__codeLengthCode(header);
+    bits = (14L + (3L * _TinyDeflate.__hclen(code)));
+    for (int i = 2; i < header.length; i += 2) {
+      bits += (code[header[i]]
+          + _TinyDeflate.__codeLengthExtra(header[i]));
+    }
+    return bits;
+  }
+
+  /**
+   * Compute the canonical Huffman codes for some code lengths, bit
+   * reversed so that they can be written lowest bit first.
+   *
+   * @param lengths
+   *          the code lengths
+   * @return the reversed codes
+   */
+  private static final int[] __codes(final int[] lengths) {
+    final int[] count, next, codes;
+    int code;
+
+    count = new int[_TinyDeflate.MAX_BITS + 1];
+    for (final int length : lengths) {
+      count[length]++;
+    }
+    count[0] = 0;
+    next = new int[_TinyDeflate.MAX_BITS + 1];
+    code = 0;
+    for (int bits = 1; bits <= _TinyDeflate.MAX_BITS; bits++) {
+      code = ((code + count[bits - 1]) << 1);
+      next[bits] = code;
+    }
+    codes = new int[lengths.length];
+    for (int i = 0; i < lengths.length; i++) {
+      if (lengths[i] > 0) {
+        codes[i] = (Integer.reverse(next[lengths[i]]++) >>> (32
+            - lengths[i]));
+      }
+    }
+    return codes;
+  }
+
+  /**
+   * Write the symbols of the current parse.
+   *
+   * @param out
+   *          the output
+   * @param literals
+   *          the literal/length code lengths
+   * @param distances
+   *          the distance code lengths
+   */
+  private final void __writeSymbols(final _BitOutput out,
+      final int[] literals, final int[] distances) {
+    final int[] literalCodes, distanceCodes;
+    int position, code, length, distance;
+
+    literalCodes = _TinyDeflate.__codes(literals);
+    distanceCodes = _TinyDeflate.__codes(distances);
+    position = 0;
+    for (int i = 0; i < this.m_count; i++) {
+      length = this.m_lengths[i];
+      if (length == 1) {
+        code = (this.m_data[position] & 0xff);
+        out._bits(literalCodes[code], literals[code]);
+      } else {
+        code = _TinyDeflate.__lengthCode(length);
+        out._bits(literalCodes[257 + code], literals[257 + code]);
+        out._bits(length - _Inflater.LENGTH_BASE[code],
+            _Inflater.LENGTH_EXTRA[code]);
+        distance = this.m_distances[i];
+        code = _TinyDeflate.__distanceCode(distance);
+        out._bits(distanceCodes[code], distances[code]);
+        out._bits(distance - _Inflater.DIST_BASE[code],
+            _Inflater.DIST_EXTRA[code]);
+      }
+      position += length;
+    }
+    out._bits(literalCodes[_TinyDeflate.END_OF_BLOCK],
+        literals[_TinyDeflate.END_OF_BLOCK]);
+  }
+
+  /**
+   * Encode the data as the smallest of a stored, a fixed, and a
+   * dynamic block.
+   *
+   * @param data
+   *          the data, at most {@link #MAX_SIZE} bytes
+   * @param header
+   *          the gzip header
+   * @param crc
+   *          the CRC-32 of the data
+   * @return the gzip archive
+   */
+  static final byte[] _encode(final byte[] data, final byte[] header,
+      final int crc) {
+    final _TinyDeflate tiny;
+    final int[][] fixed;
+    final int[] fixedLengths, fixedDistances;
+    final int fixedCount;
+    final long storedBits, fixedBits;
+    final _BitOutput out;
+    int[] literals, distances, blockHeader, bestLengths,
+        bestDistances, bestLiterals, bestDistanceCode, bestHeader,
+        code, codes;
+    long[][] frequencies;
+    long bits, bestBits, previous;
+    int bestCount;
+
+    tiny = new _TinyDeflate(data);
+
+    // the stored block: header, padding, LEN and NLEN, and data
+    storedBits = (8L + 32L + (((long) (data.length)) << 3));
+
+    // the optimal fixed block
+    fixed = _TinyDeflate.__fixed();
+    tiny.__parse(fixed[0], fixed[1]);
+    fixedBits = (_TinyDeflate.BLOCK_HEADER
+        + tiny.__bits(fixed[0], fixed[1]));
+    fixedLengths = tiny.m_lengths;
+    fixedDistances = tiny.m_distances;
+    fixedCount = tiny.m_count;
+
+    // the best dynamic block, found by alternating between parse
+    // and codes, starting from the fixed parse and from literals
+    bestBits = Long.MAX_VALUE;
+    bestLengths = bestDistances = bestLiterals = bestDistanceCode =
+        bestHeader = null;
+    bestCount = 0;
+    for (int start = 0; start < 2; start++) {
+      if (start == 0) {
+        tiny.m_lengths = fixedLengths;
+        tiny.m_distances = fixedDistances;
+        tiny.m_count = fixedCount;
+      } else {
+        tiny.m_lengths = new int[data.length];
+        Arrays.fill(tiny.m_lengths, 1);
+        tiny.m_distances = new int[data.length];
+        tiny.m_count = data.length;
+      }
+      previous = Long.MAX_VALUE;
+      for (int iteration = 0; iteration < _TinyDeflate.ITERATIONS;
+          iteration++) {
+        frequencies = tiny.__frequencies();
+        literals = _TinyDeflate.__huffman(frequencies[0],
+            _TinyDeflate.MAX_BITS);
+        distances = _TinyDeflate.__huffman(frequencies[1],
+            _TinyDeflate.MAX_BITS);
+        blockHeader = _TinyDeflate.__header(literals, distances);
+        bits = (_TinyDeflate.BLOCK_HEADER
+            + _TinyDeflate.__headerBits(blockHeader)
+            + tiny.__bits(literals, distances));
+        if (bits < bestBits) {
+          bestBits = bits;
+          bestLengths = tiny.m_lengths;
+          bestDistances = tiny.m_distances;
+          bestCount = tiny.m_count;
+          bestLiterals = literals;
+          bestDistanceCode = distances;
+          bestHeader = blockHeader;
+        }
+        if (bits >= previous) {
+          break;
+        }
+        previous = bits;
+        tiny.__parse(_TinyDeflate.__costs(literals),
+            _TinyDeflate.__costs(distances));
+      }
+    }
+
+    // write the smallest block
+    out = new _BitOutput(header.length + data.length + 16);
+    out._bytes(header, 0, header.length);
+    out._bits(1, 1); // BFINAL
+    if ((storedBits <= fixedBits) && (storedBits <= bestBits)) {
+      out._bits(0, 2);
+      out._align();
+      out._bits(data.length, 16);
+      out._bits(~(data.length), 16);
+      out._bytes(data, 0, data.length);
+    } else {
+      if (fixedBits <= bestBits) {
+        out._bits(1, 2);
+        tiny.m_lengths = fixedLengths;
+        tiny.m_distances = fixedDistances;
+        tiny.m_count = fixedCount;
+        tiny.__writeSymbols(out, fixed[0], fixed[1]);
+      } else {
+        out._bits(2, 2);
+        code = _TinyDeflate.__codeLengthCode(bestHeader);
+        out._bits(bestHeader[0] - 257, 5);
+        out._bits(bestHeader[1] - 1, 5);
+        out._bits(_TinyDeflate.__hclen(code) - 4, 4);
+        for (int i = 0; i < _TinyDeflate.__hclen(code); i++) {
+          out._bits(code[_Inflater.CODE_LENGTH_ORDER[i]], 3);
+        }
+        codes = _TinyDeflate.__codes(code);
+        for (int i = 2; i < bestHeader.length; i += 2) {
+          out._bits(codes[bestHeader[i]], code[bestHeader[i]]);
+          out._bits(bestHeader[i + 1],
+              _TinyDeflate.__codeLengthExtra(bestHeader[i]));
+        }
+        tiny.m_lengths = bestLengths;
+        tiny.m_distances = bestDistances;
+        tiny.m_count = bestCount;
+        tiny.__writeSymbols(out, bestLiterals, bestDistanceCode);
+      }
+    }
+
+    // the trailer
+    out._align();
+    out._bits(crc & 0xffff, 16);
+    out._bits(crc >>> 16, 16);
+    out._bits(data.length & 0xffff, 16);
+    out._bits(data.length >>> 16, 16);
+    return out._toByteArray();
+  }
+
+  /**
+   * Encode the data of a job if it is small enough, without a
+   * preset dictionary, register the result, and enqueue the
+   * in-JVM compressors to compete with it.
+   *
+   * @param job
+   *          the job
+   * @param header
+   *          the gzip header to use
+   * @return {@code true} if the data was small enough, so that no
+   *         external compressors need to be run, {@code false} if
+   *         the compressors need to be run
+   */
+  static final boolean _apply(final UltraGzipJob job,
+      final byte[] header) {
+    final byte[] data;
+
+    if ((job.m_input.m_size > job.m_tinySize)
+        || (job.m_dictionary != null)
+        || ((data = job.m_input._array()) == null)) {
+      return false;
+    }
+    job._register(_TinyDeflate._encode(data, header, job.m_crc),
+        _TinyDeflate.FROM);
+    _JavaGZip._enqueue(job);
+    _JZLibGZip._enqueue(job);
+    return true;
+  }
+
+  /** an item of the package-merge algorithm */
+  private static final class __Item {
+
+    /** the weight */
+    final long m_weight;
+
+    /** the symbols contained, with repetitions */
+    final int[] m_symbols;
+
+    /**
+     * create a leaf
+     *
+     * @param weight
+     *          the weight
+     * @param symbol
+     *          the symbol
+     */
+    __Item(final long weight, final int symbol) {
+      super();
+      this.m_weight = weight;
+      this.m_symbols = new int[] { symbol };
+    }
+
+    /**
+     * create a package
+     *
+     * @param a
+     *          the first item
+     * @param b
+     *          the second item
+     */
+    __Item(final __Item a, final __Item b) {
+      super();
+      this.m_weight = (a.m_weight + b.m_weight);
+      this.m_symbols = Arrays.copyOf(a.m_symbols,
+          a.m_symbols.length + b.m_symbols.length);
+      System.arraycopy(b.m_symbols, 0, this.m_symbols,
+          a.m_symbols.length, b.m_symbols.length);
+    }
+  }
+}
@@ -0,0 +1,522 @@
+package thomasWeise.ultraGzip;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import thomasWeise.tools.ConsoleIO;
+import thomasWeise.tools.Execute;
+
+/**
+ * Re-optimize the deflated entries of a ZIP archive, such as a JAR
+ * file. Every deflated entry is decompressed and recompressed by an
+ * {@link UltraGzipJob} of its own, all of them in parallel, which
+ * returns a raw DEFLATE stream. If this stream is smaller than the
+ * original one, it replaces it. The archive is then rewritten with
+ * the sizes and offsets in the local headers, data descriptors, and
+ * central directory corrected. Stored and encrypted entries are
+ * copied unchanged, and so are any bytes between the entries or
+ * before the central directory, such as an APK signing block.
+ * Archives with overlapping entries and ZIP64 archives are not
+ * supported.
+ */
+final class _ZipRecompression implements Callable<byte[]> {
+
+  /** the local file header signature */
+  private static final int LOCAL = 0x04034b50;
+  /** the data descriptor signature */
+  private static final int DESCRIPTOR = 0x08074b50;
+  /** the central directory header signature */
+  private static final int CENTRAL = 0x02014b50;
+  /** the end of central directory signature */
+  private static final int END = 0x06054b50;
+  /** the size of the fixed part of a local file header */
+  private static final int LOCAL_SIZE = 30;
+  /** the size of the fixed part of a central directory header */
+  private static final int CENTRAL_SIZE = 46;
+  /** the size of the fixed part of the end of central directory */
+  private static final int END_SIZE = 22;
+  /** the compression method: deflate */
+  private static final int DEFLATED = 8;
+  /** the flag for encrypted entries */
+  private static final int ENCRYPTED = 1;
+  /** the flag for entries followed by a data descriptor */
+  private static final int HAS_DESCRIPTOR = 8;
+  /** the value marking a ZIP64 field */
+  private static final long ZIP64 = 0xffffffffL;
+
+  /** the archive */
+  private final byte[] m_zip;
+
+  /** the start of the raw DEFLATE stream of the entry */
+  private final int m_start;
+
+  /** the end of the raw DEFLATE stream of the entry */
+  private final int m_end;
+
+  /** the uncompressed size of the entry */
+  private final int m_size;
+
+  /** the CRC-32 of the uncompressed data of the entry */
+  private final int m_crc;
+
+  /** the name of the entry */
+  private final String m_name;
+
+  /**
+   * create
+   *
+   * @param zip
+   *          the archive
+   * @param start
+   *          the start of the raw DEFLATE stream of the entry
+   * @param end
+   *          the end of the raw DEFLATE stream of the entry
+   * @param size
+   *          the uncompressed size of the entry
+   * @param crc
+   *          the CRC-32 of the uncompressed data of the entry
+   * @param name
+   *          the name of the entry
+   */
+  private _ZipRecompression(final byte[] zip, final int start,
+      final int end, final int size, final int crc,
+      final String name) {
+    super();
+    this.m_zip = zip;
+    this.m_start = start;
+    this.m_end = end;
+    this.m_size = size;
+    this.m_crc = crc;
+    this.m_name = name;
+  }
+
+  /**
+   * Check whether the given bytes start with a ZIP local file
+   * header.
+   *
+   * @param data
+   *          the bytes
+   * @param length
+   *          the number of valid bytes
+   * @return {@code true} if they do, {@code false} otherwise
+   */
+  static final boolean _isZip(final byte[] data,
+      final int length) {
+    return ((length >= 4) && (_ZipRecompression.__int(data,
+        0) == _ZipRecompression.LOCAL));
+  }
+
+  /**
+   * Read a little-endian 16 bit integer
+   *
+   * @param data
+   *          the data
+   * @param index
+   *          the index of the first byte
+   * @return the integer
+   */
+  private static final int __short(final byte[] data,
+      final int index) {
+    return ((data[index] & 0xff) | ((data[index + 1] & 0xff) << 8));
+  }
+
+  /**
+   * Read a little-endian 32 bit integer
+   *
+   * @param data
+   *          the data
+   * @param index
+   *          the index of the first byte
+   * @return the integer
+   */
+  private static final int __int(final byte[] data,
+      final int index) {
+    return (_ZipRecompression.__short(data, index)
+        | (_ZipRecompression.__short(data, index + 2) << 16));
+  }
+
+  /**
+   * Write a little-endian 32 bit integer
+   *
+   * @param data
+   *          the data
+   * @param index
+   *          the index of the first byte
+   * @param value
+   *          the value
+   */
+  private static final void __putInt(final byte[] data,
+      final int index, final int value) {
+    data[index] = ((byte) value);
+    data[index + 1] = ((byte) (value >>> 8));
+    data[index + 2] = ((byte) (value >>> 16));
+    data[index + 3] = ((byte) (value >>> 24));
+  }
+
+  /**
+   * Check that a field does not need ZIP64.
+   *
+   * @param value
+   *          the field value
+   * @throws IOException
+   *           if it does
+   */
+  private static final void __checkNotZip64(final int value)
+      throws IOException {
+    if ((value & 0xffffffffL) == _ZipRecompression.ZIP64) {
+      throw new IOException("ZIP64 archives are not supported."); //$NON-NLS-1$
+    }
+  }
+
+  /**
+   * Get the start of the compressed data of an entry. All offsets
+   * are checked in {@code long} arithmetic, so that corrupted
+   * values cannot overflow.
+   *
+   * @param zip
+   *          the archive
+   * @param start
+   *          the start of the local header of the entry
+   * @param directory
+   *          the start of the central directory
+   * @return the start of the compressed data
+   * @throws IOException
+   *           if the data would not lie before the central
+   *           directory
+   */
+  private static final int __dataStart(final byte[] zip,
+      final int start, final int directory) throws IOException {
+    final long dataStart;
+
+    dataStart = (((long) start) + _ZipRecompression.LOCAL_SIZE
+        + _ZipRecompression.__short(zip, start + 26)
+        + _ZipRecompression.__short(zip, start + 28));
+    if (dataStart > directory) {
+      throw new IOException("Corrupted ZIP local header."); //$NON-NLS-1$
+    }
+    return ((int) dataStart);
+  }
+
+  /**
+   * Get the end of the compressed data of an entry.
+   *
+   * @param zip
+   *          the archive
+   * @param dataStart
+   *          the start of the compressed data
+   * @param central
+   *          the start of the central directory header of the
+   *          entry
+   * @param directory
+   *          the start of the central directory
+   * @return the end of the compressed data
+   * @throws IOException
+   *           if the data would not end before the central
+   *           directory
+   */
+  private static final int __dataEnd(final byte[] zip,
+      final int dataStart, final int central, final int directory)
+      throws IOException {
+    final long dataEnd;
+
+    dataEnd = (dataStart
+        + (_ZipRecompression.__int(zip, central + 20) & 0xffffffffL));
+    if (dataEnd > directory) {
+      throw new IOException("Corrupted ZIP entry size."); //$NON-NLS-1$
+    }
+    return ((int) dataEnd);
+  }
+
+  /**
+   * Inflate the raw DEFLATE stream of an entry.
+   *
+   * @param zip
+   *          the archive
+   * @param start
+   *          the start of the stream
+   * @param end
+   *          the end of the stream
+   * @param size
+   *          the uncompressed size
+   * @param crc
+   *          the CRC-32 of the uncompressed data
+   * @return the data
+   * @throws IOException
+   *           if the entry is corrupted
+   */
+  private static final byte[] __inflate(final byte[] zip,
+      final int start, final int end, final int size, final int crc)
+      throws IOException {
+    final Inflater inflater;
+    final byte[] data;
+    final CRC32 check;
+    int length, read;
+
+    data = new byte[size];
+    inflater = new Inflater(true);
+    try {
+      inflater.setInput(zip, start, end - start);
+      length = 0;
+      while ((length < size) && (!(inflater.finished()))) {
+        read = inflater.inflate(data, length, size - length);
+        if ((read <= 0) && (inflater.needsInput()
+            || inflater.needsDictionary())) {
+          break;
+        }
+        length += read;
+      }
+      if ((length != size) || ((!(inflater.finished()))
+          && (inflater.inflate(new byte[1]) != 0))) {
+        throw new IOException("Corrupted ZIP entry."); //$NON-NLS-1$
+      }
+    } catch (final DataFormatException error) {
+      throw new IOException(error);
+    } finally {
+      inflater.end();
+    }
+
+    check = new CRC32();
+    check.update(data);
+    if (((int) (check.getValue())) != crc) {
+      throw new IOException("ZIP entry has wrong CRC-32."); //$NON-NLS-1$
+    }
+    return data;
+  }
+
+  /**
+   * Re-optimize the deflated entries of a ZIP archive.
+   *
+   * @param zip
+   *          the archive
+   * @param name
+   *          the name of the archive
+   * @return the re-optimized archive
+   * @throws IOException
+   *           if the archive is corrupted or not supported
+   */
+  static final byte[] _recompress(final byte[] zip,
+      final String name) throws IOException {
+    final int count, directory, directorySize;
+    final int[] central, local, newOffsets, newSizes;
+    final Integer[] sorted;
+    final Future<?>[] futures;
+    final ByteArrayOutputStream out;
+    int end, index, flags, method, start, dataStart, dataEnd,
+        descriptor, entry, previous, directoryEnd;
+    byte[] header, deflated;
+
+    // find the end of central directory record
+    end = (zip.length - _ZipRecompression.END_SIZE);
+    while ((end >= 0) && ((_ZipRecompression.__int(zip,
+        end) != _ZipRecompression.END)
+        || ((end + _ZipRecompression.END_SIZE + _ZipRecompression
+            .__short(zip, end + 20)) != zip.length))) {
+      end--;
+    }
+    if (end < 0) {
+      throw new IOException("No ZIP end of central directory."); //$NON-NLS-1$
+    }
+    count = _ZipRecompression.__short(zip, end + 10);
+    directorySize = _ZipRecompression.__int(zip, end + 12);
+    directory = _ZipRecompression.__int(zip, end + 16);
+    _ZipRecompression.__checkNotZip64(directory);
+    if (count == 0xffff) {
+      throw new IOException("ZIP64 archives are not supported."); //$NON-NLS-1$
+    }
+    if ((directory < 0) || ((((long) directory)
+        + (directorySize & 0xffffffffL)) > end)) {
+      throw new IOException("Corrupted ZIP end of central directory."); //$NON-NLS-1$
+    }
+
+    // read the central directory
+    central = new int[count];
+    local = new int[count];
+    index = directory;
+    for (int i = 0; i < count; i++) {
+      if (((((long) index) + _ZipRecompression.CENTRAL_SIZE) > end)
+          || (_ZipRecompression.__int(zip,
+              index) != _ZipRecompression.CENTRAL)) {
+        throw new IOException("Corrupted ZIP central directory."); //$NON-NLS-1$
+      }
+      central[i] = index;
+      local[i] = _ZipRecompression.__int(zip, index + 42);
+      _ZipRecompression.__checkNotZip64(local[i]);
+      if ((local[i] < 0) || (local[i] > (directory
+          - _ZipRecompression.LOCAL_SIZE))) {
+        throw new IOException("Corrupted ZIP local header offset."); //$NON-NLS-1$
+      }
+      _ZipRecompression.__checkNotZip64(
+          _ZipRecompression.__int(zip, index + 20));
+      _ZipRecompression.__checkNotZip64(
+          _ZipRecompression.__int(zip, index + 24));
+      index += (_ZipRecompression.CENTRAL_SIZE
+          + _ZipRecompression.__short(zip, index + 28)
+          + _ZipRecompression.__short(zip, index + 30)
+          + _ZipRecompression.__short(zip, index + 32));
+    }
+    if (index > end) {
+      throw new IOException("Corrupted ZIP central directory."); //$NON-NLS-1$
+    }
+    directoryEnd = index;
+
+    // start jobs for all deflated entries
+    futures = new Future<?>[count];
+    for (int i = 0; i < count; i++) {
+      index = central[i];
+      flags = _ZipRecompression.__short(zip, index + 8);
+      method = _ZipRecompression.__short(zip, index + 10);
+      if ((method != _ZipRecompression.DEFLATED)
+          || ((flags & _ZipRecompression.ENCRYPTED) != 0)
+          || (_ZipRecompression.__int(zip, index + 24) == 0)) {
+        continue;
+      }
+      dataStart = _ZipRecompression.__dataStart(zip, local[i],
+          directory);
+      dataEnd = _ZipRecompression.__dataEnd(zip, dataStart, index,
+          directory);
+      futures[i] = Execute.parallel(new _ZipRecompression(zip,
+          dataStart, dataEnd,
+          _ZipRecompression.__int(zip, index + 24),
+          _ZipRecompression.__int(zip, index + 16),
+          name + ':' + new String(zip, index
+              + _ZipRecompression.CENTRAL_SIZE,
+              _ZipRecompression.__short(zip, index + 28),
+              StandardCharsets.UTF_8)));
+    }
+
+    // write the entries in the order in which they appear
+    sorted = new Integer[count];
+    for (int i = 0; i < count; i++) {
+      sorted[i] = Integer.valueOf(i);
+    }
+    Arrays.sort(sorted, (a, b) -> Integer
+        .compare(local[a.intValue()], local[b.intValue()]));
+
+    out = new ByteArrayOutputStream(zip.length);
+    newOffsets = new int[count];
+    newSizes = new int[count];
+    previous = 0;
+    try {
+      for (final Integer which : sorted) {
+        entry = which.intValue();
+        index = central[entry];
+        start = local[entry];
+        if ((start < previous) || (start > (directory
+            - _ZipRecompression.LOCAL_SIZE))) {
+          throw new IOException(
+              "Overlapping or misplaced ZIP entries."); //$NON-NLS-1$
+        }
+        if (_ZipRecompression.__int(zip,
+            start) != _ZipRecompression.LOCAL) {
+          throw new IOException("Corrupted ZIP local header."); //$NON-NLS-1$
+        }
+        // copy any bytes between the entries through
+        out.write(zip, previous, start - previous);
+        flags = _ZipRecompression.__short(zip, index + 8);
+        dataStart = _ZipRecompression.__dataStart(zip, start,
+            directory);
+        dataEnd = _ZipRecompression.__dataEnd(zip, dataStart, index,
+            directory);
+        descriptor = 0;
+        if ((flags & _ZipRecompression.HAS_DESCRIPTOR) != 0) {
+          descriptor = ((_ZipRecompression.__int(zip,
+              dataEnd) == _ZipRecompression.DESCRIPTOR) ? 16 : 12);
+        }
+        previous = (dataEnd + descriptor);
+        if (previous > directory) {
+          throw new IOException("Corrupted ZIP local header."); //$NON-NLS-1$
+        }
+
+        deflated = null;
+        if (futures[entry] != null) {
+          deflated = ((byte[]) (futures[entry].get()));
+          futures[entry] = null;
+        }
+
+        newOffsets[entry] = out.size();
+        if (deflated == null) {
+          newSizes[entry] = (dataEnd - dataStart);
+          out.write(zip, start, previous - start);
+          continue;
+        }
+
+        newSizes[entry] = deflated.length;
+        header = Arrays.copyOfRange(zip, start, dataStart);
+        if (_ZipRecompression.__int(header, 18) != 0) {
+          _ZipRecompression.__putInt(header, 18, deflated.length);
+        }
+        out.write(header, 0, header.length);
+        out.write(deflated, 0, deflated.length);
+        if (descriptor > 0) {
+          header = Arrays.copyOfRange(zip, dataEnd,
+              dataEnd + descriptor);
+          _ZipRecompression.__putInt(header, descriptor - 8,
+              deflated.length);
+          out.write(header, 0, header.length);
+        }
+      }
+
+      // copy the bytes before the central directory through
+      out.write(zip, previous, directory - previous);
+
+      // write the central directory and its end record
+      start = out.size();
+      for (int i = 0; i < count; i++) {
+        index = central[i];
+        header = Arrays.copyOfRange(zip, index,
+            index + _ZipRecompression.CENTRAL_SIZE
+                + _ZipRecompression.__short(zip, index + 28)
+                + _ZipRecompression.__short(zip, index + 30)
+                + _ZipRecompression.__short(zip, index + 32));
+        _ZipRecompression.__putInt(header, 20, newSizes[i]);
+        _ZipRecompression.__putInt(header, 42, newOffsets[i]);
+        out.write(header, 0, header.length);
+      }
+      header = Arrays.copyOfRange(zip, end, zip.length);
+      _ZipRecompression.__putInt(header, 12, out.size() - start);
+      _ZipRecompression.__putInt(header, 16, start);
+      out.write(zip, directoryEnd, end - directoryEnd);
+      out.write(header, 0, header.length);
+    } catch (final IOException error) {
+      throw error;
+    } catch (final ExecutionException error) {
+      if (error.getCause() instanceof IOException) {
+        throw ((IOException) (error.getCause()));
+      }
+      throw new IOException("Re-optimizing the entries of " //$NON-NLS-1$
+          + name + " failed.", error); //$NON-NLS-1$
+    } catch (final Throwable error) {
+      throw new IOException("Re-optimizing the entries of " //$NON-NLS-1$
+          + name + " failed.", error); //$NON-NLS-1$
+    }
+    return out.toByteArray();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public final byte[] call() throws IOException {
+    final byte[] result;
+    final int length;
+
+    result = UltraGzip.getInstance().get()//
+        .setData(_ZipRecompression.__inflate(this.m_zip,
+            this.m_start, this.m_end, this.m_size, this.m_crc))//
+        .setName(this.m_name).setMemberSize(0)//
+        .setOutputFormat(EDeflateFormat.RAW).get().call();
+    length = (this.m_end - this.m_start);
+    if (result.length >= length) {
+      return null;
+    }
+    ConsoleIO.stdout(this.m_name + " shrinks from " //$NON-NLS-1$
+        + length + "B to " + result.length + 'B'); //$NON-NLS-1$
+    return result;
+  }
+}
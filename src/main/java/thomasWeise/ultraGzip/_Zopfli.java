@@ -69,11 +69,15 @@ final class _Zopfli implements Runnable {
     result = null;
 
     try (TempDir td = new TempDir()) {
-      path =
-          Files.createTempFile(td.getPath(), "zopfli", ".bin");//$NON-NLS-1$//$NON-NLS-2$
-
-      try (final OutputStream os = Files.newOutputStream(path)) {
-        os.write(this.m_owner.m_data);
+      // zopfli reads the data from a file: use the input file if
+      // there is one, otherwise write the data to a temp file
+      path = this.m_owner.m_input.m_path;
+      if (path == null) {
+        path = Files.createTempFile(td.getPath(), "zopfli", //$NON-NLS-1$
+            ".bin");//$NON-NLS-1$
+        try (final OutputStream os = Files.newOutputStream(path)) {
+          this.m_owner.m_input._write(os);
+        }
       }
 
       epb = ExternalProcessExecutor.getInstance().get();
@@ -93,18 +97,19 @@ final class _Zopfli implements Runnable {
       try (final ExternalProcess ep = epb.get()) {
         epb = null;
 
-        try (final OutputStream os = ep.getStdIn()) {
-          os.write(this.m_owner.m_data);
+        compressed = ByteBuffers.get().load(ep.getStdOut(),
+            this.m_owner::_isPromising);
+        if (compressed == null) {
+          // The output is already larger than the best result, so
+          // the process is killed when we leave this block.
+          return;
         }
-
-        compressed = ByteBuffers.get().load(ep.getStdOut());
         result =
             this.m_owner._register(compressed, _Zopfli.FROM);
 
         if ((retCode = ep.waitFor()) != 0) {
           this.m_owner._processError(retCode, _Zopfli.FROM,
               _Zopfli.__ZOPFLI_PATH);
-        } else {
           result = null;
           compressed = null;
         }
@@ -1,6 +1,78 @@
-import gzip
+import struct
 import sys
+import zlib
 
-contentIn = sys.stdin.buffer.read()
-contentOut = gzip.compress(contentIn)
-sys.stdout.buffer.write(contentOut)
+# A long-lived worker evaluating many zlib settings per request.
+# All integers are 4-byte big-endian values.
+# Request:  length, data, dictLength, dictionary, count,
+#           count * (level, method, wbits, memLevel, strategy)
+# Response: count * (length, compressed data), length 0 if the
+#           setting could not be applied
+# zlib cannot use a preset dictionary together with a gzip
+# wrapper, so if a dictionary is given, the raw stream is wrapped
+# into a gzip header and trailer here.
+# The worker terminates when stdin is closed.
+
+GZIP_HEADER = b"\x1f\x8b\x08\x00\x00\x00\x00\x00\x00\xff"
+
+
+def read_fully(stream, size):
+    chunks = []
+    while size > 0:
+        chunk = stream.read(size)
+        if not chunk:
+            return None
+        chunks.append(chunk)
+        size -= len(chunk)
+    return b"".join(chunks)
+
+
+def read_int(stream):
+    raw = read_fully(stream, 4)
+    if raw is None:
+        return None
+    return struct.unpack(">i", raw)[0]
+
+
+stdin = sys.stdin.buffer
+stdout = sys.stdout.buffer
+
+while True:
+    length = read_int(stdin)
+    if length is None:
+        break
+    contentIn = read_fully(stdin, length)
+    dictLength = read_int(stdin)
+    if (contentIn is None) or (dictLength is None):
+        break
+    zdict = read_fully(stdin, dictLength) if dictLength > 0 else b""
+    count = read_int(stdin)
+    if (zdict is None) or (count is None):
+        break
+
+    for _ in range(count):
+        setting = read_fully(stdin, 20)
+        if setting is None:
+            sys.exit(1)
+        level, method, wbits, memLevel, strategy = \
+            struct.unpack(">5i", setting)
+        try:
+            if zdict:
+                compressor = zlib.compressobj(level, method, -15,
+                                              memLevel, strategy,
+                                              zdict)
+                contentOut = GZIP_HEADER + \
+                    compressor.compress(contentIn) + \
+                    compressor.flush() + \
+                    struct.pack("<II", zlib.crc32(contentIn),
+                                len(contentIn) & 0xffffffff)
+            else:
+                compressor = zlib.compressobj(level, method, wbits,
+                                              memLevel, strategy)
+                contentOut = compressor.compress(contentIn) + \
+                    compressor.flush()
+        except Exception:
+            contentOut = b""
+        stdout.write(struct.pack(">i", len(contentOut)))
+        stdout.write(contentOut)
+    stdout.flush()
@@ -1,19 +1,50 @@
 package thomasWeise.ultraGzip;
 
+import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import javax.imageio.ImageIO;
 
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Test;
 
+import thomasWeise.tools.ByteBuffers;
+import thomasWeise.tools.Configuration;
+import thomasWeise.tools.EProcessStream;
+import thomasWeise.tools.ExternalProcess;
+import thomasWeise.tools.ExternalProcessBuilder;
+import thomasWeise.tools.ExternalProcessExecutor;
+
 /** A class for testing UltraZip */
 public class UltraGzipTest {
 
+  /** the fixed seed for reproducible random test data */
+  private static final long SEED = 0x1f8b0800L;
+
   /**
    * Test compressing and de-compressing the given bytes
    *
@@ -24,29 +55,80 @@ public class UltraGzipTest {
    */
   private final void __test(final byte[] bytes)
       throws IOException {
+    this.__test(bytes, false);
+  }
+
+  /**
+   * Test compressing and de-compressing the given bytes
+   *
+   * @param bytes
+   *          the bytes
+   * @param deferVerification
+   *          should the verification be deferred?
+   * @throws IOException
+   *           if it fails
+   */
+  private final void __test(final byte[] bytes,
+      final boolean deferVerification) throws IOException {
+    this.__test(bytes, deferVerification, 0);
+  }
+
+  /**
+   * Test compressing and de-compressing the given bytes
+   *
+   * @param bytes
+   *          the bytes
+   * @param deferVerification
+   *          should the verification be deferred?
+   * @param chunkSize
+   *          the chunk size, or {@code 0} for no chunking
+   * @throws IOException
+   *           if it fails
+   */
+  private final void __test(final byte[] bytes,
+      final boolean deferVerification, final int chunkSize)
+      throws IOException {
     final byte[] archive;
 
     archive = UltraGzip.getInstance().get().setData(bytes)//
-        .setName("test").get().call(); //$NON-NLS-1$
+        .setName("test")//$NON-NLS-1$
+        .setDeferVerification(deferVerification)//
+        .setChunkSize(chunkSize).get().call();
 
-    Assert.assertNotNull(archive);
+    this.__check(bytes, archive);
     try (final ByteArrayOutputStream bos =
         new ByteArrayOutputStream(bytes.length)) {
-
       try (final ByteArrayInputStream bis =
           new ByteArrayInputStream(archive)) {
-        try (final java.util.zip.GZIPInputStream gis =
-            new java.util.zip.GZIPInputStream(bis)) {
+        try (final com.jcraft.jzlib.GZIPInputStream gis =
+            new com.jcraft.jzlib.GZIPInputStream(bis)) {
           this.copy(gis, bos);
         }
       }
       Assert.assertArrayEquals(bytes, bos.toByteArray());
+    }
+  }
 
-      bos.reset();
+  /**
+   * Check that a gzip archive, which may consist of several
+   * members, decompresses to the given bytes
+   *
+   * @param bytes
+   *          the bytes
+   * @param archive
+   *          the archive
+   * @throws IOException
+   *           if it fails
+   */
+  private final void __check(final byte[] bytes,
+      final byte[] archive) throws IOException {
+    Assert.assertNotNull(archive);
+    try (final ByteArrayOutputStream bos =
+        new ByteArrayOutputStream(bytes.length)) {
       try (final ByteArrayInputStream bis =
           new ByteArrayInputStream(archive)) {
-        try (final com.jcraft.jzlib.GZIPInputStream gis =
-            new com.jcraft.jzlib.GZIPInputStream(bis)) {
+        try (final java.util.zip.GZIPInputStream gis =
+            new java.util.zip.GZIPInputStream(bis)) {
           this.copy(gis, bos);
         }
       }
@@ -54,6 +136,38 @@ public class UltraGzipTest {
     }
   }
 
+  /**
+   * Create a random number generator with a fixed seed, so that a
+   * failing test can be reproduced
+   *
+   * @return the random number generator
+   */
+  private static final Random __random() {
+    return new Random(UltraGzipTest.SEED);
+  }
+
+  /**
+   * Create compressible data where each byte is either a random
+   * nibble or a copy of one of the preceding 64 bytes
+   *
+   * @param random
+   *          the random number generator
+   * @param length
+   *          the length of the data
+   * @return the data
+   */
+  private static final byte[] __compressible(final Random random,
+      final int length) {
+    final byte[] data;
+
+    data = new byte[length];
+    for (int i = 0; i < length; i++) {
+      data[i] = ((byte) ((i > 64) && random.nextBoolean()
+          ? data[i - 1 - random.nextInt(64)] : random.nextInt(16)));
+    }
+    return data;
+  }
+
   /**
    * Test compressing an array of length 1 and all 0
    *
@@ -291,189 +405,1744 @@ public class UltraGzipTest {
   }
 
   /**
-   * Test arrays of random length with semi-random data
+   * Test arrays of random length with random data while only
+   * verifying the final result
    *
    * @throws IOException
    *           if i/o fails
    */
   @Test(timeout = 3600000)
-  public final void testSemiRandomSmall() throws IOException {
+  public final void testRandomDeferredVerification()
+      throws IOException {
     final Random random;
-    int j, k;
     byte[] data;
 
-    random = new Random();
+    random = UltraGzipTest.__random();
 
-    data = new byte[1 + (1 << random.nextInt(5))
-        + random.nextInt(16)];
+    data = new byte[1 + (1 << random.nextInt(12))
+        + random.nextInt(32)];
     random.nextBytes(data);
+    this.__test(data, true);
+  }
 
-    do {
+  /**
+   * Test compressing data in chunks which are stitched together,
+   * where some chunks are random and thus stored and others are
+   * compressible
+   *
+   * @throws IOException
+   *           if i/o fails
+   */
+  @Test(timeout = 3600000)
+  public final void testChunked() throws IOException {
+    final Random random;
+    final byte[] data;
+    int start;
+
+    random = UltraGzipTest.__random();
+    data = new byte[40000 + random.nextInt(40000)];
+    for (start = 0; start < data.length; start += 4096) {
       if (random.nextBoolean()) {
-        j = random.nextInt(data.length);
-        k = j + 1 + Math.min((data.length >>> 5),
-            random.nextInt(data.length - j));
+        for (int i = Math.min(data.length, start + 4096);
+            (--i) >= start;) {
+          data[i] = ((byte) random.nextInt());
+        }
       } else {
-        j = random.nextInt(data.length + 1);
-        k = random.nextInt(data.length + 1);
+        for (int i = Math.min(data.length, start + 4096);
+            (--i) >= start;) {
+          data[i] = ((byte) ('a' + random.nextInt(3)));
+        }
       }
-      Arrays.fill(data, Math.min(j, k), Math.max(j, k),
-          ((byte) (random.nextInt())));
-    } while (random.nextInt(80) > 0);
+    }
+    this.__test(data, false, 5000 + random.nextInt(10000));
+  }
 
-    do {
-      data[random.nextInt(data.length)] =
-          ((byte) (random.nextInt()));
-    } while (random.nextInt(20) > 0);
+  /**
+   * Test compressing data into multiple indexed gzip members
+   *
+   * @throws IOException
+   *           if i/o fails
+   */
+  @Test(timeout = 3600000)
+  public final void testMembers() throws IOException {
+    final Random random;
+    final byte[] data, archive, index;
+    final UltraGzipJob job;
+    final int memberSize;
 
-    this.__test(data);
+    random = UltraGzipTest.__random();
+    data = UltraGzipTest.__compressible(random,
+        20000 + random.nextInt(40000));
+    memberSize = 4096 + random.nextInt(8192);
+
+    job = UltraGzip.getInstance().get().setData(data)//
+        .setName("test")//$NON-NLS-1$
+        .setMemberSize(memberSize).get();
+    archive = job.call();
+    index = job.getIndex();
+
+    Assert.assertNotNull(index);
+    Assert.assertEquals(8 + (16 * ((data.length - 1) / memberSize)),
+        index.length);
+    this.__check(data, archive);
   }
 
   /**
-   * Test arrays of random length with semi-random data
+   * Test that every member of the largest size, even of random
+   * data, carries the BGZF {@code BC} field, that the first member
+   * holds the modification time, and that BGZF-incompatible
+   * settings are rejected
    *
    * @throws IOException
    *           if i/o fails
    */
   @Test(timeout = 3600000)
-  public final void testSemiRandomBig() throws IOException {
+  public final void testBgzf() throws IOException {
     final Random random;
-    int j, k;
-    byte[] data;
-
-    random = new Random();
+    final byte[] data, archive;
+    int offset, members, size;
 
-    data = new byte[1 + (1 << random.nextInt(14))
-        + random.nextInt(32)];
+    random = UltraGzipTest.__random();
+    data = new byte[(2 * _Members.MAX_MEMBER_SIZE)
+        + random.nextInt(_Members.MAX_MEMBER_SIZE)];
     random.nextBytes(data);
 
-    do {
-      if (random.nextBoolean()) {
-        j = random.nextInt(data.length);
-        k = j + 1 + Math.min((data.length >>> 5),
-            random.nextInt(data.length - j));
-      } else {
-        j = random.nextInt(data.length + 1);
-        k = random.nextInt(data.length + 1);
-      }
-      Arrays.fill(data, Math.min(j, k), Math.max(j, k),
-          ((byte) (random.nextInt())));
-    } while (random.nextInt(80) > 0);
+    archive = UltraGzip.getInstance().get().setData(data)//
+        .setName("test")//$NON-NLS-1$
+        .setHeaderTime(0x12345678L)//
+        .setMemberSize(_Members.MAX_MEMBER_SIZE).get().call();
+    this.__check(data, archive);
 
-    do {
-      data[random.nextInt(data.length)] =
-          ((byte) (random.nextInt()));
-    } while (random.nextInt(20) > 0);
+    offset = members = 0;
+    while (offset < archive.length) {
+      Assert.assertArrayEquals(
+          new byte[] { 0x1f, (byte) 0x8b, 8, 4 },
+          Arrays.copyOfRange(archive, offset, offset + 4));
+      Assert.assertArrayEquals(
+          (members <= 0) ? new byte[] { 0x78, 0x56, 0x34, 0x12 }
+              : new byte[4],
+          Arrays.copyOfRange(archive, offset + 4, offset + 8));
+      Assert.assertArrayEquals(new byte[] { 6, 0, 'B', 'C', 2, 0 },
+          Arrays.copyOfRange(archive, offset + 10, offset + 16));
+      size = 1 + ((archive[offset + 16] & 0xff)
+          | ((archive[offset + 17] & 0xff) << 8));
+      offset += size;
+      members++;
+    }
+    Assert.assertEquals(archive.length, offset);
+    Assert.assertEquals(4, members); // three members and the EOF
 
-    this.__test(data);
+    try {
+      UltraGzip.getInstance().get()
+          .setMemberSize(_Members.MAX_MEMBER_SIZE + 1);
+      Assert.fail("too large member size accepted"); //$NON-NLS-1$
+    } catch (@SuppressWarnings("unused") final IllegalArgumentException expected) {
+      // members must fit into the BC field
+    }
+    try {
+      UltraGzip.getInstance().get().setData(data).setName("test")//$NON-NLS-1$
+          .setMemberSize(4096).setHeaderName("test.txt").get(); //$NON-NLS-1$
+      Assert.fail("file name accepted for BGZF members"); //$NON-NLS-1$
+    } catch (@SuppressWarnings("unused") final IllegalArgumentException expected) {
+      // BGZF readers expect the data right after the BC field
+    }
   }
 
   /**
-   * Test test on a reproducible dataset
+   * Compress data into a gzip archive with the given settings of
+   * JZLib
    *
-   * @param n
-   *          the first multiplier
-   * @param m
-   *          the second multiplier
-   * @param l
-   *          the third multiplier
+   * @param data
+   *          the data
+   * @param level
+   *          the compression level
+   * @param memLevel
+   *          the memory level
+   * @return the archive
    * @throws IOException
    *           if i/o fails
    */
-  private final void __testReproducible(final int n, final int m,
-      final int l) throws IOException {
-    final byte[] source = new byte[n * m * l];
-    int index = 0;
-    for (int i = n; (--i) >= 0;) {
-      for (int j = m; (--j) >= 0;) {
-        for (int k = l; (--k) >= 0;) {
-          source[index++] = (byte) k;
-        }
+  private static final byte[] __gzip(final byte[] data,
+      final int level, final int memLevel) throws IOException {
+    try (final ByteArrayOutputStream bos =
+        new ByteArrayOutputStream()) {
+      try (final com.jcraft.jzlib.DeflaterOutputStream dos =
+          new com.jcraft.jzlib.DeflaterOutputStream(bos,
+              new com.jcraft.jzlib.Deflater(level, 15, memLevel,
+                  com.jcraft.jzlib.JZlib.WrapperType.GZIP))) {
+        dos.write(data);
       }
+      return bos.toByteArray();
     }
+  }
 
-    this.__test(source);
+  /**
+   * Replace the header of a gzip archive with one holding a file
+   * name
+   *
+   * @param archive
+   *          the archive
+   * @param name
+   *          the file name
+   * @return the archive with the new header
+   */
+  private static final byte[] __rename(final byte[] archive,
+      final String name) {
+    final byte[] header, named;
+    final int start;
+
+    header = _GZipFormat._header(name, 0x12345678L);
+    start = _GZipFormat._headerLength(archive);
+    named = new byte[(header.length + archive.length) - start];
+    System.arraycopy(header, 0, named, 0, header.length);
+    System.arraycopy(archive, start, named, header.length,
+        archive.length - start);
+    return named;
   }
 
   /**
-   * Test on a reproducible setup
+   * Test that candidates which only differ in their headers are
+   * recognized as the same payload, queued only once, and only
+   * the smallest of them is kept in the leaderboard
    *
    * @throws IOException
    *           if i/o fails
    */
   @Test(timeout = 3600000)
-  public final void testReproducible_2_2_2() throws IOException {
-    this.__testReproducible(2, 2, 2);
+  public final void testPayloadDigest() throws IOException {
+    final Random random;
+    final byte[] data, archive, named;
+    final UltraGzipJob job;
+    final _Leaderboard leaderboard;
+
+    random = UltraGzipTest.__random();
+    data = UltraGzipTest.__compressible(random,
+        10000 + random.nextInt(20000));
+    archive = UltraGzipTest.__gzip(data, 9, 8);
+    named = UltraGzipTest.__rename(archive, "test.txt"); //$NON-NLS-1$
+    this.__check(data, named);
+
+    Assert.assertEquals(_GZipFormat._payloadDigest(archive),
+        _GZipFormat._payloadDigest(named));
+    Assert.assertNotEquals(_GZipFormat._payloadDigest(archive),
+        _GZipFormat._payloadDigest(UltraGzipTest.__gzip(data, 1, 8)));
+
+    job = UltraGzip.getInstance().get().setData(data)//
+        .setName("test").get(); //$NON-NLS-1$
+    Assert.assertEquals(1, job._addPending(
+        new _Candidate(job, named, "named", null))); //$NON-NLS-1$
+    Assert.assertEquals(0, job._addPending(
+        new _Candidate(job, archive, "plain", null))); //$NON-NLS-1$
+    for (final _Candidate candidate : job._takePending()) {
+      Assert.assertEquals(named.length, candidate.m_size);
+      candidate._release();
+    }
+
+    leaderboard = new _Leaderboard(4, false);
+    Assert.assertTrue(leaderboard._offer(
+        new _Candidate(job, named, "named", null))); //$NON-NLS-1$
+    Assert.assertTrue(leaderboard._offer(
+        new _Candidate(job, archive, "plain", null))); //$NON-NLS-1$
+    Assert.assertFalse(leaderboard._offer(
+        new _Candidate(job, named, "named", null))); //$NON-NLS-1$
+    Assert.assertEquals(1, leaderboard._candidates().size());
+    Assert.assertEquals(archive.length, leaderboard._best().m_size);
+    leaderboard._clear();
   }
 
   /**
-   * Test on a reproducible setup
+   * Test loading the output of an external process which is
+   * abandoned as soon as it becomes too large, while its input is
+   * still being fed
    *
    * @throws IOException
    *           if i/o fails
    */
   @Test(timeout = 3600000)
-  public final void testReproducible_2_2_3() throws IOException {
-    this.__testReproducible(2, 2, 3);
+  public final void testLoadAbort() throws IOException {
+    final Random random;
+    final byte[] data;
+    final _Input input;
+    final Path cat;
+    ExternalProcessBuilder epb;
+
+    random = UltraGzipTest.__random();
+    data = UltraGzipTest.__compressible(random,
+        1000000 + random.nextInt(1000000));
+    Assert.assertArrayEquals(data, ByteBuffers
+        .get().load(new ByteArrayInputStream(data), (size) -> true));
+    Assert.assertNull(ByteBuffers.get().load(
+        new ByteArrayInputStream(data), (size) -> size < 10000L));
+
+    cat = Configuration.getExecutable("cat"); //$NON-NLS-1$
+    Assume.assumeNotNull(cat);
+    input = new _Input(data);
+    for (final boolean abort : new boolean[] { false, true }) {
+      epb = ExternalProcessExecutor.getInstance()
+          .get().setExecutable(cat)//
+          .setStdErr(EProcessStream.INHERIT)//
+          .setStdOut(EProcessStream.AS_STREAM);
+      input._setStdIn(epb);
+      try (final ExternalProcess ep = epb.get()) {
+        input._writeStdIn(ep);
+        if (abort) {
+          Assert.assertNull(ByteBuffers.get()
+              .load(ep.getStdOut(), (size) -> size < 10000L));
+        } else {
+          Assert.assertArrayEquals(data, ByteBuffers
+              .get().load(ep.getStdOut(), (size) -> true));
+        }
+      }
+    }
   }
 
   /**
-   * Test on a reproducible setup
+   * Test that feeding an in-JVM encoder is abandoned once its
+   * projected result is far larger than the best one, except in
+   * deterministic mode
    *
    * @throws IOException
    *           if i/o fails
    */
   @Test(timeout = 3600000)
-  public final void testReproducible_3_3_3() throws IOException {
-    this.__testReproducible(3, 3, 3);
+  public final void testFeedAbort() throws IOException {
+    final Random random;
+    final byte[] data, best;
+    UltraGzipJob job;
+    Deflater deflater;
+
+    random = UltraGzipTest.__random();
+    data = UltraGzipTest.__compressible(random,
+        (8 * UltraGzipJob.CHUNK_SIZE) + random.nextInt(100000));
+    best = UltraGzipTest.__gzip(data, 9, 9);
+
+    for (final boolean deterministic : new boolean[] { false,
+        true }) {
+      job = UltraGzip.getInstance().get().setData(data)//
+          .setName("test")//$NON-NLS-1$
+          .setDeterministic(deterministic).get();
+      Assert.assertNotEquals(_ERegistrationResult.INVALID,
+          job._register(best, "test")); //$NON-NLS-1$
+
+      for (final int level : new int[] { 0, 9 }) {
+        deflater = new Deflater(level, true);
+        try (final ByteArrayOutputStream bos =
+            new ByteArrayOutputStream()) {
+          try (final DeflaterOutputStream dos =
+              new DeflaterOutputStream(bos,
+                  deflater)) {
+            // storing the data is hopeless, level 9 is not
+            Assert.assertEquals(deterministic || (level > 0),
+                job._feed(dos, bos));
+          }
+        } finally {
+          deflater.end();
+        }
+      }
+      job.m_leaderboard._clear();
+    }
   }
 
   /**
-   * Test on a reproducible setup
+   * Test the streaming verification of archives with zlib and our
+   * own inflater
+   *
+   * @throws Exception
+   *           if something fails
+   */
+  @Test(timeout = 3600000)
+  public final void testVerifier() throws Exception {
+    final Random random;
+    final byte[] data, archive, changed;
+    final _GZipVerifier verifier;
+    final int start;
+    byte[] broken;
+
+    random = UltraGzipTest.__random();
+    data = UltraGzipTest.__compressible(random,
+        100000 + random.nextInt(100000));
+    archive = UltraGzipTest.__gzip(data, 9, 9);
+    start = _GZipFormat._headerLength(archive);
+    changed = data.clone();
+    changed[random.nextInt(changed.length)]++;
+    verifier = _GZipVerifier._get();
+
+    Assert.assertTrue(verifier._verifyJava(archive, start,
+        new _Input(data), null));
+    Assert.assertTrue(
+        verifier._verifyOwn(archive, start, data, 0, null));
+    Assert.assertFalse(verifier._verifyJava(archive, start,
+        new _Input(changed), null));
+    Assert.assertFalse(
+        verifier._verifyOwn(archive, start, changed, 0, null));
+
+    // a missing trailer or trailing garbage are rejected
+    for (final int delta : new int[] { -1, 1 }) {
+      broken = Arrays.copyOf(archive, archive.length + delta);
+      Assert.assertFalse(verifier._verifyJava(broken, start,
+          new _Input(data), null));
+      Assert.assertFalse(
+          verifier._verifyOwn(broken, start, data, 0, null));
+    }
+  }
+
+  /**
+   * Test that archives with a wrong checksum or size in their
+   * trailer are rejected without inflating them
    *
    * @throws IOException
    *           if i/o fails
    */
   @Test(timeout = 3600000)
-  public final void testReproducible_9_9_92()
-      throws IOException {
-    this.__testReproducible(9, 9, 9);
+  public final void testCheckTrailer() throws IOException {
+    final Random random;
+    final byte[] data, archive;
+    final CRC32 crc;
+    final UltraGzipJob job;
+    final int checksum;
+    byte[] broken;
+
+    random = UltraGzipTest.__random();
+    data = UltraGzipTest.__compressible(random,
+        1 + random.nextInt(20000));
+    archive = UltraGzipTest.__gzip(data, 9, 9);
+    crc = new CRC32();
+    crc.update(data);
+    checksum = ((int) (crc.getValue()));
+
+    Assert.assertTrue(
+        _GZipFormat._checkTrailer(archive, checksum, data.length));
+    Assert.assertFalse(_GZipFormat._checkTrailer(archive,
+        checksum + 1, data.length));
+    Assert.assertFalse(_GZipFormat._checkTrailer(archive, checksum,
+        data.length + 1L));
+    Assert.assertFalse(_GZipFormat._checkTrailer(
+        Arrays.copyOf(archive, 17), checksum, data.length));
+
+    job = UltraGzip.getInstance().get().setData(data)//
+        .setName("test").get(); //$NON-NLS-1$
+    for (final int offset : new int[] { 8, 4 }) { // CRC, then size
+      broken = archive.clone();
+      broken[broken.length - offset]++;
+      Assert.assertEquals(_ERegistrationResult.INVALID,
+          job._register(broken, "test")); //$NON-NLS-1$
+    }
+    Assert.assertNotEquals(_ERegistrationResult.INVALID,
+        job._register(archive, "test")); //$NON-NLS-1$
+    job.m_leaderboard._clear();
   }
 
   /**
-   * Test on a reproducible setup
+   * Test offering candidates which differ only in their headers
+   * to the leaderboard from several threads at once: for each
+   * payload, exactly the smallest candidate must be kept and all
+   * others must be released
+   *
+   * @throws Exception
+   *           if something fails
+   */
+  @Test(timeout = 3600000)
+  public final void testLeaderboardConcurrent() throws Exception {
+    final Random random;
+    final byte[] data;
+    final UltraGzipJob job;
+    final HashMap<ByteBuffer, byte[]> archives;
+    final ArrayList<_Candidate> candidates;
+    final Thread[] threads;
+    final int perThread;
+    byte[] archive;
+    _Leaderboard leaderboard;
+
+    random = UltraGzipTest.__random();
+    data = UltraGzipTest.__compressible(random,
+        10000 + random.nextInt(20000));
+    archives = new HashMap<>();
+    for (int level = 1; level <= 9; level++) {
+      for (int memLevel = 1; memLevel <= 9; memLevel += 4) {
+        archive = UltraGzipTest.__gzip(data, level, memLevel);
+        archives.put(_GZipFormat._payloadDigest(archive), archive);
+      }
+    }
+    Assert.assertTrue(archives.size() > 8);
+
+    job = UltraGzip.getInstance().get().setData(data)//
+        .setName("test").get(); //$NON-NLS-1$
+    candidates = new ArrayList<>();
+    threads = new Thread[4];
+    perThread = ((archives.size() * 3) + (threads.length - 1))
+        / threads.length;
+
+    for (int round = 0; round < 100; round++) {
+      leaderboard = new _Leaderboard(archives.size() + 4, false);
+      candidates.clear();
+      for (final byte[] plain : archives.values()) {
+        candidates.add(new _Candidate(job, plain, "plain", null)); //$NON-NLS-1$
+        for (final String name : new String[] { "a", "abc" }) { //$NON-NLS-1$//$NON-NLS-2$
+          candidates.add(new _Candidate(job,
+              UltraGzipTest.__rename(plain, name), name, null));
+        }
+      }
+      Collections.shuffle(candidates, random);
+
+      for (int i = threads.length; (--i) >= 0;) {
+        final List<_Candidate> mine =
+            candidates.subList(Math.min(candidates.size(), //
+                i * perThread),
+                Math.min(candidates.size(), (i + 1) * perThread));
+        final _Leaderboard board = leaderboard;
+        threads[i] = new Thread(() -> {
+          for (final _Candidate candidate : mine) {
+            board._offer(candidate);
+          }
+        });
+      }
+      for (final Thread thread : threads) {
+        thread.start();
+      }
+      for (final Thread thread : threads) {
+        thread.join();
+      }
+
+      Assert.assertEquals(archives.size(),
+          leaderboard._candidates().size());
+      for (final _Candidate candidate : candidates) {
+        if (leaderboard._candidates().contains(candidate)) {
+          Assert.assertArrayEquals(
+              archives.get(candidate.m_digest), candidate._data());
+        } else {
+          try {
+            candidate._data();
+            Assert.fail("dropped candidate was not released"); //$NON-NLS-1$
+          } catch (@SuppressWarnings("unused") final IllegalStateException expected) {
+            // the candidate has been released
+          }
+        }
+      }
+      leaderboard._clear();
+    }
+  }
+
+  /**
+   * Test that a blob beyond the heap budget is spilled to the
+   * scratch directory, reads back identically, and is deleted
+   * once released
    *
    * @throws IOException
    *           if i/o fails
    */
   @Test(timeout = 3600000)
-  public final void testReproducible_22_22_2()
-      throws IOException {
-    this.__testReproducible(22, 22, 2);
+  public final void testBlobSpill() throws IOException {
+    final Random random;
+    final byte[] data;
+    final UltraGzipJob job;
+    final Path dir;
+    _Blob blob;
+
+    random = UltraGzipTest.__random();
+    data = UltraGzipTest.__compressible(random,
+        1 + random.nextInt(100000));
+    job = UltraGzip.getInstance().get().setData(data)//
+        .setName("test").get(); //$NON-NLS-1$
+    dir = job._scratchDirectory();
+
+    blob = new _Blob(data, job, Long.MAX_VALUE);
+    Assert.assertSame(data, blob._bytes());
+    Assert.assertEquals(0, dir.toFile().list().length);
+    blob._release();
+
+    blob = new _Blob(data, job, 0L);
+    Assert.assertEquals(1, dir.toFile().list().length);
+    Assert.assertNotSame(data, blob._bytes());
+    Assert.assertArrayEquals(data, blob._bytes());
+    try (final ByteArrayOutputStream bos =
+        new ByteArrayOutputStream()) {
+      blob._write(bos);
+      Assert.assertArrayEquals(data, bos.toByteArray());
+    }
+
+    blob._retain();
+    blob._release();
+    Assert.assertArrayEquals(data, blob._bytes());
+    blob._release();
+    Assert.assertEquals(0, dir.toFile().list().length);
+    try {
+      blob._bytes();
+      Assert.fail("released blob can still be read"); //$NON-NLS-1$
+    } catch (@SuppressWarnings("unused") final IllegalStateException expected) {
+      // the blob has been released
+    }
+    Files.delete(dir);
   }
 
   /**
-   * Test on a reproducible setup
+   * Test compressing data which is mapped into memory in several
+   * segments instead of being loaded into an array
    *
    * @throws IOException
    *           if i/o fails
    */
   @Test(timeout = 3600000)
-  public final void testReproducible_2_22_22()
-      throws IOException {
-    this.__testReproducible(2, 22, 22);
+  public final void testMapped() throws IOException {
+    final Random random;
+    final byte[] data;
+    final Path path;
+    final CRC32 crc;
+    final _Input input;
+    final int segment, start;
+
+    random = UltraGzipTest.__random();
+    data = UltraGzipTest.__compressible(random,
+        300000 + random.nextInt(100000));
+    segment = 100003;
+    path = Files.createTempFile("mapped", ".bin"); //$NON-NLS-1$//$NON-NLS-2$
+    try {
+      Files.write(path, data);
+      input = _Input._load(path, 0L, segment);
+      Assert.assertNull(input._array());
+      Assert.assertEquals(data.length, input.m_size);
+
+      // accesses crossing a segment boundary
+      start = segment - 1 - random.nextInt(1000);
+      Assert.assertArrayEquals(
+          Arrays.copyOfRange(data, start, start + 2000),
+          input._copy(start, 2000));
+      Assert.assertTrue(input._matches(start,
+          Arrays.copyOfRange(data, start, start + 2000), 2000));
+      crc = new CRC32();
+      crc.update(data);
+      Assert.assertEquals((int) (crc.getValue()), input._crc());
+      try (final ByteArrayOutputStream bos =
+          new ByteArrayOutputStream()) {
+        input._write(bos);
+        Assert.assertArrayEquals(data, bos.toByteArray());
+      }
+
+      for (final int chunkSize : new int[] { 0, 150000 }) {
+        this.__check(data, UltraGzip.getInstance().get()
+            ._setInput(input).setName("test")//$NON-NLS-1$
+            .setChunkSize(chunkSize).get().call());
+      }
+    } finally {
+      Files.delete(path);
+    }
   }
 
   /**
-   * Test on a reproducible setup
+   * Test queuing many candidates for the recompression with
+   * advdef, which starts a batch as soon as enough are pending
    *
    * @throws IOException
    *           if i/o fails
    */
   @Test(timeout = 3600000)
-  public final void testReproducible_7_12_5()
-      throws IOException {
-    this.__testReproducible(7, 12, 5);
+  public final void testPendingBatches() throws IOException {
+    final Random random;
+    final byte[] data;
+    final ArrayList<byte[]> archives;
+    final HashSet<ByteBuffer> digests;
+    UltraGzipJob job;
+    ArrayList<_Candidate> pending;
+
+    random = UltraGzipTest.__random();
+    data = UltraGzipTest.__compressible(random,
+        10000 + random.nextInt(20000));
+    archives = new ArrayList<>();
+    for (int level = 1; level <= 9; level++) {
+      for (int memLevel = 1; memLevel <= 9; memLevel += 4) {
+        archives.add(UltraGzipTest.__gzip(data, level, memLevel));
+      }
+    }
+
+    // every distinct payload is queued exactly once
+    job = UltraGzip.getInstance().get().setData(data)//
+        .setName("test").get(); //$NON-NLS-1$
+    digests = new HashSet<>();
+    for (final byte[] archive : archives) {
+      Assert.assertEquals(
+          digests.add(_GZipFormat._payloadDigest(archive))
+              ? digests.size() : 0,
+          job._addPending(new _Candidate(job, archive, "test", //$NON-NLS-1$
+              null)));
+    }
+    Assert.assertTrue(digests.size() > _ADVDEF.MAX_BATCH);
+    pending = job._takePending();
+    Assert.assertEquals(digests.size(), pending.size());
+    for (final _Candidate candidate : pending) {
+      candidate._release();
+    }
+    Assert.assertNull(job._takePending());
+
+    // with advdef, full batches start while results still arrive
+    Assume.assumeNotNull(
+        Configuration.getExecutable(_ADVDEF.ARG));
+    job = UltraGzip.getInstance().get().setData(data)//
+        .setName("test").get(); //$NON-NLS-1$
+    for (final byte[] archive : archives) {
+      _ADVDEF._postprocess(job, archive, "test"); //$NON-NLS-1$
+    }
+    pending = job._takePending();
+    if (pending != null) {
+      Assert.assertTrue(pending.size() < _ADVDEF.MAX_BATCH);
+      for (final _Candidate candidate : pending) {
+        candidate._release();
+      }
+    }
+    this.__check(data, job.call());
+  }
+
+  /**
+   * Test re-optimizing a gzip archive with multiple members
+   *
+   * @throws IOException
+   *           if i/o fails
+   */
+  @Test(timeout = 3600000)
+  public final void testRecompress() throws IOException {
+    final Random random;
+    final byte[] data, archive, result;
+    final long count;
+    int start, end;
+
+    random = UltraGzipTest.__random();
+    data = UltraGzipTest.__compressible(random,
+        10000 + random.nextInt(20000));
+
+    try (final ByteArrayOutputStream bos =
+        new ByteArrayOutputStream()) {
+      for (start = 0; start < data.length; start = end) {
+        end = Math.min(data.length,
+            start + 1 + random.nextInt(8192));
+        try (final GZIPOutputStream gos =
+            new GZIPOutputStream(bos) {
+              /** do not close the underlying stream */
+              @Override
+              public final void close() throws IOException {
+                this.finish();
+              }
+            }) {
+          gos.write(data, start, end - start);
+        }
+      }
+      archive = bos.toByteArray();
+      bos.reset();
+
+      count = _Recompression._recompress(
+          new ByteArrayInputStream(archive), bos, "test"); //$NON-NLS-1$
+      result = bos.toByteArray();
+      Assert.assertTrue(count > 0L);
+      Assert.assertTrue(result.length <= archive.length);
+    }
+    this.__check(data, result);
+  }
+
+  /**
+   * Walk through the members of a BGZF archive and check that each
+   * carries a {@code BC} field holding its size.
+   *
+   * @param archive
+   *          the archive
+   * @return the offsets of the members, followed by the archive
+   *         length
+   */
+  private static final List<Integer> __bgzfMembers(
+      final byte[] archive) {
+    final ArrayList<Integer> offsets;
+    int offset;
+
+    offsets = new ArrayList<>();
+    offset = 0;
+    while (offset < archive.length) {
+      offsets.add(Integer.valueOf(offset));
+      Assert.assertArrayEquals(
+          new byte[] { 0x1f, (byte) 0x8b, 8, 4 },
+          Arrays.copyOfRange(archive, offset, offset + 4));
+      Assert.assertArrayEquals(new byte[] { 6, 0, 'B', 'C', 2, 0 },
+          Arrays.copyOfRange(archive, offset + 10, offset + 16));
+      offset += 1 + ((archive[offset + 16] & 0xff)
+          | ((archive[offset + 17] & 0xff) << 8));
+    }
+    Assert.assertEquals(archive.length, offset);
+    offsets.add(Integer.valueOf(offset));
+    return offsets;
+  }
+
+  /**
+   * Test that re-optimizing a BGZF archive keeps the {@code BC}
+   * fields of its members up to date
+   *
+   * @throws IOException
+   *           if i/o fails
+   */
+  @Test(timeout = 3600000)
+  public final void testRecompressBgzf() throws IOException {
+    final Random random;
+    final byte[] data, archive;
+    final List<Integer> offsets;
+    final Deflater deflater;
+    final CRC32 crc;
+    final byte[] buffer;
+    byte[] result;
+    int start, end, length;
+
+    random = UltraGzipTest.__random();
+    data = UltraGzipTest.__compressible(random,
+        20000 + random.nextInt(20000));
+    archive = UltraGzip.getInstance().get().setData(data)//
+        .setName("test").setMemberSize(8192).get().call(); //$NON-NLS-1$
+    offsets = UltraGzipTest.__bgzfMembers(archive);
+
+    // the members of our own output remain BGZF members
+    try (final ByteArrayOutputStream bos =
+        new ByteArrayOutputStream()) {
+      Assert.assertEquals(offsets.size() - 1,
+          _Recompression._recompress(new ByteArrayInputStream(archive),
+              bos, "test", null)); //$NON-NLS-1$
+      result = bos.toByteArray();
+    }
+    Assert.assertEquals(offsets.size(),
+        UltraGzipTest.__bgzfMembers(result).size());
+    this.__check(data, result);
+
+    // members with poorly compressed payloads keep their BC fields
+    deflater = new Deflater(1, true);
+    crc = new CRC32();
+    buffer = new byte[65536];
+    try (final ByteArrayOutputStream bos =
+        new ByteArrayOutputStream()) {
+      for (start = 0; start < data.length; start = end) {
+        end = Math.min(data.length, start + 8192);
+        deflater.reset();
+        deflater.setInput(data, start, end - start);
+        deflater.finish();
+        length = 0;
+        while (!(deflater.finished())) {
+          length += deflater.deflate(buffer, length,
+              buffer.length - length);
+        }
+        crc.reset();
+        crc.update(data, start, end - start);
+        length += 26;
+        bos.write(new byte[] { 0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0,
+            0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0,
+            (byte) (length - 1), (byte) ((length - 1) >>> 8) });
+        bos.write(buffer, 0, length - 26);
+        for (int i = 0; i < 32; i += 8) {
+          bos.write((int) (crc.getValue() >>> i));
+        }
+        for (int i = 0; i < 32; i += 8) {
+          bos.write((end - start) >>> i);
+        }
+      }
+      deflater.end();
+      start = offsets.get(offsets.size() - 2).intValue();
+      bos.write(archive, start, archive.length - start); // EOF
+      result = bos.toByteArray();
+    }
+    this.__check(data, result);
+    Assert.assertEquals(offsets.size(),
+        UltraGzipTest.__bgzfMembers(result).size());
+
+    try (final ByteArrayOutputStream bos =
+        new ByteArrayOutputStream()) {
+      _Recompression._recompress(new ByteArrayInputStream(result),
+          bos, "test", null); //$NON-NLS-1$
+      Assert.assertTrue(bos.size() < result.length);
+      Assert.assertEquals(offsets.size(),
+          UltraGzipTest.__bgzfMembers(bos.toByteArray()).size());
+      this.__check(data, bos.toByteArray());
+    }
+  }
+
+  /**
+   * Test that members which the size cache knows to be no larger
+   * than the best result for their data are copied unchanged
+   *
+   * @throws IOException
+   *           if i/o fails
+   */
+  @Test(timeout = 3600000)
+  public final void testSizeCache() throws IOException {
+    final Random random;
+    final byte[] archive;
+    final Path path;
+    final _SizeCache cache;
+    final _MemberReader reader;
+    byte[] data;
+
+    random = UltraGzipTest.__random();
+    try (final ByteArrayOutputStream bos =
+        new ByteArrayOutputStream()) {
+      for (int i = 0; i < 3; i++) {
+        data = UltraGzipTest.__compressible(random,
+            1 + random.nextInt(10000));
+        bos.write(UltraGzipTest.__gzip(data, 1, 1));
+      }
+      archive = bos.toByteArray();
+    }
+
+    path = Files.createTempFile("sizes", ".txt"); //$NON-NLS-1$//$NON-NLS-2$
+    try {
+      Files.delete(path);
+      cache = new _SizeCache(path);
+      reader = new _MemberReader(new ByteArrayInputStream(archive));
+      while (reader._next()) {
+        Assert.assertEquals(-1L, cache._get(reader._digest()));
+        cache._put(reader._digest(), reader._member().length);
+      }
+
+      try (final ByteArrayOutputStream bos =
+          new ByteArrayOutputStream()) {
+        Assert.assertEquals(3L, _Recompression._recompress(
+            new ByteArrayInputStream(archive), bos, "test", cache)); //$NON-NLS-1$
+        Assert.assertArrayEquals(archive, bos.toByteArray());
+      }
+      Assert.assertEquals(3, Files
+          .readAllLines(path, StandardCharsets.UTF_8)
+          .size());
+    } finally {
+      Files.deleteIfExists(path);
+    }
+  }
+
+  /**
+   * Test re-optimizing the entries of a ZIP archive
+   *
+   * @throws IOException
+   *           if i/o fails
+   */
+  @Test(timeout = 3600000)
+  public final void testZipRecompress() throws IOException {
+    final Random random;
+    final byte[][] data;
+    final byte[] archive, result;
+    ZipEntry entry;
+
+    random = UltraGzipTest.__random();
+    data = new byte[1 + random.nextInt(4)][];
+    for (int j = 0; j < data.length; j++) {
+      data[j] = UltraGzipTest.__compressible(random,
+          random.nextInt(20000));
+    }
+
+    try (final ByteArrayOutputStream bos =
+        new ByteArrayOutputStream()) {
+      try (final ZipOutputStream zos =
+          new ZipOutputStream(bos)) {
+        for (int j = 0; j < data.length; j++) {
+          zos.putNextEntry(new ZipEntry("e" + j)); //$NON-NLS-1$
+          zos.write(data[j]);
+          zos.closeEntry();
+        }
+      }
+      archive = bos.toByteArray();
+      result = _ZipRecompression._recompress(archive, "test"); //$NON-NLS-1$
+      Assert.assertTrue(result.length <= archive.length);
+
+      try (final ZipInputStream zis =
+          new ZipInputStream(
+              new ByteArrayInputStream(result))) {
+        for (int j = 0; j < data.length; j++) {
+          entry = zis.getNextEntry();
+          Assert.assertNotNull(entry);
+          bos.reset();
+          this.copy(zis, bos);
+          Assert.assertArrayEquals(data[j], bos.toByteArray());
+        }
+        Assert.assertNull(zis.getNextEntry());
+      }
+    }
+  }
+
+  /**
+   * Test that the bytes before the central directory of a ZIP
+   * archive, such as an APK signing block, survive re-optimization
+   *
+   * @throws IOException
+   *           if something fails
+   */
+  @Test(timeout = 3600000)
+  public final void testZipGap() throws IOException {
+    final Random random;
+    final byte[] data, gap, plain, archive, result;
+    final int directory;
+    int found;
+
+    random = UltraGzipTest.__random();
+    data = UltraGzipTest.__compressible(random, 10000);
+    gap = new byte[100];
+    random.nextBytes(gap);
+
+    try (final ByteArrayOutputStream bos =
+        new ByteArrayOutputStream()) {
+      try (final ZipOutputStream zos =
+          new ZipOutputStream(bos)) {
+        zos.setLevel(1);
+        zos.putNextEntry(new ZipEntry("e")); //$NON-NLS-1$
+        zos.write(data);
+        zos.closeEntry();
+      }
+      plain = bos.toByteArray();
+
+      // insert the gap before the central directory
+      directory = ((plain[plain.length - 6] & 0xff)
+          | ((plain[plain.length - 5] & 0xff) << 8)
+          | ((plain[plain.length - 4] & 0xff) << 16)
+          | ((plain[plain.length - 3] & 0xff) << 24));
+      archive = new byte[plain.length + gap.length];
+      System.arraycopy(plain, 0, archive, 0, directory);
+      System.arraycopy(gap, 0, archive, directory, gap.length);
+      System.arraycopy(plain, directory, archive,
+          directory + gap.length, plain.length - directory);
+      for (int i = 0; i < 4; i++) {
+        archive[archive.length - 6 + i] =
+            ((byte) ((directory + gap.length) >>> (i << 3)));
+      }
+
+      result = _ZipRecompression._recompress(archive, "test"); //$NON-NLS-1$
+      Assert.assertTrue(result.length < archive.length);
+
+      found = -1;
+      outer: for (int i = 0; i <= (result.length - gap.length); i++) {
+        for (int j = 0; j < gap.length; j++) {
+          if (result[i + j] != gap[j]) {
+            continue outer;
+          }
+        }
+        found = i;
+        break;
+      }
+      Assert.assertTrue(found > 0);
+
+      try (final ZipInputStream zis =
+          new ZipInputStream(
+              new ByteArrayInputStream(result))) {
+        Assert.assertNotNull(zis.getNextEntry());
+        bos.reset();
+        this.copy(zis, bos);
+        Assert.assertArrayEquals(data, bos.toByteArray());
+        Assert.assertNull(zis.getNextEntry());
+      }
+    }
+
+    // corrupted offsets and sizes must be reported as IOExceptions:
+    // a directory of two entries truncated two bytes into the
+    // second one, since the comment of the first one is too long,
+    UltraGzipTest.__assertCorruptZip(archive, archive.length - 12,
+        0x00020002, directory + gap.length + 32, 20);
+    // a local header beyond the end of the archive,
+    UltraGzipTest.__assertCorruptZip(archive,
+        directory + gap.length + 42, 0x7ffffff0);
+    // and a directory whose end overflows int arithmetic
+    UltraGzipTest.__assertCorruptZip(archive, archive.length - 10,
+        0x7fffffff);
+  }
+
+  /**
+   * Corrupt little-endian 32 bit fields of a ZIP archive and check
+   * that re-optimizing it fails with an {@link IOException}.
+   *
+   * @param archive
+   *          the intact archive
+   * @param fields
+   *          pairs of the index of a field and the value to store
+   *          in it
+   */
+  private static final void __assertCorruptZip(final byte[] archive,
+      final int... fields) {
+    final byte[] corrupted;
+
+    corrupted = archive.clone();
+    for (int field = 0; field < fields.length; field += 2) {
+      for (int i = 0; i < 4; i++) {
+        corrupted[fields[field] + i] =
+            ((byte) (fields[field + 1] >>> (i << 3)));
+      }
+    }
+    try {
+      _ZipRecompression._recompress(corrupted, "test"); //$NON-NLS-1$
+      Assert.fail("corrupted ZIP archive accepted"); //$NON-NLS-1$
+    } catch (@SuppressWarnings("unused") final IOException expected) {
+      // offsets are checked before they are used
+    }
+  }
+
+  /**
+   * Test producing zlib streams and raw DEFLATE streams
+   *
+   * @throws Exception
+   *           if something fails
+   */
+  @Test(timeout = 3600000)
+  public final void testFormats() throws Exception {
+    final Random random;
+    final byte[] data, result;
+    Inflater inflater;
+    byte[] compressed;
+
+    random = UltraGzipTest.__random();
+    data = UltraGzipTest.__compressible(random,
+        1 + random.nextInt(20000));
+    result = new byte[data.length];
+
+    for (final EDeflateFormat format : new EDeflateFormat[] {
+        EDeflateFormat.ZLIB, EDeflateFormat.RAW }) {
+      compressed = UltraGzip.getInstance().get().setData(data)//
+          .setName("test")//$NON-NLS-1$
+          .setOutputFormat(format).get().call();
+      inflater = new Inflater(
+          format == EDeflateFormat.RAW);
+      inflater.setInput(compressed);
+      Assert.assertEquals(data.length, inflater.inflate(result));
+      Assert.assertTrue(inflater.finished());
+      Assert.assertEquals(0, inflater.getRemaining());
+      inflater.end();
+      Assert.assertArrayEquals(data, result);
+    }
+  }
+
+  /**
+   * Test that every result carries the canonical gzip header
+   *
+   * @throws IOException
+   *           if i/o fails
+   */
+  @Test(timeout = 3600000)
+  public final void testCanonicalHeader() throws IOException {
+    final Random random;
+    final byte[] data, header;
+    byte[] compressed;
+
+    random = UltraGzipTest.__random();
+    data = new byte[1 + random.nextInt(20000)];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = ((byte) ('a' + random.nextInt(4)));
+    }
+
+    compressed = UltraGzip.getInstance().get().setData(data)//
+        .setName("test").get().call(); //$NON-NLS-1$
+    Assert.assertEquals(10, _GZipFormat._headerLength(compressed));
+    Assert.assertArrayEquals(
+        new byte[] { 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, -1 },
+        Arrays.copyOf(compressed, 10));
+
+    compressed = UltraGzip.getInstance().get().setData(data)//
+        .setName("test").setHeaderName("test.txt")//$NON-NLS-1$//$NON-NLS-2$
+        .setHeaderTime(0x12345678L).get().call();
+    header = _GZipFormat._header("test.txt", 0x12345678L); //$NON-NLS-1$
+    Assert.assertEquals(19, header.length);
+    Assert.assertArrayEquals(header,
+        Arrays.copyOf(compressed, header.length));
+    this.__check(data, compressed);
+  }
+
+  /**
+   * Test selecting the result which is cheapest to decode
+   *
+   * @throws IOException
+   *           if i/o fails
+   */
+  @Test(timeout = 3600000)
+  public final void testDecodeMargin() throws IOException {
+    final Random random;
+    final byte[] data, small, large;
+    final int smallest, difference;
+    UltraGzipJob job;
+    _DeflateStats costly, cheap;
+
+    random = UltraGzipTest.__random();
+    data = UltraGzipTest.__compressible(random,
+        1 + random.nextInt(20000));
+
+    smallest = UltraGzip.getInstance().get().setData(data)//
+        .setName("test").setDecodeMargin(-1).get().call().length; //$NON-NLS-1$
+    for (final boolean defer : new boolean[] { false, true }) {
+      final byte[] compressed = UltraGzip.getInstance().get()
+          .setData(data).setName("test")//$NON-NLS-1$
+          .setDeferVerification(defer).setDecodeMargin(100).get()
+          .call();
+      Assert.assertTrue(compressed.length <= (smallest + 100));
+      this.__check(data, compressed);
+    }
+
+    // of two known candidates, the larger one which is cheaper to
+    // decode wins if and only if it is within the margin
+    small = UltraGzipTest.__gzip(data, 9, 9);
+    large = UltraGzipTest.__gzip(data, 1, 1);
+    difference = (large.length - small.length);
+    Assert.assertTrue(difference > 0);
+    for (int margin = difference - 1; margin <= difference;
+        margin++) {
+      job = UltraGzip.getInstance().get().setData(data)//
+          .setName("test").setDeterministic(false)//$NON-NLS-1$
+          .setDecodeMargin(margin).get();
+      costly = new _DeflateStats();
+      costly.m_dynamicBlocks = 1000L;
+      cheap = new _DeflateStats();
+      job.m_leaderboard._offer(new _Candidate(job, small, "small", //$NON-NLS-1$
+          costly));
+      Assert.assertTrue(job._isPromising(small.length + margin));
+      Assert.assertFalse(job._isPromising(small.length + margin + 1));
+      job.m_leaderboard._offer(new _Candidate(job, large, "large", //$NON-NLS-1$
+          cheap));
+      Assert.assertArrayEquals((margin >= difference) ? large : small,
+          job._select());
+      job.m_leaderboard._clear();
+    }
+  }
+
+  /**
+   * Test that the deterministic mode yields identical results
+   *
+   * @throws IOException
+   *           if i/o fails
+   */
+  @Test(timeout = 3600000)
+  public final void testDeterministic() throws IOException {
+    final Random random;
+    final byte[] data, first, second;
+    final ArrayList<byte[]> archives;
+    final ArrayList<_Candidate> inOrder, shuffled;
+    UltraGzipJob job;
+
+    random = UltraGzipTest.__random();
+    data = UltraGzipTest.__compressible(random,
+        1 + random.nextInt(10000));
+
+    first = UltraGzip.getInstance().get().setData(data)//
+        .setName("test").setDeterministic(true).get().call(); //$NON-NLS-1$
+    second = UltraGzip.getInstance().get().setData(data)//
+        .setName("test").setDeterministic(true)//$NON-NLS-1$
+        .setDeferVerification(true).get().call();
+    Assert.assertArrayEquals(first, second);
+
+    // The leaderboard must end up with the same entries no matter
+    // in which order the compressors finish, so feed the same
+    // candidates in their natural and in a shuffled order.
+    archives = new ArrayList<>();
+    for (int level = 1; level <= 9; level++) {
+      for (int memLevel = 1; memLevel <= 9; memLevel++) {
+        archives.add(UltraGzipTest.__gzip(data, level, memLevel));
+      }
+    }
+    job = UltraGzip.getInstance().get().setData(data)//
+        .setName("test").setDeterministic(true).get(); //$NON-NLS-1$
+    for (final byte[] archive : archives) {
+      job._register(archive, "test"); //$NON-NLS-1$
+    }
+    inOrder = job.m_leaderboard._candidates();
+
+    Collections.shuffle(archives, random);
+    job = UltraGzip.getInstance().get().setData(data)//
+        .setName("test").setDeterministic(true).get(); //$NON-NLS-1$
+    for (final byte[] archive : archives) {
+      job._register(archive, "test"); //$NON-NLS-1$
+    }
+    shuffled = job.m_leaderboard._candidates();
+
+    Assert.assertEquals(inOrder.size(), shuffled.size());
+    for (int i = 0; i < inOrder.size(); i++) {
+      Assert.assertArrayEquals(inOrder.get(i)._data(),
+          shuffled.get(i)._data());
+    }
+  }
+
+  /**
+   * Test the direct encoding of incompressible data
+   *
+   * @throws IOException
+   *           if i/o fails
+   */
+  @Test(timeout = 3600000)
+  public final void testIncompressible() throws IOException {
+    final Random random;
+    byte[] data;
+    final CRC32 crc;
+    byte[] compressed, stored;
+
+    random = UltraGzipTest.__random();
+    data = new byte[32768 + random.nextInt(300000)];
+    random.nextBytes(data);
+    Assert.assertTrue(
+        _Incompressible._isIncompressible(new _Input(data)));
+    compressed = UltraGzip.getInstance().get().setData(data)//
+        .setName("test").get().call(); //$NON-NLS-1$
+    Assert.assertTrue(compressed.length <= (data.length + 18
+        + (5 * ((data.length / 65535) + 1))));
+
+    // some parts are cheaper as fixed-Huffman blocks
+    for (int i = random.nextInt(data.length); i < data.length; i++) {
+      data[i] = ((byte) random.nextInt(144));
+    }
+    crc = new CRC32();
+    crc.update(data);
+    compressed = _Incompressible._encode(data,
+        _GZipFormat._header(null, 0L), ((int) (crc.getValue())));
+    this.__check(data, compressed);
+
+    // a compressible region between the points where evenly spread
+    // samples would be taken must not be missed
+    data = new byte[262144];
+    random.nextBytes(data);
+    System.arraycopy(UltraGzipTest.__compressible(random, 4096), 0,
+        data, 20000, 4096);
+    Assert.assertFalse(
+        _Incompressible._isIncompressible(new _Input(data)));
+    crc.reset();
+    crc.update(data);
+    stored = _Incompressible._encode(data,
+        _GZipFormat._header(null, 0L), ((int) (crc.getValue())));
+    compressed = UltraGzip.getInstance().get().setData(data)//
+        .setName("test").get().call(); //$NON-NLS-1$
+    this.__check(data, compressed);
+    Assert.assertTrue(compressed.length < stored.length);
+  }
+
+  /**
+   * Test the in-JVM encoder for tiny data
+   *
+   * @throws IOException
+   *           if i/o fails
+   */
+  @Test(timeout = 3600000)
+  public final void testTiny() throws IOException {
+    final Random random;
+    final CRC32 crc;
+    final Deflater deflater;
+    final byte[] buffer;
+    final UltraGzipJob job;
+    byte[] data, compressed;
+    int deflated;
+
+    random = UltraGzipTest.__random();
+    crc = new CRC32();
+    for (int i = 0; i < 200; i++) {
+      data = new byte[random.nextInt(1025)];
+      for (int j = 0; j < data.length; j++) {
+        data[j] = ((byte) ((random.nextInt(4) == 0)
+            ? data[Math.max(0, j - 1 - random.nextInt(64))]
+            : random.nextInt(1 + (i & 255))));
+      }
+      crc.reset();
+      crc.update(data);
+      compressed = _TinyDeflate._encode(data,
+          _GZipFormat._header(null, 0L), ((int) (crc.getValue())));
+      this.__check(data, compressed);
+    }
+
+    // the result of a job is never larger than what Java's Deflater
+    // produces at level 9 plus the 18 bytes of the gzip wrapper
+    buffer = new byte[2048];
+    deflater = new Deflater(9, true);
+    try {
+      for (int i = 0; i < 100; i++) {
+        data = new byte[1 + random.nextInt(256)];
+        for (int j = 0; j < data.length; j++) {
+          data[j] = ((byte) ((random.nextInt(3) == 0)
+              ? data[Math.max(0, j - 1 - random.nextInt(32))]
+              : random.nextInt(1 + (i << 1))));
+        }
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        deflated = 0;
+        while (!(deflater.finished())) {
+          deflated += deflater.deflate(buffer);
+        }
+        compressed = UltraGzip.getInstance().get().setData(data)//
+            .setName("test").get().call(); //$NON-NLS-1$
+        this.__check(data, compressed);
+        Assert.assertTrue(compressed.length <= (deflated + 18));
+      }
+    } finally {
+      deflater.end();
+    }
+
+    // the threshold is a setting of the job
+    data = "tiny, tiny, tiny data".getBytes(); //$NON-NLS-1$
+    job = UltraGzip.getInstance().get().setData(data)//
+        .setName("test").setTinySize(0).get(); //$NON-NLS-1$
+    Assert.assertEquals(0, job.m_tinySize);
+    this.__check(data, job.call());
+    try {
+      UltraGzip.getInstance().get()
+          .setTinySize(_TinyDeflate.MAX_SIZE + 1);
+      Assert.fail("too large tiny data size accepted"); //$NON-NLS-1$
+    } catch (@SuppressWarnings("unused") final IllegalArgumentException expected) {
+      // the encoder is limited to small data
+    }
+  }
+
+  /**
+   * Test re-optimizing the image data of a PNG file
+   *
+   * @throws IOException
+   *           if i/o fails
+   */
+  @Test(timeout = 3600000)
+  public final void testPngRecompress() throws IOException {
+    final Random random;
+    final BufferedImage image, read;
+    final byte[] png, result, corrupted;
+
+    random = UltraGzipTest.__random();
+    image = new BufferedImage(1 + random.nextInt(100),
+        1 + random.nextInt(100),
+        BufferedImage.TYPE_INT_RGB);
+    for (int y = image.getHeight(); (--y) >= 0;) {
+      for (int x = image.getWidth(); (--x) >= 0;) {
+        image.setRGB(x, y, ((x * y) << 4) + random.nextInt(4));
+      }
+    }
+
+    try (final ByteArrayOutputStream bos =
+        new ByteArrayOutputStream()) {
+      ImageIO.write(image, "png", bos); //$NON-NLS-1$
+      png = bos.toByteArray();
+    }
+    result = _PngRecompression._recompress(png, "test"); //$NON-NLS-1$
+    Assert.assertTrue(result.length <= png.length);
+
+    read = ImageIO
+        .read(new ByteArrayInputStream(result));
+    Assert.assertEquals(image.getWidth(), read.getWidth());
+    Assert.assertEquals(image.getHeight(), read.getHeight());
+    for (int y = image.getHeight(); (--y) >= 0;) {
+      for (int x = image.getWidth(); (--x) >= 0;) {
+        Assert.assertEquals(image.getRGB(x, y), read.getRGB(x, y));
+      }
+    }
+
+    // a chunk length which overflows int arithmetic is an IOException
+    corrupted = png.clone();
+    corrupted[8] = 0x7f;
+    corrupted[9] = ((byte) 0xff);
+    corrupted[10] = ((byte) 0xff);
+    corrupted[11] = ((byte) 0xf8);
+    try {
+      _PngRecompression._recompress(corrupted, "test"); //$NON-NLS-1$
+      Assert.fail("overflowing chunk length accepted"); //$NON-NLS-1$
+    } catch (@SuppressWarnings("unused") final IOException expected) {
+      // the bounds are checked in long arithmetic
+    }
+  }
+
+  /**
+   * Test the framing protocol of the Python workers, including a
+   * setting which zlib rejects
+   *
+   * @throws IOException
+   *           if i/o fails
+   */
+  @Test(timeout = 3600000)
+  public final void testPythonFraming() throws IOException {
+    final Random random;
+    final int[][] settings;
+    byte[] data;
+    byte[][] results;
+
+    random = UltraGzipTest.__random();
+    settings = new int[][] { { 9, 8, 31, 9, 0 }, //
+        { 10, 8, 31, 9, 0 }, // invalid level
+        { 1, 8, 31, 1, 2 } };
+
+    // run twice so that the second request reuses the worker
+    for (int i = 0; i < 2; i++) {
+      data = UltraGzipTest.__compressible(random,
+          1 + random.nextInt(20000));
+      results = _GZPython._compress(data, null, settings);
+      Assume.assumeNotNull((Object) results);
+      Assert.assertEquals(settings.length, results.length);
+      Assert.assertEquals(0, results[1].length);
+      this.__check(data, results[0]);
+      this.__check(data, results[2]);
+    }
+  }
+
+  /**
+   * Test packing a directory into a tar archive ordered by
+   * similarity
+   *
+   * @throws IOException
+   *           if i/o fails
+   */
+  @Test(timeout = 3600000)
+  public final void testTar() throws IOException {
+    final Random random;
+    final Path dir;
+    final byte[] a, b, c, tar;
+    final String[] names;
+    int index, size;
+
+    random = UltraGzipTest.__random();
+    a = new byte[1000 + random.nextInt(10000)];
+    random.nextBytes(a);
+    b = new byte[1000 + random.nextInt(10000)];
+    random.nextBytes(b);
+    c = a.clone();
+    c[random.nextInt(c.length)]++;
+
+    dir = Files.createTempDirectory("tar"); //$NON-NLS-1$
+    try {
+      Files.write(dir.resolve("a"), a); //$NON-NLS-1$
+      Files.write(dir.resolve("b"), b); //$NON-NLS-1$
+      Files.write(dir.resolve("c"), c); //$NON-NLS-1$
+      tar = _Tar._tar(dir);
+    } finally {
+      for (final String name : new String[] { "a", "b", "c" }) { //$NON-NLS-1$//$NON-NLS-2$//$NON-NLS-3$
+        Files.deleteIfExists(dir.resolve(name));
+      }
+      Files.delete(dir);
+    }
+
+    // the similar files a and c must be next to each other
+    names = new String[3];
+    index = 0;
+    for (int i = 0; i < names.length; i++) {
+      names[i] = new String(tar, index, 100,
+          StandardCharsets.US_ASCII).trim();
+      names[i] = names[i].substring(names[i].lastIndexOf('/') + 1);
+      size = Integer.parseInt(new String(tar, index + 124, 11,
+          StandardCharsets.US_ASCII), 8);
+      Assert.assertArrayEquals(
+          names[i].equals("a") ? a : (names[i].equals("b") ? b : c), //$NON-NLS-1$ //$NON-NLS-2$
+          Arrays.copyOfRange(tar, index + 512, index + 512 + size));
+      index += (512 + ((size + 511) & (~511)));
+    }
+    Assert.assertArrayEquals(new String[] { "a", "c", "b" }, //$NON-NLS-1$//$NON-NLS-2$//$NON-NLS-3$
+        names);
+    Assert.assertEquals(tar.length, index + 1024);
+
+    this.__test(tar);
+  }
+
+  /**
+   * Test arrays of random length with semi-random data
+   *
+   * @throws IOException
+   *           if i/o fails
+   */
+  @Test(timeout = 3600000)
+  public final void testSemiRandomSmall() throws IOException {
+    final Random random;
+    int j, k;
+    byte[] data;
+
+    random = new Random();
+
+    data = new byte[1 + (1 << random.nextInt(5))
+        + random.nextInt(16)];
+    random.nextBytes(data);
+
+    do {
+      if (random.nextBoolean()) {
+        j = random.nextInt(data.length);
+        k = j + 1 + Math.min((data.length >>> 5),
+            random.nextInt(data.length - j));
+      } else {
+        j = random.nextInt(data.length + 1);
+        k = random.nextInt(data.length + 1);
+      }
+      Arrays.fill(data, Math.min(j, k), Math.max(j, k),
+          ((byte) (random.nextInt())));
+    } while (random.nextInt(80) > 0);
+
+    do {
+      data[random.nextInt(data.length)] =
+          ((byte) (random.nextInt()));
+    } while (random.nextInt(20) > 0);
+
+    this.__test(data);
+  }
+
+  /**
+   * Test arrays of random length with semi-random data
+   *
+   * @throws IOException
+   *           if i/o fails
+   */
+  @Test(timeout = 3600000)
+  public final void testSemiRandomBig() throws IOException {
+    final Random random;
+    int j, k;
+    byte[] data;
+
+    random = new Random();
+
+    data = new byte[1 + (1 << random.nextInt(14))
+        + random.nextInt(32)];
+    random.nextBytes(data);
+
+    do {
+      if (random.nextBoolean()) {
+        j = random.nextInt(data.length);
+        k = j + 1 + Math.min((data.length >>> 5),
+            random.nextInt(data.length - j));
+      } else {
+        j = random.nextInt(data.length + 1);
+        k = random.nextInt(data.length + 1);
+      }
+      Arrays.fill(data, Math.min(j, k), Math.max(j, k),
+          ((byte) (random.nextInt())));
+    } while (random.nextInt(80) > 0);
+
+    do {
+      data[random.nextInt(data.length)] =
+          ((byte) (random.nextInt()));
+    } while (random.nextInt(20) > 0);
+
+    this.__test(data);
+  }
+
+  /**
+   * Test test on a reproducible dataset
+   *
+   * @param n
+   *          the first multiplier
+   * @param m
+   *          the second multiplier
+   * @param l
+   *          the third multiplier
+   * @throws IOException
+   *           if i/o fails
+   */
+  private final void __testReproducible(final int n, final int m,
+      final int l) throws IOException {
+    final byte[] source = new byte[n * m * l];
+    int index = 0;
+    for (int i = n; (--i) >= 0;) {
+      for (int j = m; (--j) >= 0;) {
+        for (int k = l; (--k) >= 0;) {
+          source[index++] = (byte) k;
+        }
+      }
+    }
+
+    this.__test(source);
+  }
+
+  /**
+   * Test on a reproducible setup
+   *
+   * @throws IOException
+   *           if i/o fails
+   */
+  @Test(timeout = 3600000)
+  public final void testReproducible_2_2_2() throws IOException {
+    this.__testReproducible(2, 2, 2);
+  }
+
+  /**
+   * Test on a reproducible setup
+   *
+   * @throws IOException
+   *           if i/o fails
+   */
+  @Test(timeout = 3600000)
+  public final void testReproducible_2_2_3() throws IOException {
+    this.__testReproducible(2, 2, 3);
+  }
+
+  /**
+   * Test on a reproducible setup
+   *
+   * @throws IOException
+   *           if i/o fails
+   */
+  @Test(timeout = 3600000)
+  public final void testReproducible_3_3_3() throws IOException {
+    this.__testReproducible(3, 3, 3);
+  }
+
+  /**
+   * Test on a reproducible setup
+   *
+   * @throws IOException
+   *           if i/o fails
+   */
+  @Test(timeout = 3600000)
+  public final void testReproducible_9_9_92()
+      throws IOException {
+    this.__testReproducible(9, 9, 9);
+  }
+
+  /**
+   * Test on a reproducible setup
+   *
+   * @throws IOException
+   *           if i/o fails
+   */
+  @Test(timeout = 3600000)
+  public final void testReproducible_22_22_2()
+      throws IOException {
+    this.__testReproducible(22, 22, 2);
+  }
+
+  /**
+   * Test on a reproducible setup
+   *
+   * @throws IOException
+   *           if i/o fails
+   */
+  @Test(timeout = 3600000)
+  public final void testReproducible_2_22_22()
+      throws IOException {
+    this.__testReproducible(2, 22, 22);
+  }
+
+  /**
+   * Test on a reproducible setup
+   *
+   * @throws IOException
+   *           if i/o fails
+   */
+  @Test(timeout = 3600000)
+  public final void testReproducible_7_12_5()
+      throws IOException {
+    this.__testReproducible(7, 12, 5);
+  }
+
+  /**
+   * Test that our own inflater decodes what zlib produces and
+   * counts all bytes in its statistics
+   */
+  @Test(timeout = 3600000)
+  public final void testInflater() {
+    final Random random;
+    final _Inflater inflater;
+    final _DeflateStats stats;
+    final byte[] data, compressed;
+    Deflater deflater;
+    int length;
+
+    random = UltraGzipTest.__random();
+    data = UltraGzipTest.__compressible(random,
+        1 + random.nextInt(100000));
+    compressed = new byte[(2 * data.length) + 1024];
+    inflater = new _Inflater();
+    stats = new _DeflateStats();
+
+    for (int level = 0; level <= 9; level++) {
+      deflater = new Deflater(level, true);
+      deflater.setInput(data);
+      deflater.finish();
+      length = 0;
+      while (!(deflater.finished())) {
+        length += deflater.deflate(compressed, length,
+            compressed.length - length);
+      }
+      deflater.end();
+
+      stats._clear();
+      Assert.assertEquals(length, inflater._inflate(compressed, 0,
+          length, data, 0, data.length, stats));
+      Assert.assertEquals(data.length, stats.m_literals
+          + stats.m_matchBytes + stats.m_storedBytes);
+
+      data[data.length >>> 1]++;
+      Assert.assertEquals(-1, inflater._inflate(compressed, 0,
+          length, data, 0, data.length, null));
+      data[data.length >>> 1]--;
+    }
   }
 
   /**